@@ -0,0 +1,138 @@
+package com.eugenezhu.voxforge.rag;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: SimdKernels
+ * @author: zhuyuchen
+ * @description: float32 相似度计算的 Vector API 实现, 使用硬件支持的最宽向量; 依赖 jdk.incubator.vector 模块,
+ *               只能经由 VectorKernels 在模块可用时调用, 否则加载本类会失败
+ * @date: 2026/10/20 下午2:00
+ */
+public final class SimdKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    // 与 float/int 通道数相同的 int8 向量, 宽度为其 1/4; 最窄为 64 位, 128 位以下的硬件为 null
+    private static final VectorSpecies<Byte> BYTE_SPECIES = byteSpecies();
+
+    private SimdKernels() {
+    }
+
+    /**
+     * 每次可并行处理的 float 数, 硬件不支持向量指令时为 1 或 2
+     */
+    public static int lanes() {
+        return SPECIES.length();
+    }
+
+    public static float dot(float[] a, float[] b) {
+        // 两个累加器交替使用, 隐藏乘加的延迟
+        FloatVector acc0 = FloatVector.zero(SPECIES);
+        FloatVector acc1 = FloatVector.zero(SPECIES);
+        int step = SPECIES.length();
+        int i = 0;
+        for (int bound = a.length - 2 * step; i <= bound; i += 2 * step) {
+            acc0 = FloatVector.fromArray(SPECIES, a, i).fma(FloatVector.fromArray(SPECIES, b, i), acc0);
+            acc1 = FloatVector.fromArray(SPECIES, a, i + step).fma(FloatVector.fromArray(SPECIES, b, i + step), acc1);
+        }
+        for (int bound = SPECIES.loopBound(a.length); i < bound; i += step) {
+            acc0 = FloatVector.fromArray(SPECIES, a, i).fma(FloatVector.fromArray(SPECIES, b, i), acc0);
+        }
+        float s = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) s += a[i] * b[i];
+        return s;
+    }
+
+    /**
+     * int8 码的内积是否可用向量指令计算
+     */
+    public static boolean supportsInt8() {
+        return BYTE_SPECIES != null;
+    }
+
+    /**
+     * float 与 int8 码的内积, int8 逐通道扩展为 float 后乘加
+     */
+    public static float dot(float[] a, byte[] b) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int step = SPECIES.length();
+        int i = 0;
+        for (int bound = SPECIES.loopBound(a.length); i < bound; i += step) {
+            FloatVector vb = (FloatVector) ByteVector.fromArray(BYTE_SPECIES, b, i).castShape(SPECIES, 0);
+            acc = FloatVector.fromArray(SPECIES, a, i).fma(vb, acc);
+        }
+        float s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) s += a[i] * b[i];
+        return s;
+    }
+
+    /**
+     * 两个 int8 码的内积, 扩展为 int 后乘加
+     */
+    public static int dot(byte[] a, byte[] b) {
+        IntVector acc = IntVector.zero(INT_SPECIES);
+        int step = INT_SPECIES.length();
+        int i = 0;
+        for (int bound = INT_SPECIES.loopBound(a.length); i < bound; i += step) {
+            IntVector va = (IntVector) ByteVector.fromArray(BYTE_SPECIES, a, i).castShape(INT_SPECIES, 0);
+            IntVector vb = (IntVector) ByteVector.fromArray(BYTE_SPECIES, b, i).castShape(INT_SPECIES, 0);
+            acc = va.mul(vb).add(acc);
+        }
+        int s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) s += a[i] * b[i];
+        return s;
+    }
+
+    public static float cosine(float[] a, float[] b) {
+        FloatVector dot = FloatVector.zero(SPECIES);
+        FloatVector na = FloatVector.zero(SPECIES);
+        FloatVector nb = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(a.length); i < bound; i += SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, i);
+            dot = va.fma(vb, dot);
+            na = va.fma(va, na);
+            nb = vb.fma(vb, nb);
+        }
+        float d = dot.reduceLanes(VectorOperators.ADD);
+        float sa = na.reduceLanes(VectorOperators.ADD);
+        float sb = nb.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            d += a[i] * b[i];
+            sa += a[i] * a[i];
+            sb += b[i] * b[i];
+        }
+        float denom = (float) (Math.sqrt(sa) * Math.sqrt(sb));
+        return denom == 0 ? 0 : d / denom;
+    }
+
+    public static float l2Squared(float[] a, float[] b) {
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(a.length); i < bound; i += SPECIES.length()) {
+            FloatVector diff = FloatVector.fromArray(SPECIES, a, i).sub(FloatVector.fromArray(SPECIES, b, i));
+            acc = diff.fma(diff, acc);
+        }
+        float s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            float d = a[i] - b[i];
+            s += d * d;
+        }
+        return s;
+    }
+
+    private static VectorSpecies<Byte> byteSpecies() {
+        int bits = SPECIES.vectorBitSize() / 4;
+        if (bits < 64 || INT_SPECIES.length() != SPECIES.length()) return null;
+        return VectorSpecies.of(byte.class, VectorShape.forBitSize(bits));
+    }
+}
@@ -7,6 +7,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.List;
+
 /**
  * @projectName: VoxForge
  * @package: com.hzau.voxforge.config
@@ -23,6 +26,56 @@ public class AiConfig {
     private String model;
     @Value("${external.llm.timeout}")
     private String timeout;
+    @Value("${external.llm.stream:true}")
+    private boolean stream;
+    @Value("${external.llm.models:}")
+    private List<String> models;
+
+    @Value("${external.llm.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+    @Value("${external.llm.hedge.percentile:0.95}")
+    private double hedgePercentile;
+    @Value("${external.llm.hedge.window-size:200}")
+    private int hedgeWindowSize;
+    @Value("${external.llm.hedge.min-samples:20}")
+    private int hedgeMinSamples;
+    @Value("${external.llm.hedge.initial-delay:5s}")
+    private Duration hedgeInitialDelay;
+    @Value("${external.llm.hedge.min-delay:500ms}")
+    private Duration hedgeMinDelay;
+
+    @Value("${external.llm.cache.enabled:true}")
+    private boolean cacheEnabled;
+    @Value("${external.llm.cache.max-entries:1024}")
+    private int cacheMaxEntries;
+    @Value("${external.llm.cache.semantic-max-entries:512}")
+    private int cacheSemanticMaxEntries;
+    @Value("${external.llm.cache.ttl:30m}")
+    private Duration cacheTtl;
+    @Value("${external.llm.cache.similarity-threshold:0.95}")
+    private double cacheSimilarityThreshold;
+    @Value("${external.llm.cache.env-keys:os,shell}")
+    private List<String> cacheEnvKeys;
+
+    @Value("${external.llm.fast-path.enabled:true}")
+    private boolean fastPathEnabled;
+    @Value("${external.llm.fast-path.min-score:0.85}")
+    private double fastPathMinScore;
+    @Value("${external.llm.fast-path.min-margin:0.05}")
+    private double fastPathMinMargin;
+
+    @Value("${external.llm.memory.enabled:true}")
+    private boolean memoryEnabled;
+    @Value("${external.llm.memory.max-turns:6}")
+    private int memoryMaxTurns;
+    @Value("${external.llm.memory.token-budget:2048}")
+    private int memoryTokenBudget;
+    @Value("${external.llm.memory.summary-tokens:256}")
+    private int memorySummaryTokens;
+    @Value("${external.llm.memory.max-sessions:10000}")
+    private int memoryMaxSessions;
+    @Value("${external.llm.memory.idle-ttl:2h}")
+    private Duration memoryIdleTtl;
 
     @Value("${external.embedding.api-key}")
     private String embeddingApiKey;
@@ -38,9 +91,31 @@ public class AiConfig {
         return new EmbeddingProperties(embeddingApiKey, embeddingModel, embeddingTimeout, embeddingDimension);
     }
 
+    @Bean
+    public LlmCacheProperties llmCacheProperties() {
+        return new LlmCacheProperties(cacheEnabled, cacheMaxEntries, cacheSemanticMaxEntries, cacheTtl, cacheSimilarityThreshold, cacheEnvKeys);
+    }
+
+    @Bean
+    public LlmHedgeProperties llmHedgeProperties() {
+        return new LlmHedgeProperties(hedgeEnabled, hedgePercentile, hedgeWindowSize, hedgeMinSamples, hedgeInitialDelay, hedgeMinDelay);
+    }
+
+    @Bean
+    public LlmFastPathProperties llmFastPathProperties() {
+        return new LlmFastPathProperties(fastPathEnabled, fastPathMinScore, fastPathMinMargin);
+    }
+
+    @Bean
+    public LlmMemoryProperties llmMemoryProperties() {
+        return new LlmMemoryProperties(memoryEnabled, memoryMaxTurns, memoryTokenBudget, memorySummaryTokens, memoryMaxSessions, memoryIdleTtl);
+    }
+
     @Bean
     public LlmProperties llmProperties() {
-        return new LlmProperties(apiKey, model, timeout);
+        // 模型池为空时只使用主模型
+        List<String> pool = models == null ? List.of() : models.stream().map(String::trim).filter(m -> !m.isEmpty()).toList();
+        return new LlmProperties(apiKey, model, timeout, stream, pool.isEmpty() ? List.of(model) : pool);
     }
 
     @Data
@@ -50,6 +125,53 @@ public class AiConfig {
         private String apiKey;
         private String model;
         private String timeout;
+        private boolean stream; // 是否以流式方式解析任务链
+        private List<String> models; // 模型池, 按优先级排列, 第一个为主模型
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class LlmHedgeProperties {
+        private boolean enabled;
+        private double percentile; // 主模型超过该分位延迟仍未返回时发出对冲请求
+        private int windowSize; // 每个模型保留的最近延迟样本数
+        private int minSamples; // 样本不足时使用 initialDelay
+        private Duration initialDelay;
+        private Duration minDelay; // 对冲延迟下限, 避免过早对冲放大流量
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class LlmCacheProperties {
+        private boolean enabled;
+        private int maxEntries; // 精确匹配层最大条目数
+        private int semanticMaxEntries; // 语义匹配层最大条目数
+        private Duration ttl; // 条目存活时间
+        private double similarityThreshold; // 语义命中的最小余弦相似度
+        private List<String> envKeys; // 参与环境指纹计算的 clientEnv 字段
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class LlmFastPathProperties {
+        private boolean enabled;
+        private double minScore; // 最相似命令的余弦相似度下限
+        private double minMargin; // 第一名与第二名的相似度差下限, 避免在近似候选之间随意选择
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class LlmMemoryProperties {
+        private boolean enabled;
+        private int maxTurns; // 每个会话保留的最近轮次数, 更早的轮次折叠为摘要
+        private int tokenBudget; // 单次请求提示词总预算 (估算值), 系统提示词和当前输入之外的部分留给对话上下文
+        private int summaryTokens; // 摘要最大 token 数
+        private int maxSessions;
+        private Duration idleTtl; // 会话空闲超过该时间后清除记忆
     }
 
     @Data
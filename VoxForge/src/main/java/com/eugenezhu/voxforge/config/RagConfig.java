@@ -0,0 +1,284 @@
+package com.eugenezhu.voxforge.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.config
+ * @className: RagConfig
+ * @author: zhuyuchen
+ * @description: rag 检索配置类
+ * @date: 2026/10/19 下午2:10
+ */
+@Configuration
+public class RagConfig {
+    @Value("${rag.hnsw.enabled:true}")
+    private boolean hnswEnabled;
+    @Value("${rag.hnsw.m:16}")
+    private int hnswM;
+    @Value("${rag.hnsw.ef-construction:200}")
+    private int hnswEfConstruction;
+    @Value("${rag.hnsw.ef-search:64}")
+    private int hnswEfSearch;
+    @Value("${rag.hnsw.max-ef-search:512}")
+    private int hnswMaxEfSearch;
+    @Value("${rag.hnsw.recall-sample-rate:0.05}")
+    private double hnswRecallSampleRate;
+
+    @Value("${rag.quantization.enabled:true}")
+    private boolean quantizationEnabled;
+    @Value("${rag.quantization.rerank-factor:4}")
+    private int quantizationRerankFactor;
+    @Value("${rag.quantization.float-path:${java.io.tmpdir}/voxforge/command-vectors.bin}")
+    private String quantizationFloatPath;
+    @Value("${rag.quantization.exact-sample-rate:0.01}")
+    private double quantizationExactSampleRate;
+
+    @Value("${rag.two-stage.enabled:false}")
+    private boolean twoStageEnabled;
+    @Value("${rag.two-stage.coarse-dimension:256}")
+    private int twoStageCoarseDimension;
+    @Value("${rag.two-stage.rerank-dimension:0}")
+    private int twoStageRerankDimension;
+    @Value("${rag.two-stage.shortlist:50}")
+    private int twoStageShortlist;
+
+    @Value("${rag.embedding-cache.enabled:true}")
+    private boolean embeddingCacheEnabled;
+    @Value("${rag.embedding-cache.heap-entries:4096}")
+    private int embeddingCacheHeapEntries;
+    @Value("${rag.embedding-cache.path:${java.io.tmpdir}/voxforge/embedding-cache.bin}")
+    private String embeddingCachePath;
+    @Value("${rag.embedding-cache.max-file-bytes:268435456}")
+    private long embeddingCacheMaxFileBytes;
+
+    @Value("${rag.retrieval-cache.enabled:true}")
+    private boolean retrievalCacheEnabled;
+    @Value("${rag.retrieval-cache.max-entries:4096}")
+    private int retrievalCacheMaxEntries;
+
+    @Value("${rag.usage.enabled:true}")
+    private boolean usageEnabled;
+    @Value("${rag.usage.weight:0.5}")
+    private double usageWeight;
+    @Value("${rag.usage.min-count:2}")
+    private int usageMinCount;
+    @Value("${rag.usage.depth:10}")
+    private int usageDepth;
+    @Value("${rag.usage.top-n:32}")
+    private int usageTopN;
+    @Value("${rag.usage.sketch-width:256}")
+    private int usageSketchWidth;
+    @Value("${rag.usage.sketch-depth:4}")
+    private int usageSketchDepth;
+    @Value("${rag.usage.max-users:10000}")
+    private int usageMaxUsers;
+    @Value("${rag.usage.flush-batch-size:500}")
+    private int usageFlushBatchSize;
+
+    @Value("${rag.offline-embedding.enabled:true}")
+    private boolean offlineEmbeddingEnabled;
+    @Value("${rag.offline-embedding.dimension:256}")
+    private int offlineEmbeddingDimension;
+    @Value("${rag.offline-embedding.hash-bits:20}")
+    private int offlineEmbeddingHashBits;
+    @Value("${rag.offline-embedding.min-n:1}")
+    private int offlineEmbeddingMinN;
+    @Value("${rag.offline-embedding.max-n:3}")
+    private int offlineEmbeddingMaxN;
+    @Value("${rag.offline-embedding.seed:20261023}")
+    private long offlineEmbeddingSeed;
+
+    @Value("${rag.indexing.batch-size:200}")
+    private int indexingBatchSize;
+    @Value("${rag.indexing.embed-batch-size:10}")
+    private int indexingEmbedBatchSize;
+    @Value("${rag.indexing.concurrency:4}")
+    private int indexingConcurrency;
+
+    @Value("${rag.hybrid.enabled:true}")
+    private boolean hybridEnabled;
+    @Value("${rag.hybrid.rrf-k:60}")
+    private int hybridRrfK;
+    @Value("${rag.hybrid.depth:20}")
+    private int hybridDepth;
+    @Value("${rag.hybrid.vector-deadline:1500ms}")
+    private Duration hybridVectorDeadline;
+    @Value("${rag.hybrid.lexical-deadline:100ms}")
+    private Duration hybridLexicalDeadline;
+
+    @Value("${rag.library.dir:}")
+    private String libraryDir;
+    @Value("${rag.library.include-builtin:true}")
+    private boolean libraryIncludeBuiltin;
+    @Value("${rag.library.include-database:true}")
+    private boolean libraryIncludeDatabase;
+    @Value("${rag.library.watch-interval-ms:30000}")
+    private long libraryWatchIntervalMs;
+
+    @Bean
+    public HnswProperties hnswProperties() {
+        return new HnswProperties(hnswEnabled, hnswM, hnswEfConstruction, hnswEfSearch, hnswMaxEfSearch, hnswRecallSampleRate);
+    }
+
+    @Bean
+    public QuantizationProperties quantizationProperties() {
+        return new QuantizationProperties(quantizationEnabled, quantizationRerankFactor, quantizationFloatPath, quantizationExactSampleRate);
+    }
+
+    @Bean
+    public TwoStageProperties twoStageProperties() {
+        return new TwoStageProperties(twoStageEnabled, twoStageCoarseDimension, twoStageRerankDimension, twoStageShortlist);
+    }
+
+    @Bean
+    public EmbeddingCacheProperties embeddingCacheProperties() {
+        return new EmbeddingCacheProperties(embeddingCacheEnabled, embeddingCacheHeapEntries, embeddingCachePath, embeddingCacheMaxFileBytes);
+    }
+
+    @Bean
+    public RetrievalCacheProperties retrievalCacheProperties() {
+        return new RetrievalCacheProperties(retrievalCacheEnabled, retrievalCacheMaxEntries);
+    }
+
+    @Bean
+    public UsageProperties usageProperties() {
+        return new UsageProperties(usageEnabled, usageWeight, usageMinCount, usageDepth, usageTopN,
+                usageSketchWidth, usageSketchDepth, usageMaxUsers, usageFlushBatchSize);
+    }
+
+    @Bean
+    public OfflineEmbeddingProperties offlineEmbeddingProperties() {
+        return new OfflineEmbeddingProperties(offlineEmbeddingEnabled, offlineEmbeddingDimension, offlineEmbeddingHashBits,
+                offlineEmbeddingMinN, offlineEmbeddingMaxN, offlineEmbeddingSeed);
+    }
+
+    @Bean
+    public IndexingProperties indexingProperties() {
+        return new IndexingProperties(indexingBatchSize, indexingEmbedBatchSize, indexingConcurrency);
+    }
+
+    @Bean
+    public HybridProperties hybridProperties() {
+        return new HybridProperties(hybridEnabled, hybridRrfK, hybridDepth, hybridVectorDeadline, hybridLexicalDeadline);
+    }
+
+    @Bean
+    public LibraryProperties libraryProperties() {
+        return new LibraryProperties(libraryDir, libraryIncludeBuiltin, libraryIncludeDatabase, libraryWatchIntervalMs);
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class HnswProperties {
+        private boolean enabled;
+        private int m; // 每层最大邻居数, 第 0 层为 2m
+        private int efConstruction; // 构建时的候选队列长度
+        private int efSearch; // 查询时的默认候选队列长度
+        private int maxEfSearch; // 单次请求可指定的候选队列长度上限
+        private double recallSampleRate; // 抽样同时查询 pgvector 以统计召回率的比例
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class QuantizationProperties {
+        private boolean enabled; // HNSW 索引以 int8 码存储向量
+        private int rerankFactor; // 按 int8 相似度取 k * rerankFactor 个候选, 再用 float 向量精确重排
+        private String floatPath; // 重排用 float 向量的内存映射文件, 为空时不重排
+        private double exactSampleRate; // 抽样做精确全量扫描, 统计量化与重排后的召回率
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class TwoStageProperties {
+        private boolean enabled; // HNSW 图只保存向量的前 coarseDimension 维, 候选再按全维 float 向量精确重排
+        private int coarseDimension; // 第一阶段 (建图与候选检索) 的维度, 需为 Matryoshka 式嵌入, 不小于嵌入维度时不截断
+        private int rerankDimension; // 第二阶段 (重排) 的维度, 不大于 0 时使用全部维度
+        private int shortlist; // 第一阶段取回的候选数, 不小于 k
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class EmbeddingCacheProperties {
+        private boolean enabled;
+        private int heapEntries; // 堆内 LRU 最大条目数
+        private String path; // 文件层路径, 为空时只使用堆内缓存
+        private long maxFileBytes; // 文件层上限, 写满后不再追加
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RetrievalCacheProperties {
+        private boolean enabled;
+        private int maxEntries; // LRU 最大条目数, 条目在命令库版本变化后失效, 不设 TTL
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class UsageProperties {
+        private boolean enabled;
+        private double weight; // 使用先验的权重, 最常用的命令分数乘以 (1 + weight)
+        private int minCount; // 执行成功次数达到该值的命令才加权
+        private int depth; // 有使用记录的用户召回的候选数, 重排后再截取 k 条
+        private int topN; // 每个用户保留次数的命令数
+        private int sketchWidth; // count-min sketch 每行计数器数
+        private int sketchDepth; // count-min sketch 行数
+        private int maxUsers; // 内存中保留的用户数, LRU 淘汰
+        private int flushBatchSize; // 每次写入数据库的最大条数
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class OfflineEmbeddingProperties {
+        private boolean enabled; // embedding 接口熔断或超时时用离线向量检索
+        private int dimension; // 随机投影后的维度
+        private int hashBits; // 特征哈希的桶数为 2^hashBits
+        private int minN; // 字符 n-gram 的最小长度
+        private int maxN; // 字符 n-gram 的最大长度
+        private long seed; // 投影矩阵的种子, 修改后需重建离线索引 (重启或重新加载命令库)
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class IndexingProperties {
+        private int batchSize; // 每批存在性查询与写入的模板数
+        private int embedBatchSize; // 每次 embedding 请求的文本数, 受上游单次输入条数限制
+        private int concurrency; // 同时处理的批数
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class HybridProperties {
+        private boolean enabled; // 关闭时先向量检索, 无结果再词法检索
+        private int rrfK; // 倒数排名融合的平滑常数, 越大排名靠后的结果权重越高
+        private int depth; // 每一路召回的条数, 融合后再截取 k 条
+        private Duration vectorDeadline; // 向量检索 (含 embedding) 的截止时间, 超时只用词法结果
+        private Duration lexicalDeadline;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class LibraryProperties {
+        private String dir; // 命令库目录, 读取其中的 *.json (模板数组) 与 *.jsonl (每行一个模板), 为空时不读取
+        private boolean includeBuiltin; // 是否包含 classpath 中的 commands/builtin.json
+        private boolean includeDatabase; // 是否包含 kb_commands 中 source = 'db' 的行
+        private long watchIntervalMs; // 检查目录变化的间隔, 变化后自动重新加载
+    }
+}
@@ -96,6 +96,24 @@ public class Resilience4jConfig {
         return registry.circuitBreaker("llmApi", cfg);
     }
 
+    /**
+     * embedding 接口的 CircuitBreaker, 慢调用也计入失败率; 打开期间检索改用离线向量
+     */
+    @Bean("embeddingCircuitBreaker")
+    public CircuitBreaker embeddingCircuitBreaker(CircuitBreakerRegistry registry) {
+        CircuitBreakerConfig cfg = CircuitBreakerConfig.custom()
+                .failureRateThreshold(50f)
+                .slowCallDurationThreshold(Duration.ofMillis(1500)) // 与向量检索的截止时间一致
+                .slowCallRateThreshold(50f)
+                .waitDurationInOpenState(Duration.ofSeconds(10))
+                .permittedNumberOfCallsInHalfOpenState(5)
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.TIME_BASED)
+                .slidingWindowSize(30)
+                .minimumNumberOfCalls(10)
+                .build();
+        return registry.circuitBreaker("embeddingApi", cfg);
+    }
+
     /**
      * 注册 ASR 服务的 Bulkhead, 舱壁隔离
      * 相当于为asr服务注册一个舱壁, 最大并发调用数为 10, 超过 10 个并发调用时, 其他调用会被阻塞, 直到有空闲槽位
@@ -55,6 +55,8 @@ public class SecurityConfig {
                                 .pathMatchers("/swagger-ui/**", "/swagger-ui.html", "/v3/api-docs", "/v3/api-docs/**").permitAll()
                                 // 允许 webjars 静态资源 (Swagger UI 依赖)
                                 .pathMatchers("/webjars/**").permitAll()
+                                // 管理接口只允许 admin 角色
+                                .pathMatchers("/admin/**").hasRole("ADMIN")
                                 // 其他所有请求都需要认证
                                 .anyExchange().authenticated()
                 )
@@ -0,0 +1,62 @@
+package com.eugenezhu.voxforge.controller;
+
+import com.eugenezhu.voxforge.rag.CommandLibrary;
+import com.eugenezhu.voxforge.rag.CommandUsageTracker;
+import com.eugenezhu.voxforge.rag.IndexLifecycle;
+import com.eugenezhu.voxforge.rag.OfflineVectorIndex;
+import com.eugenezhu.voxforge.rag.RetrievalCache;
+import com.eugenezhu.voxforge.service.RagService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.controller
+ * @className: AdminController
+ * @author: zhuyuchen
+ * @description: 管理接口, 仅 admin 角色可访问
+ * @date: 2026/10/21 下午3:30
+ */
+@Slf4j
+@RestController
+@RequestMapping("/admin")
+@RequiredArgsConstructor
+@Tag(name = "Admin API", description = "管理接口")
+public class AdminController {
+
+    private final RagService ragService;
+    private final CommandLibrary commandLibrary;
+    private final IndexLifecycle indexLifecycle;
+    private final RetrievalCache retrievalCache;
+    private final CommandUsageTracker commandUsageTracker;
+    private final OfflineVectorIndex offlineVectorIndex;
+
+    @PostMapping("/library/reload")
+    @Operation(summary = "重新加载命令库", description = "重新读取命令库文件与 kb_commands, 只为新增或内容变化的模板计算向量")
+    public Mono<ResponseEntity<Map<String, Object>>> reloadLibrary() {
+        log.info("收到命令库重新加载请求");
+        return ragService.reloadLibrary().map(ResponseEntity::ok);
+    }
+
+    @GetMapping("/library")
+    @Operation(summary = "命令库状态", description = "返回当前生效的命令库版本, 模板数量, 索引就绪状态, 检索结果缓存, 命令使用统计与离线向量索引")
+    public Mono<ResponseEntity<Map<String, Object>>> libraryStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("version", commandLibrary.version());
+        status.put("size", commandLibrary.templates().size());
+        status.put("index", indexLifecycle.stats());
+        status.put("retrievalCache", retrievalCache.stats());
+        status.put("usage", commandUsageTracker.stats());
+        status.put("offlineIndex", offlineVectorIndex.stats());
+        status.put("embeddingCircuitOpen", ragService.isEmbeddingCircuitOpen());
+        return Mono.just(ResponseEntity.ok(status));
+    }
+}
@@ -0,0 +1,252 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.config.AiConfig;
+import com.eugenezhu.voxforge.model.LlmResponse;
+import com.eugenezhu.voxforge.util.Hashing;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: ConversationMemory
+ * @author: zhuyuchen
+ * @description: 会话级滚动对话记忆, 每个会话保留最近 N 轮对话的环形缓冲区, 被挤出的旧轮次折叠为一行摘要追加到增量摘要中;
+ *               渲染上下文时按 token 预算从最新轮次向前裁剪, 预算不足时优先丢弃最旧的摘要行
+ * @date: 2026/10/18 下午7:15
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversationMemory {
+
+    private static final int MAX_TEXT_LENGTH = 200; // 单轮用户输入/助手回复保留的最大字符数
+
+    private final AiConfig.LlmMemoryProperties memoryProperties;
+
+    private final ConcurrentHashMap<Long, SessionContext> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong recordedTurns = new AtomicLong();
+    private final AtomicLong foldedTurns = new AtomicLong(); // 折叠进摘要的轮次
+    private final AtomicLong trimmedTurns = new AtomicLong(); // 因预算不足未进入提示词的轮次
+    private final AtomicLong expiredSessions = new AtomicLong();
+
+    public boolean isEnabled() {
+        return memoryProperties.isEnabled();
+    }
+
+    /**
+     * 记录一轮对话, 只记录生成了任务的轮次
+     * @param sessionId 会话ID
+     * @param text 用户输入
+     * @param response 解析结果
+     */
+    public void record(Long sessionId, String text, LlmResponse response) {
+        if (!isEnabled() || sessionId == null || response == null || response.getTasks() == null || response.getTasks().isEmpty()) {
+            return;
+        }
+        StringBuilder assistant = new StringBuilder();
+        if (response.getReply() != null) assistant.append(response.getReply());
+        assistant.append(" [执行: ");
+        for (int i = 0; i < response.getTasks().size(); i++) {
+            if (i > 0) assistant.append("; ");
+            assistant.append(response.getTasks().get(i).getCmd());
+        }
+        assistant.append(']');
+        Turn turn = new Turn(truncate(text), truncate(assistant.toString()));
+
+        SessionContext context = sessions.computeIfAbsent(sessionId, k -> new SessionContext());
+        synchronized (context) {
+            context.turns.addLast(turn);
+            while (context.turns.size() > memoryProperties.getMaxTurns()) {
+                context.fold(context.turns.removeFirst(), memoryProperties.getSummaryTokens());
+                foldedTurns.incrementAndGet();
+            }
+            context.touchedAt = System.currentTimeMillis();
+        }
+        recordedTurns.incrementAndGet();
+    }
+
+    /**
+     * 会话是否已有对话历史
+     */
+    public boolean hasHistory(Long sessionId) {
+        return isEnabled() && sessionId != null && sessions.containsKey(sessionId);
+    }
+
+    /**
+     * 会话上下文指纹: 对可能进入提示词的摘要与轮次取哈希, 没有历史时为空串;
+     * 解析结果缓存以它区分上下文, 只有上下文相同的请求共享缓存条目
+     */
+    public String fingerprint(Long sessionId) {
+        if (!hasHistory(sessionId)) return "";
+        SessionContext context = sessions.get(sessionId);
+        if (context == null) return "";
+        List<Object> parts = new ArrayList<>();
+        synchronized (context) {
+            parts.addAll(context.summary);
+            context.turns.forEach(turn -> {
+                parts.add(turn.user);
+                parts.add(turn.assistant);
+            });
+        }
+        return Hashing.fingerprint(parts.toArray());
+    }
+
+    /**
+     * 在总预算中扣除提示词固定部分后渲染会话上下文
+     * @param sessionId 会话ID
+     * @param fixedParts 必须完整发送的部分, 如系统提示词和当前输入
+     * @return 上下文文本
+     */
+    public String contextFor(Long sessionId, CharSequence... fixedParts) {
+        if (!hasHistory(sessionId)) return "";
+        int budget = memoryProperties.getTokenBudget();
+        for (CharSequence part : fixedParts) budget -= TokenEstimator.estimate(part);
+        return render(sessionId, budget);
+    }
+
+    /**
+     * 渲染会话上下文, 保证估算 token 数不超过预算
+     * @param sessionId 会话ID
+     * @param budgetTokens 可用 token 预算
+     * @return 上下文文本, 没有历史或预算不足时返回空串
+     */
+    public String render(Long sessionId, int budgetTokens) {
+        if (!isEnabled() || sessionId == null || budgetTokens <= 0) return "";
+        SessionContext context = sessions.get(sessionId);
+        if (context == null) return "";
+
+        List<String> summary;
+        List<String> turns = new ArrayList<>();
+        int used = 0;
+        synchronized (context) {
+            context.touchedAt = System.currentTimeMillis();
+            // 从最新一轮向前取, 直到预算用完
+            Iterator<Turn> it = context.turns.descendingIterator();
+            while (it.hasNext()) {
+                Turn turn = it.next();
+                String line = "用户: " + turn.user + "\n助手: " + turn.assistant + "\n";
+                int cost = TokenEstimator.estimate(line);
+                if (used + cost > budgetTokens) {
+                    trimmedTurns.incrementAndGet();
+                    break;
+                }
+                turns.add(0, line);
+                used += cost;
+            }
+            summary = new ArrayList<>(context.summary);
+        }
+
+        // 剩余预算装入摘要, 从最新的摘要行向前取
+        StringBuilder summaryBlock = new StringBuilder();
+        int remaining = budgetTokens - used;
+        for (int i = summary.size() - 1; i >= 0; i--) {
+            int cost = TokenEstimator.estimate(summary.get(i));
+            if (cost > remaining) break;
+            summaryBlock.insert(0, summary.get(i) + "\n");
+            remaining -= cost;
+        }
+
+        if (turns.isEmpty() && summaryBlock.isEmpty()) return "";
+        StringBuilder sb = new StringBuilder();
+        if (!summaryBlock.isEmpty()) sb.append("早前对话摘要：\n").append(summaryBlock);
+        if (!turns.isEmpty()) {
+            sb.append("最近对话：\n");
+            turns.forEach(sb::append);
+        }
+        return sb.toString();
+    }
+
+    public void clear(Long sessionId) {
+        if (sessionId != null) sessions.remove(sessionId);
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("sessions", (long) sessions.size());
+        stats.put("recordedTurns", recordedTurns.get());
+        stats.put("foldedTurns", foldedTurns.get());
+        stats.put("trimmedTurns", trimmedTurns.get());
+        stats.put("expiredSessions", expiredSessions.get());
+        return stats;
+    }
+
+    /**
+     * 清理空闲会话, 并在会话数超限时淘汰最久未使用的会话
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdle() {
+        if (!isEnabled() || sessions.isEmpty()) return;
+        long expireBefore = System.currentTimeMillis() - memoryProperties.getIdleTtl().toMillis();
+        sessions.entrySet().removeIf(e -> {
+            boolean expired = e.getValue().touchedAt < expireBefore;
+            if (expired) expiredSessions.incrementAndGet();
+            return expired;
+        });
+        int overflow = sessions.size() - memoryProperties.getMaxSessions();
+        if (overflow > 0) {
+            // 先取快照再排序, 避免排序过程中 touchedAt 被并发修改
+            sessions.entrySet().stream()
+                    .map(e -> Map.entry(e.getKey(), e.getValue().touchedAt))
+                    .toList()
+                    .stream()
+                    .sorted(Map.Entry.comparingByValue())
+                    .limit(overflow)
+                    .map(Map.Entry::getKey)
+                    .toList()
+                    .forEach(id -> {
+                        sessions.remove(id);
+                        expiredSessions.incrementAndGet();
+                    });
+        }
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (!isEnabled() || recordedTurns.get() == 0) return;
+        log.info("会话记忆统计: {}", stats());
+    }
+
+    private String truncate(String s) {
+        if (s == null) return "";
+        String t = s.strip().replaceAll("\\s+", " ");
+        return t.length() <= MAX_TEXT_LENGTH ? t : t.substring(0, MAX_TEXT_LENGTH) + "…";
+    }
+
+    private record Turn(String user, String assistant) {
+    }
+
+    /**
+     * 单个会话的上下文, 访问时需持有其监视器
+     */
+    private static class SessionContext {
+        private final ArrayDeque<Turn> turns = new ArrayDeque<>();
+        private final ArrayDeque<String> summary = new ArrayDeque<>(); // 每行对应一个被折叠的轮次
+        private int summaryTokens = 0;
+        private volatile long touchedAt = System.currentTimeMillis();
+
+        /**
+         * 把被挤出环形缓冲区的轮次折叠为一行摘要, 摘要超出预算时丢弃最旧的行
+         */
+        void fold(Turn turn, int maxTokens) {
+            String line = "- " + turn.user + " → " + turn.assistant;
+            summary.addLast(line);
+            summaryTokens += TokenEstimator.estimate(line);
+            while (summaryTokens > maxTokens && !summary.isEmpty()) {
+                summaryTokens -= TokenEstimator.estimate(summary.removeFirst());
+            }
+        }
+    }
+}
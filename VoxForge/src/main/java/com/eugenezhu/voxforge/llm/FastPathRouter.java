@@ -0,0 +1,171 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.config.AiConfig;
+import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.eugenezhu.voxforge.model.LlmResponse;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import com.eugenezhu.voxforge.rag.ShellNames;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: FastPathRouter
+ * @author: zhuyuchen
+ * @description: 检索置信度路由, 单步意图且向量检索的最相似命令足够可信, 操作系统/shell 与客户端一致时,
+ *               直接由命令模板构造任务链, 不调用 llm; 每次决策都会记录审计日志, 并分别统计快速路径与 llm 路径的延迟
+ * @date: 2026/10/18 下午4:20
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FastPathRouter {
+
+    private static final int MAX_SINGLE_STEP_LENGTH = 40; // 超过该长度的输入视为可能包含多个步骤
+
+    /**
+     * 出现这些连接词时视为多步意图
+     */
+    private static final List<String> MULTI_STEP_MARKERS = List.of(
+            "然后", "接着", "之后", "并且", "同时", "以及", "再", "和", "，", ",", "；", ";", " and ", " then "
+    );
+
+    private final AiConfig.LlmFastPathProperties fastPathProperties;
+
+    private final AtomicLong fastPathCount = new AtomicLong();
+    private final AtomicLong fastPathNanos = new AtomicLong();
+    private final AtomicLong llmPathCount = new AtomicLong();
+    private final AtomicLong llmPathNanos = new AtomicLong();
+    private final ConcurrentHashMap<String, AtomicLong> rejections = new ConcurrentHashMap<>(); // 未走快速路径的原因
+
+    /**
+     * 路由决策
+     * @param text 用户输入
+     * @param clientEnv 客户端环境信息
+     * @param hits 检索结果, 按分数降序
+     * @return 走快速路径时返回直接构造的任务链, 否则返回 null
+     */
+    public LlmResponse route(String text, Map<String, Object> clientEnv, List<ScoredCommand> hits) {
+        if (!fastPathProperties.isEnabled()) return null;
+
+        String reason = reject(text, clientEnv, hits);
+        ScoredCommand top = hits == null || hits.isEmpty() ? null : hits.get(0);
+        double margin = margin(hits);
+        if (reason != null) {
+            rejections.computeIfAbsent(reason, k -> new AtomicLong()).incrementAndGet();
+            log.info("快速路径审计: decision=llm, reason={}, score={}, margin={}, cmd={}, text={}",
+                    reason, top != null ? format(top.getSimilarity()) : "-", format(margin),
+                    top != null ? top.getTemplate().getCmd() : "-", text);
+            return null;
+        }
+
+        CommandTemplate template = top.getTemplate();
+        log.info("快速路径审计: decision=fast, score={}, margin={}, cmd={}, os={}, shell={}, text={}",
+                format(top.getSimilarity()), format(margin), template.getCmd(), template.getOs(), template.getShell(), text);
+        return toResponse(template);
+    }
+
+    public void recordFastPath(long nanos) {
+        fastPathCount.incrementAndGet();
+        fastPathNanos.addAndGet(nanos);
+    }
+
+    public void recordLlmPath(long nanos) {
+        llmPathCount.incrementAndGet();
+        llmPathNanos.addAndGet(nanos);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("fastPath", fastPathCount.get());
+        stats.put("fastPathAvgMs", avgMillis(fastPathNanos.get(), fastPathCount.get()));
+        stats.put("llmPath", llmPathCount.get());
+        stats.put("llmPathAvgMs", avgMillis(llmPathNanos.get(), llmPathCount.get()));
+        rejections.forEach((reason, count) -> stats.put("reject[" + reason + "]", count.get()));
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (!fastPathProperties.isEnabled() || fastPathCount.get() + llmPathCount.get() == 0) return;
+        log.info("快速路径统计: {}", stats());
+    }
+
+    /**
+     * @return 不能走快速路径的原因, 可以走时返回 null
+     */
+    private String reject(String text, Map<String, Object> clientEnv, List<ScoredCommand> hits) {
+        if (hits == null || hits.isEmpty()) return "no_hit";
+        ScoredCommand top = hits.get(0);
+        if (Double.isNaN(top.getSimilarity())) return "not_vector";
+        if (top.getSimilarity() < fastPathProperties.getMinScore()) return "low_score";
+        if (margin(hits) < fastPathProperties.getMinMargin()) return "low_margin";
+        if (!isSingleStep(text)) return "multi_step";
+        CommandTemplate template = top.getTemplate();
+        if (clientEnv != null) {
+            Object os = clientEnv.get("os");
+            if (os != null && !String.valueOf(os).equalsIgnoreCase(template.getOs())) return "os_mismatch";
+            Object shell = clientEnv.get("shell");
+            if (shell != null && !Objects.equals(ShellNames.normalize(String.valueOf(shell)), ShellNames.normalize(template.getShell()))) {
+                return "shell_mismatch";
+            }
+        }
+        return null;
+    }
+
+    private boolean isSingleStep(String text) {
+        if (text == null || text.isBlank() || text.length() > MAX_SINGLE_STEP_LENGTH) return false;
+        String s = text.toLowerCase(Locale.ROOT);
+        for (String marker : MULTI_STEP_MARKERS) {
+            if (s.contains(marker)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 第一名与其余结果中最高余弦相似度之差; 融合结果不按相似度排序, 因此不能只看第二名
+     */
+    private double margin(List<ScoredCommand> hits) {
+        if (hits == null || hits.isEmpty() || Double.isNaN(hits.get(0).getSimilarity())) return 0;
+        double runnerUp = Double.NaN;
+        for (int i = 1; i < hits.size(); i++) {
+            double s = hits.get(i).getSimilarity();
+            if (!Double.isNaN(s) && (Double.isNaN(runnerUp) || s > runnerUp)) runnerUp = s;
+        }
+        double top = hits.get(0).getSimilarity();
+        return Double.isNaN(runnerUp) ? top : top - runnerUp;
+    }
+
+    private LlmResponse toResponse(CommandTemplate template) {
+        LlmResponse.TaskDefinition task = new LlmResponse.TaskDefinition();
+        task.setTitle(template.getDesc());
+        task.setCmd(template.getCmd());
+        task.setShell(template.getShell());
+        task.setOs(template.getOs());
+
+        LlmResponse response = new LlmResponse();
+        response.setReply("好的，正在为您" + template.getDesc());
+        response.setTasks(List.of(task));
+        return response;
+    }
+
+    private String avgMillis(long nanos, long count) {
+        return count == 0 ? "0" : String.format("%.1f", (double) TimeUnit.NANOSECONDS.toMicros(nanos) / count / 1000);
+    }
+
+    private String format(double v) {
+        return String.format("%.4f", v);
+    }
+}
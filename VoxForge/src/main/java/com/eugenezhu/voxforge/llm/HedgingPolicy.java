@@ -0,0 +1,121 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.config.AiConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: HedgingPolicy
+ * @author: zhuyuchen
+ * @description: 对冲请求策略, 按模型维护滚动延迟窗口, 计算对冲延迟, 并统计对冲次数与对冲胜出次数
+ * @date: 2026/10/17 下午7:40
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HedgingPolicy {
+
+    private final AiConfig.LlmHedgeProperties hedgeProperties;
+
+    private final ConcurrentHashMap<String, LatencyWindow> windows = new ConcurrentHashMap<>(); // 每个模型的延迟窗口
+
+    private final AtomicLong hedges = new AtomicLong(); // 发出的对冲请求数
+    private final AtomicLong hedgeWins = new AtomicLong(); // 对冲请求先返回的次数
+    private final AtomicLong hedgeRejected = new AtomicLong(); // 因舱壁/限流无法发出的对冲请求数
+    private final AtomicLong censored = new AtomicLong(); // 输掉对冲被取消, 按已耗时记入的样本数
+
+    public boolean isEnabled() {
+        return hedgeProperties.isEnabled();
+    }
+
+    /**
+     * 计算对冲延迟: 主模型的滚动分位延迟, 样本不足时使用初始延迟
+     * @param key 模型标识
+     * @return 发出备份请求前的等待时间
+     */
+    public Duration hedgeDelay(String key) {
+        LatencyWindow window = windows.get(key);
+        long nanos = window != null ? window.percentile(hedgeProperties.getPercentile(), hedgeProperties.getMinSamples()) : -1;
+        Duration delay = nanos < 0 ? hedgeProperties.getInitialDelay() : Duration.ofNanos(nanos);
+        return delay.compareTo(hedgeProperties.getMinDelay()) < 0 ? hedgeProperties.getMinDelay() : delay;
+    }
+
+    public void recordLatency(String key, long nanos) {
+        windows.computeIfAbsent(key, k -> new LatencyWindow(hedgeProperties.getWindowSize())).record(nanos);
+    }
+
+    /**
+     * 记录输掉对冲被取消的调用: 真实延迟不小于已耗时, 按已耗时记入窗口 (删失样本);
+     * 只记录胜出方会使分位延迟偏低, 对冲延迟随之变短, 对冲比例持续上升
+     */
+    public void recordCensored(String key, long elapsedNanos) {
+        censored.incrementAndGet();
+        recordLatency(key, elapsedNanos);
+    }
+
+    public void recordHedge() {
+        hedges.incrementAndGet();
+    }
+
+    public void recordHedgeWin() {
+        hedgeWins.incrementAndGet();
+    }
+
+    public void recordHedgeRejected() {
+        hedgeRejected.incrementAndGet();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hedges", hedges.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("hedgeRejected", hedgeRejected.get());
+        stats.put("censored", censored.get());
+        windows.forEach((key, window) -> stats.put("delay[" + key + "]", hedgeDelay(key).toMillis() + "ms"));
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (!isEnabled() || hedges.get() == 0) return;
+        log.info("llm 对冲统计: {}, 对冲胜出率: {}", stats(), String.format("%.2f", (double) hedgeWins.get() / hedges.get()));
+    }
+
+    /**
+     * 固定容量的环形延迟窗口
+     */
+    private static class LatencyWindow {
+        private final long[] samples;
+        private int next = 0;
+        private int size = 0;
+
+        LatencyWindow(int capacity) {
+            this.samples = new long[Math.max(1, capacity)];
+        }
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            if (size < samples.length) size++;
+        }
+
+        synchronized long percentile(double p, int minSamples) {
+            if (size == 0 || size < minSamples) return -1;
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int idx = (int) Math.ceil(p * size) - 1;
+            return sorted[Math.max(0, Math.min(idx, size - 1))];
+        }
+    }
+}
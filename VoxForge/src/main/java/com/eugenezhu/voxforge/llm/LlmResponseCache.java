@@ -0,0 +1,253 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.config.AiConfig;
+import com.eugenezhu.voxforge.model.LlmResponse;
+import com.eugenezhu.voxforge.rag.VectorKernels;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: LlmResponseCache
+ * @author: zhuyuchen
+ * @description: llm 解析结果两级缓存, 一级按归一化文本 + 环境指纹 + 上下文指纹精确匹配, 二级在指纹相同的条目中按查询向量余弦相似度近邻匹配,
+ *               均为 LRU + TTL 淘汰; 二级条目按指纹分桶, 查询只在锁内复制本桶条目, 相似度计算在锁外进行
+ * @date: 2026/10/17 下午2:05
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LlmResponseCache {
+
+    private final AiConfig.LlmCacheProperties cacheProperties;
+
+    // accessOrder = true, 按访问顺序排列, 头部为最久未访问的条目
+    private final LinkedHashMap<String, Entry> exact = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<String, SemanticEntry> semantic = new LinkedHashMap<>(64, 0.75f, true);
+    // 语义条目按适用范围分桶, 与 semantic 同步维护, 均由 semantic 的锁保护
+    private final HashMap<String, Map<String, SemanticEntry>> scopes = new HashMap<>();
+
+    private final AtomicLong exactHits = new AtomicLong();
+    private final AtomicLong exactMisses = new AtomicLong(); // 每次查询都先经过精确匹配层, 以此计算总命中率
+    private final AtomicLong semanticHits = new AtomicLong();
+    private final AtomicLong semanticMisses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public boolean isEnabled() {
+        return cacheProperties.isEnabled();
+    }
+
+    /**
+     * 精确匹配查询
+     * @param text 用户输入
+     * @param clientEnv 客户端环境信息
+     * @param context 上下文指纹, 如会话记忆的哈希, 没有上下文时为空串
+     * @return 命中的解析结果, 未命中返回 null
+     */
+    public LlmResponse getExact(String text, Map<String, Object> clientEnv, String context) {
+        if (!isEnabled()) return null;
+        String key = key(text, clientEnv, context);
+        long now = System.currentTimeMillis();
+        synchronized (exact) {
+            Entry entry = exact.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                exactHits.incrementAndGet();
+                return entry.response;
+            }
+            if (entry != null) exact.remove(key);
+        }
+        exactMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 语义近邻查询, 只在环境指纹与上下文指纹都相同的条目中查找
+     * @param query 归一化后的查询向量
+     * @param clientEnv 客户端环境信息
+     * @param context 上下文指纹
+     * @return 相似度超过阈值的最近条目, 未命中返回 null
+     */
+    public LlmResponse getSimilar(double[] query, Map<String, Object> clientEnv, String context) {
+        if (!isEnabled() || query == null) return null;
+        String env = scope(clientEnv, context);
+        List<Map.Entry<String, SemanticEntry>> candidates;
+        synchronized (semantic) {
+            Map<String, SemanticEntry> bucket = scopes.get(env);
+            // 复制为不可变的键值对, HashMap 的节点在锁外可能被同名写入修改
+            candidates = bucket == null ? List.of() : bucket.entrySet().stream().map(e -> Map.entry(e.getKey(), e.getValue())).toList();
+        }
+
+        long now = System.currentTimeMillis();
+        float[] q = VectorKernels.toFloat(query);
+        Map.Entry<String, SemanticEntry> best = null;
+        double bestScore = cacheProperties.getSimilarityThreshold();
+        List<Map.Entry<String, SemanticEntry>> expired = new ArrayList<>();
+        for (Map.Entry<String, SemanticEntry> e : candidates) {
+            SemanticEntry entry = e.getValue();
+            if (entry.expiresAt <= now) {
+                expired.add(e);
+                continue;
+            }
+            if (entry.vector.length != q.length) continue;
+            double score = VectorKernels.dot(entry.vector, q);
+            if (score >= bestScore) {
+                bestScore = score;
+                best = e;
+            }
+        }
+
+        if (best != null || !expired.isEmpty()) {
+            synchronized (semantic) {
+                // 只移除快照中的条目, 期间被重新写入的同名条目保留
+                for (Map.Entry<String, SemanticEntry> e : expired) {
+                    if (semantic.remove(e.getKey(), e.getValue())) unbucket(e.getKey(), e.getValue());
+                }
+                if (best != null) semantic.get(best.getKey()); // 刷新访问顺序
+            }
+        }
+        if (best != null) {
+            semanticHits.incrementAndGet();
+            log.debug("llm 缓存语义命中, 相似度: {}", bestScore);
+            return best.getValue().response;
+        }
+        semanticMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 写入缓存, 只缓存生成了任务的正常结果
+     * @param text 用户输入
+     * @param clientEnv 客户端环境信息
+     * @param context 上下文指纹
+     * @param query 查询向量, 为空时只写入精确匹配层
+     * @param response 解析结果
+     */
+    public void put(String text, Map<String, Object> clientEnv, String context, double[] query, LlmResponse response) {
+        if (!isEnabled() || response == null || response.getTasks() == null || response.getTasks().isEmpty()) return;
+        String key = key(text, clientEnv, context);
+        long expiresAt = System.currentTimeMillis() + cacheProperties.getTtl().toMillis();
+        synchronized (exact) {
+            exact.put(key, new Entry(response, expiresAt));
+            evict(exact, cacheProperties.getMaxEntries());
+        }
+        if (query != null) {
+            SemanticEntry entry = new SemanticEntry(response, expiresAt, scope(clientEnv, context), VectorKernels.toFloat(query));
+            synchronized (semantic) {
+                SemanticEntry previous = semantic.put(key, entry);
+                if (previous != null) unbucket(key, previous);
+                scopes.computeIfAbsent(entry.env, k -> new HashMap<>()).put(key, entry);
+                Iterator<Map.Entry<String, SemanticEntry>> it = semantic.entrySet().iterator();
+                while (semantic.size() > cacheProperties.getSemanticMaxEntries() && it.hasNext()) {
+                    Map.Entry<String, SemanticEntry> eldest = it.next();
+                    it.remove();
+                    unbucket(eldest.getKey(), eldest.getValue());
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * 命中率统计
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("exactHits", exactHits.get());
+        stats.put("exactMisses", exactMisses.get());
+        stats.put("semanticHits", semanticHits.get());
+        stats.put("semanticMisses", semanticMisses.get());
+        stats.put("evictions", evictions.get());
+        synchronized (exact) {
+            stats.put("exactSize", (long) exact.size());
+        }
+        synchronized (semantic) {
+            stats.put("semanticSize", (long) semantic.size());
+        }
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (!isEnabled()) return;
+        long hits = exactHits.get() + semanticHits.get();
+        long total = exactHits.get() + exactMisses.get();
+        log.info("llm 缓存统计: {}, 命中率: {}", stats(), total == 0 ? 0 : String.format("%.2f", (double) hits / total));
+    }
+
+    /**
+     * 从分桶中移除条目, 调用方持有 semantic 的锁
+     */
+    private void unbucket(String key, SemanticEntry entry) {
+        Map<String, SemanticEntry> bucket = scopes.get(entry.env);
+        if (bucket == null) return;
+        bucket.remove(key, entry);
+        if (bucket.isEmpty()) scopes.remove(entry.env);
+    }
+
+    private <V> void evict(LinkedHashMap<String, V> map, int max) {
+        Iterator<String> it = map.keySet().iterator();
+        while (map.size() > max && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private String key(String text, Map<String, Object> clientEnv, String context) {
+        return scope(clientEnv, context) + '|' + normalize(text);
+    }
+
+    /**
+     * 条目的适用范围: 环境指纹 + 上下文指纹
+     */
+    private String scope(Map<String, Object> clientEnv, String context) {
+        return envFingerprint(clientEnv) + '|' + (context == null ? "" : context);
+    }
+
+    /**
+     * 归一化用户输入: 去除首尾空白和标点, 合并连续空白, 转小写
+     */
+    public static String normalize(String text) {
+        if (text == null) return "";
+        String s = text.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        int end = s.length();
+        while (end > 0 && isTrailingPunctuation(s.charAt(end - 1))) end--;
+        return s.substring(0, end);
+    }
+
+    private static boolean isTrailingPunctuation(char c) {
+        return c == '.' || c == '!' || c == '?' || c == ',' || c == '。' || c == '！' || c == '？' || c == '，' || c == '~';
+    }
+
+    /**
+     * 环境指纹: 只取配置的字段, 按键排序保证稳定
+     */
+    private String envFingerprint(Map<String, Object> clientEnv) {
+        if (clientEnv == null) return "";
+        Map<String, Object> picked = new TreeMap<>();
+        for (String k : cacheProperties.getEnvKeys()) {
+            Object v = clientEnv.get(k);
+            if (v != null) picked.put(k, String.valueOf(v).toLowerCase(Locale.ROOT));
+        }
+        return picked.toString();
+    }
+
+    private record Entry(LlmResponse response, long expiresAt) {
+    }
+
+    private record SemanticEntry(LlmResponse response, long expiresAt, String env, float[] vector) {
+    }
+}
@@ -0,0 +1,146 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.model.LlmResponse;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: LlmResponseDecoder
+ * @author: zhuyuchen
+ * @description: 单遍流式解码 /chat/completions 响应, 按网络缓冲区增量喂入 Jackson 非阻塞解析器,
+ *               定位到 choices[0].message.content 后直接在解析器的字符缓冲区上截取 JSON 并反序列化为 LlmResponse,
+ *               不构建中间 Map, 也不复制 content 字符串
+ * @date: 2026/10/18 上午10:03
+ */
+@Slf4j
+public class LlmResponseDecoder implements AutoCloseable {
+
+    private final ObjectMapper objectMapper;
+    private final JsonParser parser;
+    private final ByteBufferFeeder feeder;
+
+    private LlmResponse result;
+    private boolean failed = false;
+
+    public LlmResponseDecoder(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        try {
+            this.parser = objectMapper.getFactory().createNonBlockingByteBufferParser();
+        } catch (IOException e) {
+            throw new IllegalStateException("创建非阻塞JSON解析器失败", e);
+        }
+        this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+    }
+
+    /**
+     * 喂入一段响应字节, 调用返回后缓冲区即可释放
+     * @param buffer 网络缓冲区
+     */
+    public void feed(ByteBuffer buffer) {
+        if (result != null || failed || !buffer.hasRemaining()) return;
+        try {
+            feeder.feedInput(buffer);
+            drain();
+        } catch (IOException e) {
+            log.error("解析LLM响应失败", e);
+            failed = true;
+        }
+    }
+
+    /**
+     * 输入结束, 返回解码结果
+     * @return 解析结果, 响应格式不符时返回错误响应
+     */
+    public LlmResponse finish() {
+        if (result == null && !failed) {
+            try {
+                feeder.endOfInput();
+                drain();
+            } catch (IOException e) {
+                log.error("解析LLM响应失败", e);
+                failed = true;
+            }
+        }
+        if (result != null) return result;
+        return errorResponse(failed ? "解析LLM响应失败" : "LLM响应格式错误");
+    }
+
+    @Override
+    public void close() {
+        try {
+            parser.close();
+        } catch (IOException ignored) {
+            // 关闭失败不影响结果
+        }
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while (result == null && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            if (token == JsonToken.VALUE_STRING && isFirstChoiceContent(parser.getParsingContext())) {
+                result = decodeContent(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+            }
+        }
+    }
+
+    /**
+     * 当前位置是否为 $.choices[0].message.content
+     */
+    private boolean isFirstChoiceContent(JsonStreamContext ctx) {
+        if (!ctx.inObject() || !"content".equals(ctx.getCurrentName())) return false;
+        JsonStreamContext choice = ctx.getParent();
+        if (choice == null || !choice.inObject() || !"message".equals(choice.getCurrentName())) return false;
+        JsonStreamContext choices = choice.getParent();
+        if (choices == null || !choices.inArray() || choices.getCurrentIndex() != 0) return false;
+        JsonStreamContext root = choices.getParent();
+        return root != null && root.inObject() && "choices".equals(root.getCurrentName()) && root.getParent() != null && root.getParent().inRoot();
+    }
+
+    /**
+     * 在字符缓冲区上截取第一个 { 到最后一个 } 之间的内容直接反序列化, 去除 ```json 之类的包裹
+     */
+    private LlmResponse decodeContent(char[] chars, int offset, int length) {
+        int first = -1;
+        int last = -1;
+        for (int i = offset; i < offset + length; i++) {
+            if (chars[i] == '{') {
+                first = i;
+                break;
+            }
+        }
+        for (int i = offset + length - 1; i > first && first >= 0; i--) {
+            if (chars[i] == '}') {
+                last = i;
+                break;
+            }
+        }
+        if (first < 0 || last < 0) {
+            log.warn("无法从LLM响应中提取有效JSON: {}", new String(chars, offset, length));
+            return errorResponse("解析失败");
+        }
+        try (JsonParser content = objectMapper.getFactory().createParser(chars, first, last - first + 1)) {
+            return objectMapper.readValue(content, LlmResponse.class);
+        } catch (IOException e) {
+            log.error("解析LLM响应失败", e);
+            failed = true;
+            return null;
+        }
+    }
+
+    private LlmResponse errorResponse(String reply) {
+        LlmResponse response = new LlmResponse();
+        response.setReply(reply);
+        response.setTasks(List.of());
+        return response;
+    }
+}
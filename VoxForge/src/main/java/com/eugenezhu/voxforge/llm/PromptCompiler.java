@@ -0,0 +1,175 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: PromptCompiler
+ * @author: zhuyuchen
+ * @description: 提示词编译器, 静态指令作为字节级不变的前缀放在最前面, 便于上游命中 prompt 缓存;
+ *               客户端环境信息按内容缓存序列化结果, 环境和候选命令等每次请求变化的部分追加在末尾, 并复用线程内的 StringBuilder
+ * @date: 2026/10/18 下午2:12
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PromptCompiler {
+
+    private static final int ENV_CACHE_SIZE = 256; // 环境信息序列化结果最大缓存条目数
+    private static final int MAX_BUILDER_CAPACITY = 16 * 1024; // 超过该容量的 builder 不再复用, 避免长期占用内存
+
+    /**
+     * 任务链生成的静态前缀, 不得拼接任何请求相关内容
+     */
+    static final String START_PREFIX = """
+            你是一个智能语音助手，专门帮助用户完成任务。
+            根据用户的输入分析意图，生成JSON任务链，优先提供结合环境信息修改后的候选命令。
+            只返回如下JSON：
+            {
+              "reply": "",
+              "tasks": [
+                {"title": "","cmd": "","shell": "cmd|powershell|bash","os": "Windows 11|Ubuntu 22.04"}
+              ]
+            }
+            """;
+
+    /**
+     * 下一步指导的静态前缀
+     */
+    static final String NEXT_PREFIX = """
+            请根据用户的反馈，生成下一步的指导建议。
+            如果任务已完成，请给出总结。
+            如果遇到问题，请提供解决方案。
+            """;
+
+    private static final String ENV_HEADER = "\n用户的客户端环境信息：\n";
+    private static final String CANDIDATE_HEADER = "\n参考候选命令：\n";
+
+    private final ObjectMapper objectMapper;
+
+    // accessOrder = true, 头部为最久未使用的条目; key 为 clientEnv 的副本, 按内容比较
+    private final LinkedHashMap<Map<String, Object>, String> envBlocks = new LinkedHashMap<>(64, 0.75f, true);
+    private final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(() -> new StringBuilder(2048));
+
+    private final AtomicLong envHits = new AtomicLong();
+    private final AtomicLong envMisses = new AtomicLong();
+
+    /**
+     * 编译任务链生成的系统提示词: 静态前缀 + 环境信息 + 候选命令
+     * @param clientEnv 客户端环境信息
+     * @param candidates RAG 召回的候选命令, 最多取前 5 条
+     * @return 系统提示词
+     */
+    public String compileStart(Map<String, Object> clientEnv, List<CommandTemplate> candidates) {
+        StringBuilder sb = builder();
+        sb.append(START_PREFIX).append(ENV_HEADER).append(envBlock(clientEnv, "无详细客户端环境信息")).append('\n');
+        sb.append(CANDIDATE_HEADER);
+        int n = candidates == null ? 0 : Math.min(5, candidates.size());
+        for (int i = 0; i < n; i++) {
+            CommandTemplate c = candidates.get(i);
+            sb.append(i + 1).append(". ").append(c.getCmd()).append(" - ").append(c.getDesc()).append('\n');
+        }
+        return release(sb);
+    }
+
+    /**
+     * 编译任务链生成的用户消息, 有会话上下文时放在当前输入之前
+     * @param context 会话上下文, 可为空串
+     * @param text 当前输入
+     * @return 用户消息
+     */
+    public String compileUserMessage(String context, String text) {
+        if (context == null || context.isEmpty()) return text;
+        StringBuilder sb = builder();
+        sb.append(context).append("\n当前输入：").append(text);
+        return release(sb);
+    }
+
+    /**
+     * 编译下一步指导的用户消息: 静态前缀 + 环境信息 + 会话上下文 + 当前任务与反馈
+     * @param taskTitle 当前任务标题
+     * @param feedback 用户反馈
+     * @param clientEnv 客户端环境信息
+     * @param context 会话上下文, 可为空串
+     * @return 用户消息
+     */
+    public String compileNext(String taskTitle, String feedback, Map<String, Object> clientEnv, String context) {
+        StringBuilder sb = builder();
+        sb.append(NEXT_PREFIX).append(ENV_HEADER).append(envBlock(clientEnv, "无详细客户端环境信息")).append('\n');
+        if (context != null && !context.isEmpty()) sb.append('\n').append(context);
+        sb.append("\n当前任务：").append(taskTitle).append('\n');
+        sb.append("用户反馈：").append(feedback).append('\n');
+        return release(sb);
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("envHits", envHits.get());
+        stats.put("envMisses", envMisses.get());
+        synchronized (envBlocks) {
+            stats.put("envSize", (long) envBlocks.size());
+        }
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (envHits.get() + envMisses.get() == 0) return;
+        log.info("提示词编译统计: {}", stats());
+    }
+
+    /**
+     * 环境信息序列化结果, 相同内容的 clientEnv 只序列化一次
+     */
+    private String envBlock(Map<String, Object> clientEnv, String absent) {
+        if (clientEnv == null || clientEnv.isEmpty()) return absent;
+        synchronized (envBlocks) {
+            String cached = envBlocks.get(clientEnv);
+            if (cached != null) {
+                envHits.incrementAndGet();
+                return cached;
+            }
+        }
+        envMisses.incrementAndGet();
+        String serialized;
+        try {
+            serialized = objectMapper.writeValueAsString(clientEnv);
+        } catch (Exception e) {
+            log.warn("序列化客户端环境信息失败", e);
+            serialized = clientEnv.toString();
+        }
+        synchronized (envBlocks) {
+            envBlocks.put(new HashMap<>(clientEnv), serialized); // 复制一份, 避免调用方修改后破坏 key
+            if (envBlocks.size() > ENV_CACHE_SIZE) {
+                envBlocks.remove(envBlocks.keySet().iterator().next());
+            }
+        }
+        return serialized;
+    }
+
+    private StringBuilder builder() {
+        StringBuilder sb = builders.get();
+        sb.setLength(0);
+        return sb;
+    }
+
+    private String release(StringBuilder sb) {
+        String result = sb.toString();
+        if (sb.capacity() > MAX_BUILDER_CAPACITY) {
+            builders.remove();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,164 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.model.LlmResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: TaskStreamParser
+ * @author: zhuyuchen
+ * @description: 增量 JSON 解析器, 按片段喂入 llm 流式输出, tasks 数组中的每个对象一闭合就立即解析为 TaskDefinition
+ * @date: 2026/10/17 上午10:12
+ */
+@Slf4j
+public class TaskStreamParser {
+
+    private final ObjectMapper objectMapper;
+
+    private final StringBuilder buffer = new StringBuilder(); // 根对象开始后的全部字符
+    private final StringBuilder token = new StringBuilder(); // 当前字符串字面量(未反转义)
+    private final StringBuilder containers = new StringBuilder(); // 容器栈, '{' 或 '['
+
+    private boolean started = false; // 是否已遇到根对象的 '{'
+    private boolean finished = false; // 根对象是否已闭合
+    private boolean inString = false;
+    private boolean escape = false;
+
+    private String lastString; // 最近一个完整的字符串字面量
+    private String pendingKey; // 当前等待取值的键
+    private int tasksDepth = -1; // tasks 数组所在的栈深度
+    private int taskStart = -1; // 当前任务对象在 buffer 中的起始位置
+    private String reply;
+
+    public TaskStreamParser(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 喂入一段 llm 输出片段
+     * @param fragment 增量内容
+     * @return 本次片段中闭合的任务列表
+     */
+    public List<LlmResponse.TaskDefinition> feed(String fragment) {
+        List<LlmResponse.TaskDefinition> completed = new ArrayList<>();
+        if (fragment == null || finished) {
+            return completed;
+        }
+        for (int i = 0; i < fragment.length() && !finished; i++) {
+            char c = fragment.charAt(i);
+            if (!started) {
+                // 跳过 ```json 之类的前缀, 直到根对象开始
+                if (c != '{') continue;
+                started = true;
+            }
+            buffer.append(c);
+            if (inString) {
+                onStringChar(c);
+                continue;
+            }
+            switch (c) {
+                case '"' -> {
+                    inString = true;
+                    token.setLength(0);
+                }
+                case ':' -> pendingKey = lastString;
+                case ',' -> pendingKey = null;
+                case '{' -> {
+                    if (tasksDepth > 0 && containers.length() == tasksDepth) {
+                        taskStart = buffer.length() - 1;
+                    }
+                    containers.append('{');
+                    pendingKey = null;
+                }
+                case '[' -> {
+                    containers.append('[');
+                    if (containers.length() == 2 && "tasks".equals(pendingKey)) {
+                        tasksDepth = containers.length();
+                    }
+                    pendingKey = null;
+                }
+                case '}' -> {
+                    pop();
+                    if (taskStart >= 0 && containers.length() == tasksDepth) {
+                        LlmResponse.TaskDefinition task = parseTask(buffer.substring(taskStart));
+                        if (task != null) completed.add(task);
+                        taskStart = -1;
+                    }
+                    if (containers.length() == 0) finished = true;
+                }
+                case ']' -> {
+                    pop();
+                    if (containers.length() == tasksDepth - 1) tasksDepth = -1;
+                }
+                default -> {
+                    // 数字, 布尔值, 空白字符等无需处理
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * 根对象中的 reply 字段, 未解析到时返回 null
+     */
+    public String getReply() {
+        return reply;
+    }
+
+    /**
+     * 根对象是否已完整闭合
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private void onStringChar(char c) {
+        if (escape) {
+            escape = false;
+            token.append(c);
+        } else if (c == '\\') {
+            escape = true;
+            token.append(c);
+        } else if (c == '"') {
+            inString = false;
+            lastString = token.toString();
+            // 根对象的 reply 值
+            if (containers.length() == 1 && "reply".equals(pendingKey) && reply == null) {
+                reply = unescape(lastString);
+            }
+        } else {
+            token.append(c);
+        }
+    }
+
+    private void pop() {
+        if (containers.length() > 0) {
+            containers.setLength(containers.length() - 1);
+        }
+        pendingKey = null;
+    }
+
+    private LlmResponse.TaskDefinition parseTask(String json) {
+        try {
+            return objectMapper.readValue(json, LlmResponse.TaskDefinition.class);
+        } catch (JsonProcessingException e) {
+            log.warn("解析流式任务片段失败: {}", json);
+            return null;
+        }
+    }
+
+    private String unescape(String raw) {
+        if (raw.indexOf('\\') < 0) return raw;
+        try {
+            return objectMapper.readValue('"' + raw + '"', String.class);
+        } catch (JsonProcessingException e) {
+            return raw;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.eugenezhu.voxforge.llm;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: TokenEstimator
+ * @author: zhuyuchen
+ * @description: 粗略估算文本的 token 数, 用于提示词预算裁剪; 中日韩字符按 1 字 1 token, 其余非空白字符按 4 字符 1 token
+ * @date: 2026/10/18 下午7:02
+ */
+public final class TokenEstimator {
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null) return 0;
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                cjk++;
+            } else if (!Character.isWhitespace(c)) {
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    private static boolean isCjk(char c) {
+        return (c >= '\u4e00' && c <= '\u9fff')   // CJK 统一表意文字
+                || (c >= '\u3400' && c <= '\u4dbf') // 扩展 A
+                || (c >= '\u3000' && c <= '\u303f') // CJK 标点
+                || (c >= '\u3040' && c <= '\u30ff') // 平假名/片假名
+                || (c >= '\uac00' && c <= '\ud7af') // 韩文
+                || (c >= '\uff00' && c <= '\uffef'); // 全角字符
+    }
+}
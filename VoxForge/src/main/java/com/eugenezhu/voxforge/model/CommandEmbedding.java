@@ -0,0 +1,22 @@
+package com.eugenezhu.voxforge.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.model
+ * @className: CommandEmbedding
+ * @author: zhuyuchen
+ * @description: kb_commands 中的一行, 命令模板及其向量
+ * @date: 2026/10/19 下午3:40
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CommandEmbedding {
+
+    private CommandTemplate template;
+    private float[] embedding;
+}
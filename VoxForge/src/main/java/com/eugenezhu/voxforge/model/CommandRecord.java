@@ -0,0 +1,27 @@
+package com.eugenezhu.voxforge.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.model
+ * @className: CommandRecord
+ * @author: zhuyuchen
+ * @description: kb_commands 中一行的索引状态, 不含向量; 用于命令库重新加载时比对内容哈希
+ * @date: 2026/10/21 下午2:30
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CommandRecord {
+
+    public static final String SOURCE_LIBRARY = "library"; // 由命令库文件写入, 从文件中删除后随之删除
+    public static final String SOURCE_DB = "db"; // 直接在数据库中维护, 作为命令库的一部分加载
+
+    private CommandTemplate template;
+    private String source;
+    private String contentHash; // 写入向量时模板内容的哈希, 为空表示需要重新计算
+    private boolean embedded; // 向量是否已写入
+}
@@ -1,6 +1,7 @@
 package com.eugenezhu.voxforge.model;
 
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
@@ -15,9 +16,11 @@ import java.util.List;
  * @date: 2025/10/21 下午8:21
  */
 @Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class LlmRequest {
     private String model;
     private List<Message> messages;
+    private Boolean stream; // 是否以 SSE 流式返回, 为空时不序列化
 
     public LlmRequest(String prompt, String message, String model) {
         this.model = model;
@@ -54,6 +54,8 @@ public class ResponseDto {
         private Integer currentStep; // 当前步骤
         @Schema(description = "总步骤数", example = "5")
         private Integer totalSteps; // 总步骤数
+        @Schema(description = "任务链是否仍在生成中, 生成中时总步骤数为空", example = "false")
+        private Boolean generating; // 任务链是否仍在生成中
         @Schema(description = "任务状态描述", example = "任务已准备就绪")
         private String message; // 任务状态描述
     }
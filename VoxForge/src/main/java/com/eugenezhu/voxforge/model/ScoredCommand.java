@@ -0,0 +1,36 @@
+package com.eugenezhu.voxforge.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.model
+ * @className: ScoredCommand
+ * @author: zhuyuchen
+ * @description: 带相似度分数的检索结果
+ * @date: 2026/10/18 下午4:05
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ScoredCommand {
+
+    public static final String SOURCE_VECTOR = "vector"; // 向量检索, score 为余弦相似度
+    public static final String SOURCE_LEXICAL = "lexical"; // 词法检索, score 为 BM25 分数, 不可与向量分数比较
+    public static final String SOURCE_HYBRID = "hybrid"; // 向量与词法结果融合, score 为倒数排名融合分数
+    public static final String SOURCE_OFFLINE = "offline"; // 离线向量检索, score 为离线向量的余弦相似度, 不计入 similarity
+
+    private CommandTemplate template;
+    private double score; // 排序分数, 含义由 source 决定
+    private String source;
+    private double similarity = Double.NaN; // 向量余弦相似度, 未被向量检索召回时为 NaN
+
+    public ScoredCommand(CommandTemplate template, double score, String source) {
+        this.template = template;
+        this.score = score;
+        this.source = source;
+        if (SOURCE_VECTOR.equals(source)) this.similarity = score;
+    }
+}
@@ -34,6 +34,8 @@ public class TaskChain {
     private Integer version; // 任务链版本（用于并发控制）
     @Column("status")
     private String status; // 状态: PENDING, IN_PROGRESS, COMPLETED, FAILED
+    @Column("generating")
+    private Boolean generating; // 流式生成中, 后续任务仍在落库
     @Column("created_at")
     private LocalDateTime createdAt;
     @Column("updated_at")
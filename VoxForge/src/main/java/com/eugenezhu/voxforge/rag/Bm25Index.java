@@ -0,0 +1,275 @@
+package com.eugenezhu.voxforge.rag;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: Bm25Index
+ * @author: zhuyuchen
+ * @description: BM25 倒排索引, 分词见 LexicalTokenizer; 支持按 key 增量插入/覆盖与删除.
+ *               每个文档的长度归一化项 k1 * (1 - b + b * dl / avgdl) 预先算好缓存, 新增文档只计算自身,
+ *               平均长度偏移超过 1% 时在下一次查询前整体重算
+ * @date: 2026/10/20 下午4:30
+ */
+public class Bm25Index<T> {
+
+    private static final double AVGDL_TOLERANCE = 0.01;
+
+    private final double k1;
+    private final double b;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Doc<T>> docs = new ArrayList<>(); // 下标为文档 id, 删除后为 null, id 回收复用
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+    private final Map<String, Integer> byKey = new HashMap<>();
+    private final Map<String, Posting> postings = new HashMap<>();
+    private long totalLength = 0;
+
+    private float[] norms = new float[16];
+    private double normsAvgdl = 0; // norms 计算时使用的平均长度
+    private volatile boolean normsStale = false;
+
+    // 查询时按文档 id 累加分数, 线程内复用, 只清零访问过的位置
+    private final ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(Accumulator::new);
+
+    public Bm25Index() {
+        this(1.2, 0.75);
+    }
+
+    public Bm25Index(double k1, double b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    /**
+     * 插入或覆盖
+     * @param key 唯一键
+     * @param value 附带的数据
+     * @param text 被检索的文本
+     */
+    public void add(String key, T value, String text) {
+        List<String> tokens = LexicalTokenizer.tokenize(text);
+        Map<String, Integer> tf = new HashMap<>();
+        for (String token : tokens) tf.merge(token, 1, Integer::sum);
+
+        lock.writeLock().lock();
+        try {
+            removeInternal(key);
+            int id = freeIds.isEmpty() ? docs.size() : freeIds.poll();
+            Doc<T> doc = new Doc<>(key, value, tokens.size(), tf.keySet().toArray(String[]::new));
+            if (id == docs.size()) docs.add(doc);
+            else docs.set(id, doc);
+            byKey.put(key, id);
+            tf.forEach((term, count) -> postings.computeIfAbsent(term, t -> new Posting()).add(id, count));
+            totalLength += doc.length;
+
+            if (id >= norms.length) norms = Arrays.copyOf(norms, Math.max(id + 1, norms.length * 2));
+            norms[id] = norm(doc.length, normsAvgdl);
+            checkAvgdl();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(String key) {
+        lock.writeLock().lock();
+        try {
+            boolean removed = removeInternal(key);
+            if (removed) checkAvgdl();
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(String key) {
+        lock.readLock().lock();
+        try {
+            return byKey.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byKey.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 检索
+     * @param query 查询文本
+     * @param k 返回数量
+     * @param filter 只返回满足条件的文档
+     * @return 按 BM25 分数降序排列的结果, 不含分数为 0 的文档
+     */
+    public List<Result<T>> search(String query, int k, Predicate<T> filter) {
+        Set<String> terms = new LinkedHashSet<>(LexicalTokenizer.tokenize(query));
+        if (terms.isEmpty() || k <= 0) return List.of();
+        if (normsStale) rebuildNorms();
+
+        lock.readLock().lock();
+        try {
+            int n = byKey.size();
+            Accumulator acc = accumulators.get();
+            acc.ensureCapacity(docs.size());
+            try {
+                for (String term : terms) {
+                    Posting posting = postings.get(term);
+                    if (posting == null) continue;
+                    double idf = Math.log(1 + (n - posting.size + 0.5) / (posting.size + 0.5));
+                    for (int i = 0; i < posting.size; i++) {
+                        int id = posting.ids[i];
+                        int tf = posting.tfs[i];
+                        acc.add(id, idf * tf * (k1 + 1) / (tf + norms[id]));
+                    }
+                }
+                // 过滤放在累加之后, 每个文档只判断一次
+                PriorityQueue<Result<T>> top = new PriorityQueue<>(Comparator.comparingDouble(Result::score));
+                for (int i = 0; i < acc.touchedCount; i++) {
+                    int id = acc.touched[i];
+                    Doc<T> doc = docs.get(id);
+                    if (!filter.test(doc.value)) continue;
+                    double score = acc.scores[id];
+                    if (top.size() < k) {
+                        top.offer(new Result<>(doc.key, doc.value, score));
+                    } else if (score > top.peek().score()) {
+                        top.poll();
+                        top.offer(new Result<>(doc.key, doc.value, score));
+                    }
+                }
+                List<Result<T>> results = new ArrayList<>(top);
+                results.sort(Comparator.comparingDouble((Result<T> r) -> r.score()).reversed());
+                return results;
+            } finally {
+                acc.reset();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean removeInternal(String key) {
+        Integer id = byKey.remove(key);
+        if (id == null) return false;
+        Doc<T> doc = docs.get(id);
+        for (String term : doc.terms) {
+            Posting posting = postings.get(term);
+            posting.remove(id);
+            if (posting.size == 0) postings.remove(term);
+        }
+        totalLength -= doc.length;
+        docs.set(id, null);
+        freeIds.push(id);
+        return true;
+    }
+
+    /**
+     * 平均长度偏离 norms 计算时的值超过容差时标记为过期
+     */
+    private void checkAvgdl() {
+        double avgdl = avgdl();
+        if (normsAvgdl == 0 || Math.abs(avgdl - normsAvgdl) > normsAvgdl * AVGDL_TOLERANCE) {
+            normsStale = true;
+        }
+    }
+
+    private void rebuildNorms() {
+        lock.writeLock().lock();
+        try {
+            if (!normsStale) return;
+            normsAvgdl = avgdl();
+            for (int id = 0; id < docs.size(); id++) {
+                Doc<T> doc = docs.get(id);
+                if (doc != null) norms[id] = norm(doc.length, normsAvgdl);
+            }
+            normsStale = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private double avgdl() {
+        return byKey.isEmpty() ? 0 : (double) totalLength / byKey.size();
+    }
+
+    private float norm(int length, double avgdl) {
+        return (float) (k1 * (1 - b + b * (avgdl == 0 ? 1 : length / avgdl)));
+    }
+
+    public record Result<T>(String key, T value, double score) {
+    }
+
+    private record Doc<T>(String key, T value, int length, String[] terms) {
+    }
+
+    /**
+     * 倒排表, 文档 id 与词频存放在两个并行的 int 数组中, 无序, 删除时用末尾元素填补
+     */
+    private static final class Posting {
+        int[] ids = new int[4];
+        int[] tfs = new int[4];
+        int size;
+
+        void add(int id, int tf) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                tfs = Arrays.copyOf(tfs, size * 2);
+            }
+            ids[size] = id;
+            tfs[size] = tf;
+            size++;
+        }
+
+        void remove(int id) {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    size--;
+                    ids[i] = ids[size];
+                    tfs[i] = tfs[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Accumulator {
+        double[] scores = new double[0];
+        int[] touched = new int[0];
+        int touchedCount;
+
+        void ensureCapacity(int n) {
+            if (scores.length < n) {
+                scores = new double[n];
+                touched = new int[n];
+            }
+        }
+
+        void add(int id, double score) {
+            if (scores[id] == 0) touched[touchedCount++] = id;
+            scores[id] += score;
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) scores[touched[i]] = 0;
+            touchedCount = 0;
+        }
+    }
+}
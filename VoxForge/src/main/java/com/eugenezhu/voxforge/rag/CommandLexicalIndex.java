@@ -0,0 +1,79 @@
+package com.eugenezhu.voxforge.rag;
+
+import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import com.eugenezhu.voxforge.repository.RagVectorRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: CommandLexicalIndex
+ * @author: zhuyuchen
+ * @description: 命令库的 BM25 词法索引, 检索文本为 "命令 描述"; 在 pgvector 或 embedding 接口不可用时提供词法检索
+ * @date: 2026/10/20 下午5:10
+ */
+@Slf4j
+@Component
+public class CommandLexicalIndex {
+
+    private volatile Bm25Index<CommandTemplate> index = new Bm25Index<>();
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+
+    /**
+     * 以给定模板重建索引, 新索引构建完成后整体替换, 构建期间查询使用旧索引
+     */
+    public void replaceAll(Collection<CommandTemplate> templates) {
+        Bm25Index<CommandTemplate> next = new Bm25Index<>();
+        templates.forEach(t -> add(next, t));
+        index = next;
+    }
+
+    /**
+     * 检索指定操作系统下与文本最相关的命令
+     * @param os 操作系统
+     * @param text 查询文本
+     * @param k 返回数量
+     * @return 按 BM25 分数降序排列的结果, 没有任何词命中时为空
+     */
+    public List<ScoredCommand> search(String os, String text, int k) {
+        long start = System.nanoTime();
+        List<ScoredCommand> hits = index.search(text, k, t -> os.equals(t.getOs()))
+                .stream()
+                .map(r -> new ScoredCommand(r.value(), r.score(), ScoredCommand.SOURCE_LEXICAL))
+                .toList();
+        queries.incrementAndGet();
+        queryNanos.addAndGet(System.nanoTime() - start);
+        return hits;
+    }
+
+    private static void add(Bm25Index<CommandTemplate> target, CommandTemplate template) {
+        target.add(RagVectorRepository.key(template), template, template.getCmd() + " " + template.getDesc());
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long q = queries.get();
+        stats.put("size", index.size());
+        stats.put("queries", q);
+        stats.put("avgQueryUs", q == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(queryNanos.get() / q));
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (queries.get() == 0) return;
+        log.info("BM25 索引统计: {}", stats());
+    }
+}
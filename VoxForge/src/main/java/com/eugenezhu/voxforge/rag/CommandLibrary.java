@@ -0,0 +1,164 @@
+package com.eugenezhu.voxforge.rag;
+
+import com.eugenezhu.voxforge.config.AiConfig;
+import com.eugenezhu.voxforge.config.RagConfig;
+import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.eugenezhu.voxforge.util.Hashing;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: CommandLibrary
+ * @author: zhuyuchen
+ * @description: 命令库: 读取 classpath 内置模板与 rag.library.dir 目录中的文件, 持有当前生效的模板列表;
+ *               列表为不可变快照, 重新加载时整体替换, 读取方不加锁; 内容哈希覆盖 embedding 模型, 维度与模板全部字段,
+ *               任一变化都会触发重新计算向量
+ * @date: 2026/10/21 下午2:40
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CommandLibrary {
+
+    private static final String BUILTIN = "commands/builtin.json";
+    private static final TypeReference<List<CommandTemplate>> TEMPLATE_LIST = new TypeReference<>() {
+    };
+
+    private final RagConfig.LibraryProperties libraryProperties;
+    private final AiConfig.EmbeddingProperties embeddingProperties;
+    private final ObjectMapper objectMapper;
+
+    private volatile List<CommandTemplate> templates = List.of();
+    private volatile long version = 0;
+    private volatile String dirSignature = ""; // 上次读取时目录中文件的名称, 大小与修改时间
+
+    /**
+     * 当前生效的模板
+     */
+    public List<CommandTemplate> templates() {
+        return templates;
+    }
+
+    /**
+     * 每次替换快照加一
+     */
+    public long version() {
+        return version;
+    }
+
+    public void swap(Collection<CommandTemplate> next) {
+        templates = List.copyOf(next);
+        version++;
+    }
+
+    /**
+     * 读取内置模板与目录中的文件; 单个文件解析失败时跳过该文件, 缺少字段的模板被丢弃
+     * @return 按读取顺序排列的模板, 可能包含重复的键, 由调用方按键合并
+     */
+    public List<CommandTemplate> loadFiles() {
+        List<CommandTemplate> loaded = new ArrayList<>();
+        if (libraryProperties.isIncludeBuiltin()) {
+            try (InputStream in = new ClassPathResource(BUILTIN).getInputStream()) {
+                loaded.addAll(objectMapper.readValue(in, TEMPLATE_LIST));
+            } catch (IOException e) {
+                log.warn("读取内置命令库失败: {}", e.getMessage());
+            }
+        }
+        Path dir = dir();
+        if (dir != null) {
+            String signature = signature(dir);
+            for (Path file : files(dir)) {
+                try {
+                    List<CommandTemplate> parsed = file.toString().endsWith(".jsonl") ? readJsonLines(file) : objectMapper.readValue(file.toFile(), TEMPLATE_LIST);
+                    loaded.addAll(parsed);
+                } catch (IOException e) {
+                    log.warn("读取命令库文件失败, 跳过 {}: {}", file, e.getMessage());
+                }
+            }
+            dirSignature = signature;
+        }
+        List<CommandTemplate> valid = loaded.stream().filter(CommandLibrary::isValid).toList();
+        if (valid.size() < loaded.size()) {
+            log.warn("命令库中 {} 条模板缺少 cmd/desc/os/shell, 已忽略", loaded.size() - valid.size());
+        }
+        return valid;
+    }
+
+    /**
+     * 目录中的文件自上次读取以来是否有变化
+     */
+    public boolean filesChanged() {
+        Path dir = dir();
+        return dir != null && !signature(dir).equals(dirSignature);
+    }
+
+    /**
+     * 模板的内容哈希, 与 kb_commands.content_hash 比对
+     */
+    public String contentHash(CommandTemplate t) {
+        return Hashing.fingerprint(embeddingProperties.getModel(), embeddingProperties.getDimension(),
+                t.getCmd(), t.getDesc(), t.getOs(), t.getShell());
+    }
+
+    private Path dir() {
+        String dir = libraryProperties.getDir();
+        if (dir == null || dir.isBlank()) return null;
+        Path path = Path.of(dir);
+        return Files.isDirectory(path) ? path : null;
+    }
+
+    private List<Path> files(Path dir) {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return stream
+                    .filter(Files::isRegularFile)
+                    .filter(p -> p.toString().endsWith(".json") || p.toString().endsWith(".jsonl"))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            log.warn("列出命令库目录失败 {}: {}", dir, e.getMessage());
+            return List.of();
+        }
+    }
+
+    private String signature(Path dir) {
+        StringBuilder sb = new StringBuilder();
+        for (Path file : files(dir)) {
+            try {
+                sb.append(file.getFileName()).append(':').append(Files.size(file)).append(':')
+                        .append(Files.getLastModifiedTime(file).toMillis()).append(';');
+            } catch (IOException e) {
+                sb.append(file.getFileName()).append(":?;");
+            }
+        }
+        return sb.toString();
+    }
+
+    private List<CommandTemplate> readJsonLines(Path file) throws IOException {
+        List<CommandTemplate> parsed = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            if (line.isBlank()) continue;
+            parsed.add(objectMapper.readValue(line, CommandTemplate.class));
+        }
+        return parsed;
+    }
+
+    private static boolean isValid(CommandTemplate t) {
+        return t != null && t.getCmd() != null && !t.getCmd().isBlank() && t.getDesc() != null
+                && t.getOs() != null && t.getShell() != null;
+    }
+}
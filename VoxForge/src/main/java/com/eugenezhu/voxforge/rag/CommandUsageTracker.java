@@ -0,0 +1,333 @@
+package com.eugenezhu.voxforge.rag;
+
+import com.eugenezhu.voxforge.config.RagConfig;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import com.eugenezhu.voxforge.repository.CommandUsageRepository;
+import com.eugenezhu.voxforge.util.Hashing;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: CommandUsageTracker
+ * @author: zhuyuchen
+ * @description: 按用户统计执行成功的命令, 检索结果按使用先验重排. 每个用户一个 count-min sketch 与一个 top-N 表:
+ *               sketch 给出任意命令次数的上界估计, 用于决定新命令能否挤进 top-N; 先验只取 top-N 中的次数.
+ *               用户状态为 LRU, 首次访问时从 user_command_usage 加载; 增量先在内存中合并, 定时批量累加到数据库
+ * @date: 2026/10/22 下午4:40
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CommandUsageTracker {
+
+    private final RagConfig.UsageProperties properties;
+    private final CommandUsageRepository commandUsageRepository;
+
+    // accessOrder = true, 头部为最久未使用的用户
+    private final LinkedHashMap<Long, UserUsage> users = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<Pending, Long> pending = new ConcurrentHashMap<>(); // 尚未写入数据库的增量
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private volatile boolean schemaReady = false;
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong flushErrors = new AtomicLong();
+    private final AtomicLong reranked = new AtomicLong();
+    private final AtomicLong top1Changed = new AtomicLong(); // 重排后第一名发生变化的次数
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 记录一次执行成功的命令
+     * @param userId 用户ID
+     * @param cmd 命令, 与模板的 cmd 按去除首尾空白, 合并连续空白后比较
+     */
+    public void record(Long userId, String cmd) {
+        if (!isEnabled() || userId == null || cmd == null || cmd.isBlank()) return;
+        String normalized = normalize(cmd);
+        user(userId).add(normalized, 1);
+        pending.merge(new Pending(userId, normalized), 1L, Long::sum);
+        records.incrementAndGet();
+    }
+
+    /**
+     * 用户是否有足够的使用记录参与重排, 调用方据此决定是否多召回候选; 只读取已加载的状态, 不创建用户也不触发加载
+     */
+    public boolean hasUsage(Long userId) {
+        return hasUsage(peek(userId));
+    }
+
+    /**
+     * 使用先验的指纹, 用户没有参与重排的使用记录时为空串; 只由参与加权的命令及其分档后的先验决定,
+     * 先验变化不足一档的记录不改变指纹, 解析结果缓存以它区分按用户重排的结果. 与 hasUsage 一样没有副作用
+     */
+    public String fingerprint(Long userId) {
+        UserUsage usage = peek(userId);
+        return hasUsage(usage) ? usage.fingerprint(properties.getMinCount()) : "";
+    }
+
+    /**
+     * 重排前应召回的候选数
+     */
+    public int depth(Long userId, int k) {
+        return hasUsage(userId) ? Math.max(k, properties.getDepth()) : k;
+    }
+
+    /**
+     * 按使用先验重排: score × (1 + weight × prior), prior = ln(1 + 次数) / ln(1 + 该用户最高次数);
+     * 次数低于 minCount 的命令不加权. 不修改输入列表与其中的元素, similarity 保持为原始余弦相似度
+     * @param hits 按分数降序排列的检索结果
+     * @param k 返回数量
+     * @return 重排后的前 k 条
+     */
+    public List<ScoredCommand> rerank(Long userId, List<ScoredCommand> hits, int k) {
+        if (!isEnabled() || userId == null || hits.isEmpty()) return hits.subList(0, Math.min(k, hits.size()));
+        UserUsage usage = user(userId); // 首次访问时创建并异步加载, 加载完成后的请求才会重排
+        if (!hasUsage(usage)) return hits.subList(0, Math.min(k, hits.size()));
+        Map<String, Long> top = usage.top();
+        double max = Math.log1p(usage.maxCount());
+        List<ScoredCommand> boosted = new ArrayList<>(hits.size());
+        for (ScoredCommand hit : hits) {
+            long count = top.getOrDefault(normalize(hit.getTemplate().getCmd()), 0L);
+            double prior = count >= properties.getMinCount() ? Math.log1p(count) / max : 0;
+            boosted.add(new ScoredCommand(hit.getTemplate(), hit.getScore() * (1 + properties.getWeight() * prior),
+                    hit.getSource(), hit.getSimilarity()));
+        }
+        boosted.sort(Comparator.comparingDouble(ScoredCommand::getScore).reversed()); // 稳定排序, 分数相同时保持原顺序
+        reranked.incrementAndGet();
+        if (boosted.get(0).getTemplate() != hits.get(0).getTemplate()) top1Changed.incrementAndGet();
+        return boosted.subList(0, Math.min(k, boosted.size()));
+    }
+
+    /**
+     * 把内存中的增量批量累加到数据库, 失败时放回等待下次重试
+     */
+    @Scheduled(fixedDelayString = "${rag.usage.flush-interval-ms:30000}")
+    public void flush() {
+        flushBatch().subscribe();
+    }
+
+    /**
+     * 停止前写入剩余增量, 最多等待 5 秒
+     */
+    @PreDestroy
+    public void close() {
+        while (!pending.isEmpty() && !flushing.get()) {
+            long before = flushErrors.get();
+            flushBatch().block(Duration.ofSeconds(5));
+            if (flushErrors.get() != before) return; // 数据库不可用, 放弃
+        }
+    }
+
+    private Mono<Void> flushBatch() {
+        if (pending.isEmpty() || !flushing.compareAndSet(false, true)) return Mono.empty();
+        List<Long> userIds = new ArrayList<>();
+        List<String> cmds = new ArrayList<>();
+        List<Long> counts = new ArrayList<>();
+        for (Pending key : List.copyOf(pending.keySet())) {
+            if (userIds.size() >= properties.getFlushBatchSize()) break;
+            Long count = pending.remove(key);
+            if (count == null) continue;
+            userIds.add(key.userId());
+            cmds.add(key.cmd());
+            counts.add(count);
+        }
+        return schema()
+                .then(Mono.defer(() -> commandUsageRepository.incrementAll(userIds, cmds, counts)))
+                .doOnSuccess(v -> {
+                    flushes.incrementAndGet();
+                    flushedRows.addAndGet(userIds.size());
+                })
+                .onErrorResume(e -> {
+                    flushErrors.incrementAndGet();
+                    log.warn("写入命令使用次数失败, {} 条稍后重试: {}", userIds.size(), e.getMessage());
+                    for (int i = 0; i < userIds.size(); i++) pending.merge(new Pending(userIds.get(i), cmds.get(i)), counts.get(i), Long::sum);
+                    return Mono.empty();
+                })
+                .doFinally(s -> flushing.set(false));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (users) {
+            stats.put("users", users.size());
+        }
+        stats.put("records", records.get());
+        stats.put("loads", loads.get());
+        stats.put("pending", pending.size());
+        stats.put("flushes", flushes.get());
+        stats.put("flushedRows", flushedRows.get());
+        stats.put("flushErrors", flushErrors.get());
+        stats.put("reranked", reranked.get());
+        stats.put("top1Changed", top1Changed.get());
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (records.get() + reranked.get() == 0) return;
+        log.info("命令使用统计: {}", stats());
+    }
+
+    private boolean hasUsage(UserUsage usage) {
+        return usage != null && usage.maxCount() >= properties.getMinCount();
+    }
+
+    /**
+     * 取已存在的用户状态, 不存在时为 null
+     */
+    private UserUsage peek(Long userId) {
+        if (!isEnabled() || userId == null) return null;
+        synchronized (users) {
+            return users.get(userId);
+        }
+    }
+
+    /**
+     * 取用户状态, 不存在时创建并异步从数据库加载历史次数; 加载完成前只有本进程内的记录
+     */
+    private UserUsage user(Long userId) {
+        UserUsage usage;
+        boolean created = false;
+        synchronized (users) {
+            usage = users.get(userId);
+            if (usage == null) {
+                usage = new UserUsage(properties.getSketchDepth(), properties.getSketchWidth(), properties.getTopN());
+                users.put(userId, usage);
+                created = true;
+                if (users.size() > properties.getMaxUsers()) users.remove(users.keySet().iterator().next());
+            }
+        }
+        if (created) load(userId, usage);
+        return usage;
+    }
+
+    private void load(Long userId, UserUsage usage) {
+        schema()
+                .thenMany(commandUsageRepository.findTop(userId, properties.getTopN()))
+                .doOnNext(e -> usage.add(e.getKey(), e.getValue()))
+                .doOnComplete(loads::incrementAndGet)
+                .onErrorResume(e -> {
+                    log.debug("读取用户 {} 的命令使用次数失败: {}", userId, e.getMessage());
+                    return Mono.empty();
+                })
+                .subscribe();
+    }
+
+    private Mono<Void> schema() {
+        if (schemaReady) return Mono.empty();
+        return commandUsageRepository.initializeSchema().doOnSuccess(v -> schemaReady = true);
+    }
+
+    static String normalize(String cmd) {
+        return cmd.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * 单个用户的 count-min sketch 与 top-N 表, 方法均持有 this 锁
+     */
+    static final class UserUsage {
+        private static final int PRIOR_BUCKETS = 10; // 先验分档数, 同一档内的重排结果视为相同
+        private final int[][] sketch;
+        private final int topN;
+        private final Map<String, Long> top = new HashMap<>();
+        private long maxCount;
+        private long version; // 每次 add 递增
+        private String fingerprint; // fingerprintVersion 时计算的指纹
+        private long fingerprintVersion = -1;
+
+        UserUsage(int depth, int width, int topN) {
+            this.sketch = new int[depth][width];
+            this.topN = topN;
+        }
+
+        synchronized void add(String cmd, long count) {
+            version++;
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < sketch.length; row++) {
+                int[] counters = sketch[row];
+                int i = index(cmd, row, counters.length);
+                counters[i] = (int) Math.min(Integer.MAX_VALUE, counters[i] + count);
+                estimate = Math.min(estimate, counters[i]);
+            }
+            if (top.containsKey(cmd) || top.size() < topN) {
+                top.put(cmd, estimate);
+            } else {
+                // top-N 已满时, 新命令的估计次数超过表中最小值才替换
+                Map.Entry<String, Long> min = top.entrySet().stream().min(Map.Entry.comparingByValue()).orElseThrow();
+                if (estimate <= min.getValue()) return;
+                top.remove(min.getKey());
+                top.put(cmd, estimate);
+            }
+            maxCount = Math.max(maxCount, estimate);
+        }
+
+        synchronized Map<String, Long> top() {
+            return Map.copyOf(top);
+        }
+
+        synchronized long maxCount() {
+            return maxCount;
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        /**
+         * 次数不低于 minCount 的命令与其先验 ln(1 + 次数) / ln(1 + 最高次数) 分为 PRIOR_BUCKETS 档后的档位, 按命令排序后取哈希;
+         * 同一版本内只计算一次
+         */
+        synchronized String fingerprint(long minCount) {
+            if (fingerprintVersion == version) return fingerprint;
+            double max = Math.log1p(maxCount);
+            Map<String, Long> buckets = new TreeMap<>();
+            top.forEach((cmd, count) -> {
+                if (count >= minCount) buckets.put(cmd, Math.round(PRIOR_BUCKETS * Math.log1p(count) / max));
+            });
+            List<Object> parts = new ArrayList<>(buckets.size() * 2);
+            buckets.forEach((cmd, bucket) -> {
+                parts.add(cmd);
+                parts.add(bucket);
+            });
+            fingerprint = Hashing.fingerprint(parts.toArray());
+            fingerprintVersion = version;
+            return fingerprint;
+        }
+
+        private static int index(String cmd, int row, int width) {
+            // 每行以不同种子对字符逐个做 FNV-1a 再混合高位, 各行的哈希相互独立; hashCode 相同的命令在各行不会总落在同一列
+            long h = 0xCBF29CE484222325L ^ (0x9E3779B97F4A7C15L * (row + 1));
+            for (int i = 0; i < cmd.length(); i++) h = (h ^ cmd.charAt(i)) * 0x100000001B3L;
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            return Math.floorMod(h, width);
+        }
+    }
+
+    private record Pending(Long userId, String cmd) {
+    }
+}
@@ -0,0 +1,406 @@
+package com.eugenezhu.voxforge.rag;
+
+import com.eugenezhu.voxforge.config.RagConfig;
+import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import com.eugenezhu.voxforge.repository.RagVectorRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Predicate;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: CommandVectorIndex
+ * @author: zhuyuchen
+ * @description: kb_commands 的进程内 HNSW 索引, pgvector 为持久化数据源; 启动时从 kb_commands 全量加载,
+ *               按 (os, shell) 分区, 每个分区一张图, 查询只搜索请求操作系统 (及 shell) 的分区, 不再在全局图上后过滤;
+ *               shell 按 ShellNames 归一化, 请求的 shell 没有对应分区或分区为空时搜索该操作系统的全部分区;
+ *               模板新增/删除时增量更新; 按比例抽样同时查询 pgvector, 统计召回率与两者的查询延迟.
+ *               开启量化时索引只保存 int8 码, float 向量写入内存映射文件, 查询按 int8 相似度取 k * rerankFactor 个候选后精确重排;
+ *               开启两阶段检索时图中只保存向量的前 coarseDimension 维, 查询按截断向量取 shortlist 个候选后同样用 float 向量重排;
+ *               按比例抽样做全量精确扫描, 分别统计重排前后相对精确结果的召回率
+ * @date: 2026/10/19 下午3:50
+ */
+@Slf4j
+@Component
+public class CommandVectorIndex {
+
+    private final RagConfig.HnswProperties hnswProperties;
+    private final RagConfig.QuantizationProperties quantizationProperties;
+    private final RagConfig.TwoStageProperties twoStageProperties;
+    private final RagVectorRepository ragVectorRepository;
+    private volatile Map<String, HnswIndex<CommandTemplate>> partitions = new ConcurrentHashMap<>(); // 分区键见 partitionKey
+    // 分区键 → 模板中出现过的 shell 原始写法, 抽样时用于在 pgvector 中过滤同一分区; 只增不减, 多余的写法仍归一化到同一分区
+    private final Map<String, Set<String>> shellSpellings = new ConcurrentHashMap<>();
+    private volatile FloatVectorFile<CommandTemplate> floats; // 量化与两阶段检索均未开启, 或未配置文件路径时为 null
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private volatile boolean ready = false;
+
+    private final Object mutationLock = new Object(); // upsert/remove 与全量加载替换索引互斥
+    private final List<List<Mutation>> journals = new ArrayList<>(); // 进行中的全量加载各自的变更日志, 持有 mutationLock 时读写
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private final AtomicLong efSum = new AtomicLong();
+    private final AtomicLong recallSamples = new AtomicLong();
+    private final DoubleAdder recallSum = new DoubleAdder();
+    private final AtomicLong pgvectorNanos = new AtomicLong(); // 抽样查询 pgvector 的总耗时
+    private final AtomicLong exactSamples = new AtomicLong();
+    private final DoubleAdder coarseRecallSum = new DoubleAdder(); // 只按第一阶段 (int8 和/或截断维度) 相似度取 top-k 的召回率
+    private final DoubleAdder rerankRecallSum = new DoubleAdder(); // 精确重排后的召回率
+
+    public CommandVectorIndex(RagConfig.HnswProperties hnswProperties,
+                              RagConfig.QuantizationProperties quantizationProperties,
+                              RagConfig.TwoStageProperties twoStageProperties,
+                              RagVectorRepository ragVectorRepository) {
+        this.hnswProperties = hnswProperties;
+        this.quantizationProperties = quantizationProperties;
+        this.twoStageProperties = twoStageProperties;
+        this.ragVectorRepository = ragVectorRepository;
+        this.floats = newFloatFile();
+    }
+
+    /**
+     * 索引是否可用于查询, 未加载完成时调用方应回退到 pgvector
+     */
+    public boolean isReady() {
+        return hnswProperties.isEnabled() && ready;
+    }
+
+    /**
+     * 从 kb_commands 全量加载到新索引, 完成后整体替换, 加载期间查询使用旧索引;
+     * 加载期间的 upsert/remove 同时记入本次加载的变更日志, 替换前按顺序重放到新索引, 不会因替换而丢失
+     */
+    public Mono<Void> load() {
+        if (!hnswProperties.isEnabled()) return Mono.empty();
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            Map<String, HnswIndex<CommandTemplate>> next = new ConcurrentHashMap<>();
+            FloatVectorFile<CommandTemplate> nextFloats = newFloatFile();
+            List<Mutation> journal = new ArrayList<>();
+            synchronized (mutationLock) {
+                journals.add(journal);
+            }
+            return ragVectorRepository.findAllEmbeddings()
+                    .filter(e -> e.getEmbedding().length > 0)
+                    .doOnNext(e -> apply(next, nextFloats, new Mutation(e.getTemplate(), e.getEmbedding())))
+                    .then()
+                    .doOnSuccess(v -> {
+                        FloatVectorFile<CommandTemplate> previous;
+                        int replayed;
+                        synchronized (mutationLock) {
+                            journals.removeIf(j -> j == journal);
+                            journal.forEach(m -> apply(next, nextFloats, m));
+                            replayed = journal.size();
+                            previous = floats;
+                            partitions = next;
+                            floats = nextFloats;
+                            ready = true;
+                        }
+                        if (previous != null) previous.close();
+                        log.info("HNSW 索引加载完成, {} 个分区共 {} 条, 重放变更 {} 条, 向量 {} 字节 ({}{}), 耗时 {}ms", next.size(), size(next), replayed,
+                                vectorBytes(next), quantizationProperties.isEnabled() ? "int8" : "float32",
+                                twoStageProperties.isEnabled() ? ", 前 " + twoStageProperties.getCoarseDimension() + " 维" : "",
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    })
+                    .onErrorResume(e -> {
+                        if (nextFloats != null) nextFloats.close();
+                        log.warn("HNSW 索引加载失败, 继续使用 pgvector 检索: {}", e.getMessage());
+                        return Mono.empty();
+                    })
+                    .doFinally(signal -> {
+                        synchronized (mutationLock) {
+                            journals.removeIf(j -> j == journal); // 失败或取消时注销
+                        }
+                    });
+        });
+    }
+
+    public void upsert(CommandTemplate template, double[] embedding) {
+        if (!hnswProperties.isEnabled()) return;
+        mutate(new Mutation(template, VectorKernels.toFloat(embedding)));
+    }
+
+    public void remove(CommandTemplate template) {
+        if (!hnswProperties.isEnabled()) return;
+        mutate(new Mutation(template, null));
+    }
+
+    /**
+     * 应用到当前索引, 并记入所有进行中的全量加载的变更日志
+     */
+    private void mutate(Mutation mutation) {
+        synchronized (mutationLock) {
+            apply(partitions, floats, mutation);
+            journals.forEach(journal -> journal.add(mutation));
+        }
+    }
+
+    private void apply(Map<String, HnswIndex<CommandTemplate>> target, FloatVectorFile<CommandTemplate> f, Mutation mutation) {
+        CommandTemplate template = mutation.template();
+        String key = RagVectorRepository.key(template);
+        if (mutation.vector() == null) {
+            HnswIndex<CommandTemplate> partition = target.get(partitionKey(template));
+            if (partition != null) partition.remove(key);
+            if (f != null) f.remove(key);
+            return;
+        }
+        target.computeIfAbsent(partitionKey(template), p -> newIndex()).add(key, template, coarse(mutation.vector()));
+        if (template.getShell() != null) {
+            shellSpellings.computeIfAbsent(partitionKey(template), p -> ConcurrentHashMap.newKeySet()).add(template.getShell());
+        }
+        if (f != null) f.put(key, template, mutation.vector());
+    }
+
+    public List<ScoredCommand> search(String os, double[] query, int k) {
+        return search(os, null, query, k, 0);
+    }
+
+    public List<ScoredCommand> search(String os, String shell, double[] query, int k) {
+        return search(os, shell, query, k, 0);
+    }
+
+    /**
+     * 查询指定操作系统下最相似的命令, 按比例抽样与 pgvector 中相同操作系统与 shell 范围的结果比对
+     * @param os 操作系统
+     * @param shell 为空, 或该 shell 没有模板时搜索该操作系统的全部分区, 否则只搜索对应 shell 的分区
+     * @param query 归一化查询向量
+     * @param k 返回数量
+     * @param efSearch 本次查询的候选队列长度, 不大于 0 时使用 rag.hnsw.ef-search, 上限为 rag.hnsw.max-ef-search
+     * @return 按相似度降序排列的结果
+     */
+    public List<ScoredCommand> search(String os, String shell, double[] query, int k, int efSearch) {
+        long start = System.nanoTime();
+        FloatVectorFile<CommandTemplate> f = floats;
+        float[] q = VectorKernels.toFloat(query);
+        String matched = hasPartition(os, shell) ? ShellNames.normalize(shell) : null; // 回退到全部分区时为空
+        List<HnswIndex<CommandTemplate>> selected = select(os, matched);
+        Predicate<CommandTemplate> filter = t -> os.equals(t.getOs()) && (matched == null || matched.equals(ShellNames.normalize(t.getShell())));
+        boolean rerank = (quantizationProperties.isEnabled() || twoStageProperties.isEnabled()) && f != null;
+        int depth = rerank ? depth(k) : k;
+        int ef = Math.max(efSearch > 0 ? Math.min(efSearch, hnswProperties.getMaxEfSearch()) : hnswProperties.getEfSearch(), depth);
+        float[] coarse = coarse(q);
+        List<HnswIndex.Result<CommandTemplate>> candidates = new ArrayList<>();
+        for (HnswIndex<CommandTemplate> partition : selected) {
+            candidates.addAll(partition.search(coarse, depth, ef, t -> true));
+        }
+        candidates.sort(Comparator.comparingDouble((HnswIndex.Result<CommandTemplate> r) -> r.score()).reversed());
+        List<ScoredCommand> hits = rerank
+                ? rerank(q, candidates, k, f)
+                : candidates.stream().limit(k).map(r -> new ScoredCommand(r.value(), r.score(), ScoredCommand.SOURCE_VECTOR)).toList();
+        queries.incrementAndGet();
+        efSum.addAndGet(ef);
+        queryNanos.addAndGet(System.nanoTime() - start);
+
+        if (ThreadLocalRandom.current().nextDouble() < hnswProperties.getRecallSampleRate()) {
+            verify(os, matched == null ? null : shellSpellings.get(partitionKey(os, matched)), query, k, hits);
+        }
+        if (rerank && ThreadLocalRandom.current().nextDouble() < quantizationProperties.getExactSampleRate()) {
+            verifyQuantization(q, k, filter, candidates, hits, f);
+        }
+        return hits;
+    }
+
+    /**
+     * 第一阶段的候选数: 量化时为 k * rerankFactor, 两阶段检索时至少为 shortlist
+     */
+    private int depth(int k) {
+        int depth = quantizationProperties.isEnabled() ? k * Math.max(1, quantizationProperties.getRerankFactor()) : k;
+        return twoStageProperties.isEnabled() ? Math.max(depth, twoStageProperties.getShortlist()) : depth;
+    }
+
+    /**
+     * 图中保存与检索使用的向量, 两阶段检索时为截断到 coarseDimension 维并重新归一化的前缀
+     */
+    private float[] coarse(float[] vector) {
+        return twoStageProperties.isEnabled() ? VectorKernels.truncate(vector, twoStageProperties.getCoarseDimension()) : vector;
+    }
+
+    /**
+     * 操作系统 (及 shell) 匹配的分区, 通常只有一个; shell 的分区不存在或为空时回退到该操作系统的全部分区,
+     * 避免客户端上报的 shell 与模板不一致 (如 zsh 与 bash) 时向量检索没有结果
+     */
+    private List<HnswIndex<CommandTemplate>> select(String os, String shell) {
+        Map<String, HnswIndex<CommandTemplate>> current = partitions;
+        if (hasPartition(os, shell)) return List.of(current.get(partitionKey(os, shell)));
+        String prefix = os + '\u0000';
+        List<HnswIndex<CommandTemplate>> selected = new ArrayList<>(1);
+        current.forEach((key, partition) -> {
+            if (key.startsWith(prefix)) selected.add(partition);
+        });
+        return selected;
+    }
+
+    private static String partitionKey(CommandTemplate template) {
+        return partitionKey(template.getOs(), template.getShell());
+    }
+
+    private static String partitionKey(String os, String shell) {
+        return os + '\u0000' + ShellNames.normalize(shell);
+    }
+
+    private boolean hasPartition(String os, String shell) {
+        if (shell == null) return false;
+        HnswIndex<CommandTemplate> partition = partitions.get(partitionKey(os, shell));
+        return partition != null && partition.size() > 0;
+    }
+
+    private static int size(Map<String, HnswIndex<CommandTemplate>> partitions) {
+        return partitions.values().stream().mapToInt(HnswIndex::size).sum();
+    }
+
+    private static long vectorBytes(Map<String, HnswIndex<CommandTemplate>> partitions) {
+        return partitions.values().stream().mapToLong(HnswIndex::vectorBytes).sum();
+    }
+
+    /**
+     * 用 float 向量重新计算候选的相似度并排序, 两阶段检索时按 rerankDimension 维计算; 文件中缺少的候选保留第一阶段的近似分数
+     */
+    private List<ScoredCommand> rerank(float[] q, List<HnswIndex.Result<CommandTemplate>> candidates, int k, FloatVectorFile<CommandTemplate> f) {
+        int dimension = twoStageProperties.isEnabled() ? twoStageProperties.getRerankDimension() : 0;
+        float[] query = VectorKernels.truncate(q, dimension);
+        boolean prefix = query != q;
+        float[] scratch = new float[query.length]; // 只读取参与重排的前缀维度
+        List<ScoredCommand> scored = new ArrayList<>(candidates.size());
+        for (HnswIndex.Result<CommandTemplate> r : candidates) {
+            float[] v = f.get(r.key(), scratch);
+            double score = r.score();
+            if (v != null) {
+                // 截断后的前缀不再是单位向量, 除以其模长得到余弦相似度
+                float norm = prefix ? (float) Math.sqrt(VectorKernels.dot(v, v)) : 1f;
+                score = norm == 0 ? 0 : VectorKernels.dot(query, v) / norm;
+            }
+            scored.add(new ScoredCommand(r.value(), score, ScoredCommand.SOURCE_VECTOR));
+        }
+        scored.sort(Comparator.comparingDouble(ScoredCommand::getScore).reversed());
+        return scored.subList(0, Math.min(k, scored.size()));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long q = queries.get();
+        long samples = recallSamples.get();
+        Map<String, HnswIndex<CommandTemplate>> current = partitions;
+        stats.put("size", size(current));
+        stats.put("partitions", current.size());
+        stats.put("largestPartition", current.values().stream().mapToInt(HnswIndex::size).max().orElse(0));
+        stats.put("queries", q);
+        stats.put("avgQueryUs", q == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(queryNanos.get() / q));
+        stats.put("avgEfSearch", q == 0 ? 0 : efSum.get() / q);
+        stats.put("recallSamples", samples);
+        stats.put("recall", samples == 0 ? "-" : String.format("%.4f", recallSum.sum() / samples));
+        stats.put("avgPgvectorUs", samples == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(pgvectorNanos.get() / samples));
+        FloatVectorFile<CommandTemplate> f = floats;
+        stats.put("quantized", quantizationProperties.isEnabled());
+        stats.put("coarseDimension", twoStageProperties.isEnabled() ? twoStageProperties.getCoarseDimension() : 0);
+        stats.put("vectorBytes", vectorBytes(current));
+        if (f != null) stats.put("floatFileBytes", f.fileBytes());
+        long exact = exactSamples.get();
+        stats.put("exactSamples", exact);
+        stats.put("coarseRecall", exact == 0 ? "-" : String.format("%.4f", coarseRecallSum.sum() / exact));
+        stats.put("rerankRecall", exact == 0 ? "-" : String.format("%.4f", rerankRecallSum.sum() / exact));
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (!isReady() || queries.get() == 0) return;
+        log.info("HNSW 索引统计: {}", stats());
+    }
+
+    @PreDestroy
+    public void close() {
+        FloatVectorFile<CommandTemplate> f = floats;
+        if (f != null) f.close();
+    }
+
+    /**
+     * 异步做全量精确扫描, 以其结果为基准分别计算只按第一阶段相似度与重排后的 recall@k, 不影响本次请求;
+     * 扫描期间持有向量文件的租约, 全量加载替换后旧文件在扫描结束时才关闭, 文件已关闭时跳过本次抽样
+     */
+    private void verifyQuantization(float[] q, int k, Predicate<CommandTemplate> filter, List<HnswIndex.Result<CommandTemplate>> candidates,
+                                    List<ScoredCommand> hits, FloatVectorFile<CommandTemplate> f) {
+        if (!f.retain()) return;
+        try {
+            Schedulers.boundedElastic().schedule(() -> {
+                List<String> expected;
+                try {
+                    expected = f.exactSearch(q, k, filter);
+                } finally {
+                    f.release();
+                }
+                if (expected.isEmpty()) return;
+                Set<String> approx = new HashSet<>();
+                candidates.stream().limit(k).forEach(r -> approx.add(r.key()));
+                Set<String> reranked = new HashSet<>();
+                hits.forEach(hit -> reranked.add(RagVectorRepository.key(hit.getTemplate())));
+                exactSamples.incrementAndGet();
+                coarseRecallSum.add((double) expected.stream().filter(approx::contains).count() / expected.size());
+                rerankRecallSum.add((double) expected.stream().filter(reranked::contains).count() / expected.size());
+            });
+        } catch (RejectedExecutionException e) {
+            f.release(); // 调度器已关闭, 任务不会执行
+        }
+    }
+
+    private HnswIndex<CommandTemplate> newIndex() {
+        return new HnswIndex<>(hnswProperties.getM(), hnswProperties.getEfConstruction(), quantizationProperties.isEnabled());
+    }
+
+    /**
+     * 每次全量加载使用新文件, 替换完成后删除旧文件
+     */
+    private FloatVectorFile<CommandTemplate> newFloatFile() {
+        String path = quantizationProperties.getFloatPath();
+        if (!quantizationProperties.isEnabled() && !twoStageProperties.isEnabled() || path == null || path.isBlank()) return null;
+        return new FloatVectorFile<>(Path.of(path + "." + generation.incrementAndGet()));
+    }
+
+    /**
+     * 异步查询 pgvector, 以其结果为基准计算 recall@k, 不影响本次请求
+     * @param shells 只搜索了一个 shell 分区时为该分区的 shell 写法, pgvector 侧按同样范围过滤; 搜索了全部分区时为空
+     */
+    private void verify(String os, Set<String> shells, double[] query, int k, List<ScoredCommand> hits) {
+        long start = System.nanoTime();
+        ragVectorRepository.searchScored(os, shells == null ? null : List.copyOf(shells), query, k)
+                .map(hit -> RagVectorRepository.key(hit.getTemplate()))
+                .collectList()
+                .subscribe(expected -> {
+                    pgvectorNanos.addAndGet(System.nanoTime() - start);
+                    if (expected.isEmpty()) return;
+                    Set<String> actual = new HashSet<>();
+                    hits.forEach(hit -> actual.add(RagVectorRepository.key(hit.getTemplate())));
+                    long matched = expected.stream().filter(actual::contains).count();
+                    recallSamples.incrementAndGet();
+                    recallSum.add((double) matched / expected.size());
+                }, error -> log.debug("HNSW 召回率抽样失败: {}", error.getMessage()));
+    }
+
+    /**
+     * 一次增量变更, vector 为空表示删除
+     */
+    private record Mutation(CommandTemplate template, float[] vector) {
+    }
+}
@@ -0,0 +1,220 @@
+package com.eugenezhu.voxforge.rag;
+
+import com.eugenezhu.voxforge.config.RagConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: EmbeddingCache
+ * @author: zhuyuchen
+ * @description: 按内容寻址的嵌入向量缓存, 键为 Hashing.fingerprint(模型, 维度, 文本) 的 SHA-256;
+ *               堆内 LRU 为第一层, 追加写入的内存映射文件为第二层, 以 float32 保存, 重启后仍然有效
+ * @date: 2026/10/19 下午5:20
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class EmbeddingCache {
+
+    private static final int MAGIC = 0x56464543; // "VFEC"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 8; // magic + version
+    private static final int RECORD_HEADER_BYTES = 20; // 维度 + 128 位键
+
+    private final RagConfig.EmbeddingCacheProperties properties;
+
+    // accessOrder = true, 头部为最久未使用的条目
+    private final LinkedHashMap<String, double[]> heap = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<Key, Integer> offsets = new ConcurrentHashMap<>(); // 键 -> 记录在文件中的偏移
+
+    private FileChannel channel;
+    private volatile MappedByteBuffer mapped;
+    private int writePosition; // 只在持有 this 锁时读写
+    private boolean full;
+
+    private final AtomicLong heapHits = new AtomicLong();
+    private final AtomicLong fileHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong appends = new AtomicLong();
+
+    /**
+     * 打开文件层并扫描已有记录, 失败时只使用堆内缓存
+     */
+    @PostConstruct
+    public void open() {
+        if (!properties.isEnabled() || properties.getPath() == null || properties.getPath().isBlank()) return;
+        Path path = Path.of(properties.getPath());
+        try {
+            if (path.getParent() != null) Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long capacity = Math.min(Integer.MAX_VALUE, Math.max(properties.getMaxFileBytes(), channel.size()));
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+            if (buffer.getInt(0) == 0) {
+                buffer.putInt(4, VERSION);
+                buffer.putInt(0, MAGIC);
+            } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                log.warn("嵌入缓存文件格式不匹配, 只使用堆内缓存: {}", path);
+                channel.close();
+                return;
+            }
+            writePosition = scan(buffer);
+            mapped = buffer;
+            log.info("嵌入缓存文件已加载: {}, 共 {} 条, {} 字节", path, offsets.size(), writePosition);
+        } catch (IOException | RuntimeException e) {
+            log.warn("嵌入缓存文件不可用, 只使用堆内缓存: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (mapped == null) return;
+        try {
+            mapped.force();
+            channel.close();
+        } catch (IOException e) {
+            log.warn("关闭嵌入缓存文件失败: {}", e.getMessage());
+        }
+        mapped = null;
+    }
+
+    /**
+     * 查询缓存, 文件层命中时提升到堆内
+     * @param key Hashing.fingerprint(模型, 维度, 文本)
+     * @return 嵌入向量, 未命中时为 null
+     */
+    public double[] get(String key) {
+        if (!properties.isEnabled()) return null;
+        synchronized (heap) {
+            double[] cached = heap.get(key);
+            if (cached != null) {
+                heapHits.incrementAndGet();
+                return cached;
+            }
+        }
+        MappedByteBuffer buffer = mapped;
+        Integer offset = buffer == null ? null : offsets.get(Key.of(key));
+        if (offset == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        int dim = buffer.getInt(offset);
+        double[] vector = new double[dim];
+        int at = offset + RECORD_HEADER_BYTES;
+        for (int i = 0; i < dim; i++, at += Float.BYTES) vector[i] = buffer.getFloat(at);
+        fileHits.incrementAndGet();
+        putHeap(key, vector);
+        return vector;
+    }
+
+    /**
+     * 写入缓存, 文件层中不存在时追加一条记录
+     * @param key Hashing.fingerprint(模型, 维度, 文本)
+     * @param vector 嵌入向量
+     */
+    public void put(String key, double[] vector) {
+        if (!properties.isEnabled() || vector == null || vector.length == 0) return;
+        putHeap(key, vector);
+        if (mapped != null) append(Key.of(key), vector);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("heapHits", heapHits.get());
+        stats.put("fileHits", fileHits.get());
+        stats.put("misses", misses.get());
+        synchronized (heap) {
+            stats.put("heapSize", heap.size());
+        }
+        stats.put("fileEntries", offsets.size());
+        stats.put("appends", appends.get());
+        synchronized (this) {
+            stats.put("fileBytes", writePosition);
+            stats.put("fileFull", full);
+        }
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (heapHits.get() + fileHits.get() + misses.get() == 0) return;
+        log.info("嵌入缓存统计: {}", stats());
+    }
+
+    private void putHeap(String key, double[] vector) {
+        synchronized (heap) {
+            heap.put(key, vector);
+            if (heap.size() > properties.getHeapEntries()) {
+                heap.remove(heap.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * 先写键和向量, 最后写维度; 进程中途退出时维度仍为 0, 重启扫描到此处即停止
+     */
+    private synchronized void append(Key key, double[] vector) {
+        MappedByteBuffer buffer = mapped;
+        if (buffer == null || full || offsets.containsKey(key)) return;
+        long size = RECORD_HEADER_BYTES + (long) vector.length * Float.BYTES;
+        if (writePosition + size > buffer.capacity()) {
+            full = true;
+            log.warn("嵌入缓存文件已写满 ({} 字节), 后续只写入堆内缓存", writePosition);
+            return;
+        }
+        int offset = writePosition;
+        buffer.putLong(offset + 4, key.hi());
+        buffer.putLong(offset + 12, key.lo());
+        int at = offset + RECORD_HEADER_BYTES;
+        for (double x : vector) {
+            buffer.putFloat(at, (float) x);
+            at += Float.BYTES;
+        }
+        buffer.putInt(offset, vector.length);
+        writePosition = at;
+        offsets.put(key, offset);
+        appends.incrementAndGet();
+    }
+
+    /**
+     * 扫描已有记录建立偏移表
+     * @return 下一条记录的写入位置
+     */
+    private int scan(MappedByteBuffer buffer) {
+        int position = FILE_HEADER_BYTES;
+        while (position + RECORD_HEADER_BYTES <= buffer.capacity()) {
+            int dim = buffer.getInt(position);
+            long end = position + RECORD_HEADER_BYTES + (long) dim * Float.BYTES;
+            if (dim <= 0 || end > buffer.capacity()) break;
+            offsets.put(new Key(buffer.getLong(position + 4), buffer.getLong(position + 12)), position);
+            position = (int) end;
+        }
+        return position;
+    }
+
+    /**
+     * 取 SHA-256 十六进制摘要的前 128 位
+     */
+    private record Key(long hi, long lo) {
+        static Key of(String fingerprint) {
+            return new Key(Long.parseUnsignedLong(fingerprint, 0, 16, 16), Long.parseUnsignedLong(fingerprint, 16, 32, 16));
+        }
+    }
+}
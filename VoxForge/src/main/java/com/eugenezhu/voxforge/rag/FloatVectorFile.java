@@ -0,0 +1,206 @@
+package com.eugenezhu.voxforge.rag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: FloatVectorFile
+ * @author: zhuyuchen
+ * @description: 按 key 存取的 float32 向量文件, 定长槽位, 按段内存映射; 向量不占用堆, 由操作系统按需换入换出页面.
+ *               用于 int8 量化索引的精确重排与召回率抽样; 文件只在进程内有效, 创建时清空, 关闭时删除;
+ *               异步读取方通过 retain/release 持有租约, 租约全部释放后才真正关闭
+ * @date: 2026/10/21 下午5:00
+ */
+@Slf4j
+public class FloatVectorFile<T> implements AutoCloseable {
+
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private final Path path;
+    private final Map<String, Slot<T>> byKey = new ConcurrentHashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>(); // 只在持有 this 锁时读写
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private volatile MappedByteBuffer[] segmentView = new MappedByteBuffer[0]; // 供读取方无锁访问
+    private FileChannel channel;
+    private int dimension = -1;
+    private int slotsPerSegment;
+    private int nextSlot;
+    private int leases; // 只在持有 this 锁时读写
+    private boolean closed;
+
+    public FloatVectorFile(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 写入或覆盖, key 已存在时复用原槽位
+     */
+    public synchronized void put(String key, T value, float[] vector) {
+        if (closed) return;
+        if (dimension < 0) open(vector.length);
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不一致: " + vector.length + " != " + dimension);
+        }
+        Slot<T> existing = byKey.get(key);
+        int slot = existing != null ? existing.id() : freeSlots.isEmpty() ? nextSlot++ : freeSlots.pop();
+        MappedByteBuffer segment = segment(slot);
+        int at = offset(slot);
+        for (float x : vector) {
+            segment.putFloat(at, x);
+            at += Float.BYTES;
+        }
+        byKey.put(key, new Slot<>(slot, value));
+    }
+
+    public synchronized void remove(String key) {
+        Slot<T> slot = byKey.remove(key);
+        if (slot != null) freeSlots.push(slot.id());
+    }
+
+    /**
+     * 读取向量, 不存在或文件已关闭时为 null
+     */
+    public float[] get(String key) {
+        Slot<T> slot = byKey.get(key);
+        return slot == null ? null : read(slot.id(), new float[dimension]);
+    }
+
+    /**
+     * 把向量的前 into.length 维读入 into, 供重排复用缓冲区; 不存在, 文件已关闭或 into 长于向量维度时为 null
+     */
+    public float[] get(String key, float[] into) {
+        Slot<T> slot = byKey.get(key);
+        return slot == null || into.length > dimension ? null : read(slot.id(), into);
+    }
+
+    /**
+     * 精确 top-k, 逐条读取全部向量计算内积; 开销与条数成正比, 只用于抽样统计
+     * @return 按内积降序排列的 key
+     */
+    public List<String> exactSearch(float[] query, int k, Predicate<T> filter) {
+        if (dimension < 0 || query.length != dimension || k <= 0) return List.of();
+        float[] scratch = new float[dimension];
+        PriorityQueue<Map.Entry<String, Float>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (Map.Entry<String, Slot<T>> e : byKey.entrySet()) {
+            if (!filter.test(e.getValue().value())) continue;
+            float[] vector = read(e.getValue().id(), scratch);
+            if (vector == null) break;
+            float score = VectorKernels.dot(query, vector);
+            if (top.size() < k) {
+                top.offer(Map.entry(e.getKey(), score));
+            } else if (score > top.peek().getValue()) {
+                top.poll();
+                top.offer(Map.entry(e.getKey(), score));
+            }
+        }
+        List<Map.Entry<String, Float>> sorted = new ArrayList<>(top);
+        sorted.sort(Map.Entry.<String, Float>comparingByValue(Comparator.reverseOrder()));
+        return sorted.stream().map(Map.Entry::getKey).toList();
+    }
+
+    public int size() {
+        return byKey.size();
+    }
+
+    /**
+     * 已映射的文件大小
+     */
+    public synchronized long fileBytes() {
+        return (long) segments.size() * slotsPerSegment * Math.max(dimension, 0) * Float.BYTES;
+    }
+
+    /**
+     * 取得租约, 持有期间文件不会被关闭; 文件已关闭时返回 false, 成功时调用方须调用 release
+     */
+    public synchronized boolean retain() {
+        if (closed) return false;
+        leases++;
+        return true;
+    }
+
+    public synchronized void release() {
+        if (--leases == 0 && closed) unmap();
+    }
+
+    /**
+     * 关闭文件, 仍有租约时推迟到最后一个租约释放
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (leases == 0) unmap();
+    }
+
+    private void unmap() {
+        segments.clear();
+        segmentView = new MappedByteBuffer[0];
+        byKey.clear();
+        try {
+            if (channel != null) channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("关闭向量文件失败 {}: {}", path, e.getMessage());
+        }
+    }
+
+    private void open(int dim) {
+        try {
+            if (path.getParent() != null) Files.createDirectories(path.getParent());
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法创建向量文件 " + path, e);
+        }
+        dimension = dim;
+        slotsPerSegment = (int) Math.max(1, SEGMENT_BYTES / ((long) dim * Float.BYTES));
+    }
+
+    private MappedByteBuffer segment(int slot) {
+        int index = slot / slotsPerSegment;
+        while (segments.size() <= index) {
+            long bytes = (long) slotsPerSegment * dimension * Float.BYTES;
+            try {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * bytes, bytes));
+            } catch (IOException e) {
+                throw new UncheckedIOException("向量文件映射失败 " + path, e);
+            }
+            segmentView = segments.toArray(MappedByteBuffer[]::new);
+        }
+        return segments.get(index);
+    }
+
+    private int offset(int slot) {
+        return (slot % slotsPerSegment) * dimension * Float.BYTES;
+    }
+
+    private float[] read(int slot, float[] into) {
+        MappedByteBuffer[] view = segmentView;
+        if (slot / slotsPerSegment >= view.length) return null; // 已关闭, 读取方持有的是被替换前的引用
+        MappedByteBuffer segment = view[slot / slotsPerSegment];
+        int at = offset(slot);
+        for (int i = 0; i < into.length; i++, at += Float.BYTES) into[i] = segment.getFloat(at);
+        return into;
+    }
+
+    private record Slot<T>(int id, T value) {
+    }
+}
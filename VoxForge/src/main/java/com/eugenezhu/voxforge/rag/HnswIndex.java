@@ -0,0 +1,406 @@
+package com.eugenezhu.voxforge.rag;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: HnswIndex
+ * @author: zhuyuchen
+ * @description: 进程内 HNSW (Hierarchical Navigable Small World) 近似最近邻索引, 相似度为内积, 要求向量已归一化 (即余弦相似度);
+ *               支持按 key 增量插入/覆盖与删除, 删除为逻辑删除, 已删除节点仍参与路由, 删除比例过高时重建;
+ *               读多写少, 查询持有读锁, 插入/删除持有写锁; 可选 int8 量化存储, 每维 1 字节, 相似度为近似值, 由调用方用原始向量重排
+ * @date: 2026/10/19 下午2:30
+ */
+public class HnswIndex<T> {
+
+    private final int m; // 第 1 层及以上每个节点的最大邻居数
+    private final int mMax0; // 第 0 层每个节点的最大邻居数
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final boolean quantized;
+    private final Random random = new Random(42); // 固定种子, 相同插入顺序得到相同的图
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Node<T>> nodes = new ArrayList<>();
+    private final Map<String, Integer> byKey = new HashMap<>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int deletedCount = 0;
+    private int dimension = -1;
+
+    public HnswIndex(int m, int efConstruction) {
+        this(m, efConstruction, false);
+    }
+
+    /**
+     * @param quantized 是否以 int8 码代替 float 向量存储
+     */
+    public HnswIndex(int m, int efConstruction, boolean quantized) {
+        this.quantized = quantized;
+        this.m = Math.max(2, m);
+        this.mMax0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1 / Math.log(this.m);
+    }
+
+    /**
+     * 插入或覆盖
+     * @param key 唯一键, 已存在时先删除旧节点
+     * @param value 附带的数据
+     * @param vector 归一化向量
+     */
+    public void add(String key, T value, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            if (dimension < 0) dimension = vector.length;
+            if (vector.length != dimension) {
+                throw new IllegalArgumentException("向量维度不一致: " + vector.length + " != " + dimension);
+            }
+            markDeleted(key);
+            insert(key, value, vector);
+            if (deletedCount > 64 && deletedCount > nodes.size() / 2) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除
+     * @param key 唯一键
+     * @return 是否存在并已删除
+     */
+    public boolean remove(String key) {
+        lock.writeLock().lock();
+        try {
+            return markDeleted(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(String key) {
+        lock.readLock().lock();
+        try {
+            return byKey.containsKey(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 近似 top-k 查询
+     * @param query 归一化查询向量
+     * @param k 返回数量
+     * @param ef 候选队列长度, 越大召回越高, 不小于 k
+     * @param filter 结果过滤条件, 不满足的节点仍参与路由
+     * @return 按相似度降序排列的结果
+     */
+    public List<Result<T>> search(float[] query, int k, int ef, Predicate<T> filter) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || query.length != dimension) return List.of();
+            List<Candidate> sorted = nodes.size() <= Math.max(ef, k)
+                    ? scan(query, filter) // 节点数不超过 ef 时图搜索也会访问全部节点, 直接精确扫描
+                    : sortDescending(searchLayer(query, greedy(query, entryPoint, maxLevel, 1), Math.max(ef, k), 0,
+                    node -> !node.deleted && filter.test(node.value), new BitSet(nodes.size())));
+            List<Result<T>> results = new ArrayList<>(Math.min(k, sorted.size()));
+            for (int i = 0; i < sorted.size() && i < k; i++) {
+                Node<T> node = nodes.get(sorted.get(i).id);
+                results.add(new Result<>(node.key, node.value, sorted.get(i).similarity));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    /**
+     * 向量数据占用的字节数 (不含图结构), 包括已逻辑删除的节点
+     */
+    public long vectorBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) nodes.size() * Math.max(dimension, 0) * (quantized ? 1 : Float.BYTES);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 有效节点数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byKey.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            nodes.clear();
+            byKey.clear();
+            entryPoint = -1;
+            maxLevel = -1;
+            deletedCount = 0;
+            dimension = -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean markDeleted(String key) {
+        Integer id = byKey.remove(key);
+        if (id == null) return false;
+        nodes.get(id).deleted = true;
+        deletedCount++;
+        return true;
+    }
+
+    private void insert(String key, T value, float[] vector) {
+        int level = (int) Math.floor(-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        int id = nodes.size();
+        float scale = quantized ? VectorKernels.int8Scale(vector) : 1f;
+        Node<T> node = quantized
+                ? new Node<>(key, value, null, VectorKernels.quantize(vector, scale), scale, level, m, mMax0)
+                : new Node<>(key, value, vector, null, scale, level, m, mMax0);
+        nodes.add(node);
+        byKey.put(key, id);
+
+        if (entryPoint < 0) {
+            entryPoint = id;
+            maxLevel = level;
+            return;
+        }
+
+        int cur = greedy(vector, entryPoint, maxLevel, level + 1);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> candidates = sortDescending(searchLayer(vector, cur, efConstruction, l, n -> !n.deleted, new BitSet(nodes.size())));
+            if (candidates.isEmpty()) continue;
+            int[] neighbors = selectNeighbors(candidates, m);
+            System.arraycopy(neighbors, 0, node.links[l], 0, neighbors.length);
+            node.counts[l] = neighbors.length;
+            for (int neighbor : neighbors) {
+                connect(neighbor, id, l);
+            }
+            cur = candidates.get(0).id;
+        }
+
+        if (level > maxLevel) {
+            entryPoint = id;
+            maxLevel = level;
+        }
+    }
+
+    /**
+     * 把 target 加入 from 在 level 层的邻居表, 超出容量时按启发式重新选择
+     */
+    private void connect(int from, int target, int level) {
+        Node<T> node = nodes.get(from);
+        int cap = level == 0 ? mMax0 : m;
+        if (node.counts[level] < cap) {
+            node.links[level][node.counts[level]++] = target;
+            return;
+        }
+        List<Candidate> candidates = new ArrayList<>(cap + 1);
+        for (int i = 0; i < node.counts[level]; i++) {
+            int n = node.links[level][i];
+            candidates.add(new Candidate(n, similarity(node, nodes.get(n))));
+        }
+        candidates.add(new Candidate(target, similarity(node, nodes.get(target))));
+        candidates.sort(Comparator.comparingDouble((Candidate c) -> c.similarity).reversed());
+        int[] selected = selectNeighbors(candidates, cap);
+        System.arraycopy(selected, 0, node.links[level], 0, selected.length);
+        node.counts[level] = selected.length;
+    }
+
+    /**
+     * 启发式邻居选择: 候选与已选邻居的相似度高于与查询点的相似度时跳过, 保持邻居方向的多样性;
+     * 不足 max 时用被跳过的候选补足
+     * @param candidates 按相似度降序排列的候选
+     */
+    private int[] selectNeighbors(List<Candidate> candidates, int max) {
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> skipped = new ArrayList<>();
+        for (Candidate c : candidates) {
+            if (selected.size() >= max) break;
+            Node<T> v = nodes.get(c.id);
+            boolean diverse = true;
+            for (Candidate s : selected) {
+                if (similarity(v, nodes.get(s.id)) > c.similarity) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) selected.add(c);
+            else skipped.add(c);
+        }
+        for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+            selected.add(skipped.get(i));
+        }
+        int[] ids = new int[selected.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = selected.get(i).id;
+        return ids;
+    }
+
+    /**
+     * 从 fromLevel 逐层贪心下降到 toLevel, 返回 toLevel 层的入口节点
+     */
+    private int greedy(float[] query, int start, int fromLevel, int toLevel) {
+        int cur = start;
+        float best = similarity(query, nodes.get(cur));
+        for (int l = fromLevel; l >= toLevel; l--) {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                Node<T> node = nodes.get(cur);
+                for (int i = 0; i < node.counts[l]; i++) {
+                    int n = node.links[l][i];
+                    float s = similarity(query, nodes.get(n));
+                    if (s > best) {
+                        best = s;
+                        cur = n;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return cur;
+    }
+
+    /**
+     * 单层束搜索
+     * @param accept 能进入结果集的节点, 其余节点只用于路由
+     * @return 结果集, 小顶堆, 最多 ef 个
+     */
+    private PriorityQueue<Candidate> searchLayer(float[] query, int start, int ef, int level, Predicate<Node<T>> accept, BitSet visited) {
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(Comparator.comparingDouble((Candidate c) -> c.similarity).reversed());
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Comparator.comparingDouble((Candidate c) -> c.similarity));
+
+        Candidate first = new Candidate(start, similarity(query, nodes.get(start)));
+        visited.set(start);
+        candidates.add(first);
+        if (accept.test(nodes.get(start))) results.add(first);
+
+        while (!candidates.isEmpty()) {
+            Candidate c = candidates.poll();
+            if (results.size() >= ef && c.similarity < results.peek().similarity) break;
+            Node<T> node = nodes.get(c.id);
+            if (level > node.level) continue;
+            for (int i = 0; i < node.counts[level]; i++) {
+                int n = node.links[level][i];
+                if (visited.get(n)) continue;
+                visited.set(n);
+                float s = similarity(query, nodes.get(n));
+                if (results.size() < ef || s > results.peek().similarity) {
+                    Candidate next = new Candidate(n, s);
+                    candidates.add(next);
+                    if (accept.test(nodes.get(n))) {
+                        results.add(next);
+                        if (results.size() > ef) results.poll();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private List<Candidate> scan(float[] query, Predicate<T> filter) {
+        List<Candidate> all = new ArrayList<>(byKey.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            Node<T> node = nodes.get(i);
+            if (!node.deleted && filter.test(node.value)) all.add(new Candidate(i, similarity(query, node)));
+        }
+        all.sort(Comparator.comparingDouble((Candidate c) -> c.similarity).reversed());
+        return all;
+    }
+
+    /**
+     * 只保留有效节点重建, 按原插入顺序
+     */
+    private void rebuild() {
+        List<Node<T>> live = nodes.stream().filter(n -> !n.deleted).toList();
+        nodes.clear();
+        byKey.clear();
+        entryPoint = -1;
+        maxLevel = -1;
+        deletedCount = 0;
+        for (Node<T> n : live) {
+            insert(n.key, n.value, n.vector != null ? n.vector : dequantize(n));
+        }
+    }
+
+    private float similarity(float[] query, Node<T> node) {
+        return quantized ? VectorKernels.dot(query, node.code) * node.scale : VectorKernels.dot(query, node.vector);
+    }
+
+    private float similarity(Node<T> a, Node<T> b) {
+        return quantized ? VectorKernels.dot(a.code, b.code) * a.scale * b.scale : VectorKernels.dot(a.vector, b.vector);
+    }
+
+    /**
+     * 还原为 float 向量, 再次量化得到相同的码
+     */
+    private float[] dequantize(Node<T> node) {
+        float[] v = new float[node.code.length];
+        for (int i = 0; i < v.length; i++) v[i] = node.code[i] * node.scale;
+        return v;
+    }
+
+    private List<Candidate> sortDescending(PriorityQueue<Candidate> queue) {
+        List<Candidate> list = new ArrayList<>(queue);
+        list.sort(Comparator.comparingDouble((Candidate c) -> c.similarity).reversed());
+        return list;
+    }
+
+    public record Result<T>(String key, T value, double score) {
+    }
+
+    private record Candidate(int id, float similarity) {
+    }
+
+    private static final class Node<T> {
+        private final String key;
+        private final T value;
+        private final float[] vector; // 量化存储时为 null
+        private final byte[] code; // int8 码, 非量化存储时为 null
+        private final float scale; // 码的量化比例
+        private final int level;
+        private final int[][] links; // links[l] 为第 l 层邻居, 有效长度为 counts[l]
+        private final int[] counts;
+        private boolean deleted;
+
+        Node(String key, T value, float[] vector, byte[] code, float scale, int level, int m, int mMax0) {
+            this.key = key;
+            this.value = value;
+            this.vector = vector;
+            this.code = code;
+            this.scale = scale;
+            this.level = level;
+            this.links = new int[level + 1][];
+            this.counts = new int[level + 1];
+            for (int l = 0; l <= level; l++) {
+                links[l] = new int[l == 0 ? mMax0 : m];
+            }
+        }
+    }
+}
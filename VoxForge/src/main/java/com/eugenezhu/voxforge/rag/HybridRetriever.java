@@ -0,0 +1,193 @@
+package com.eugenezhu.voxforge.rag;
+
+import com.eugenezhu.voxforge.config.RagConfig;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import com.eugenezhu.voxforge.repository.RagVectorRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: HybridRetriever
+ * @author: zhuyuchen
+ * @description: 混合检索: 向量检索与 BM25 词法检索并行执行, 各自有截止时间, 超时或失败的一路按空结果处理;
+ *               两路都有结果时按倒数排名融合 (RRF, score = Σ 1 / (rrfK + rank)), 只有一路有结果时直接返回该路结果;
+ *               按结果类型, 各路耗时, 超时次数及两路第一名是否一致统计, 用于调整 depth 与截止时间
+ * @date: 2026/10/21 上午10:20
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HybridRetriever {
+
+    public static final String OUTCOME_HYBRID = "hybrid";
+    public static final String OUTCOME_VECTOR_ONLY = "vector_only";
+    public static final String OUTCOME_LEXICAL_ONLY = "lexical_only";
+    public static final String OUTCOME_EMPTY = "empty";
+
+    private final RagConfig.HybridProperties hybridProperties;
+    private final CommandLexicalIndex commandLexicalIndex;
+
+    private final Map<String, AtomicLong> outcomes = new ConcurrentHashMap<>();
+    private final Map<String, LegStats> legs = Map.of("vector", new LegStats(), "lexical", new LegStats());
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong top1Agree = new AtomicLong(); // 两路都有结果且第一名相同的次数
+
+    /**
+     * 混合检索
+     * @param text 查询文本
+     * @param os 操作系统
+     * @param k 返回数量
+     * @param vectorLeg 按召回条数执行向量检索, 向量检索不可用时为 null
+     * @return 融合后的前 k 条结果
+     */
+    public Mono<List<ScoredCommand>> retrieve(String text, String os, int k, IntFunction<Mono<List<ScoredCommand>>> vectorLeg) {
+        if (!hybridProperties.isEnabled()) {
+            // 先向量检索, 失败或无结果时再词法检索
+            Mono<List<ScoredCommand>> lexical = Mono.fromCallable(() -> commandLexicalIndex.search(os, text, k));
+            if (vectorLeg == null) return lexical;
+            return vectorLeg.apply(k)
+                    .onErrorResume(e -> Mono.empty())
+                    .filter(hits -> !hits.isEmpty())
+                    .switchIfEmpty(lexical);
+        }
+
+        int depth = Math.max(k, hybridProperties.getDepth());
+        long start = System.nanoTime();
+        Mono<List<ScoredCommand>> vector = vectorLeg == null
+                ? Mono.just(List.of())
+                : leg("vector", Mono.defer(() -> vectorLeg.apply(depth)), hybridProperties.getVectorDeadline());
+        Mono<List<ScoredCommand>> lexical = leg("lexical",
+                Mono.fromCallable(() -> commandLexicalIndex.search(os, text, depth)).subscribeOn(Schedulers.parallel()),
+                hybridProperties.getLexicalDeadline());
+
+        return Mono.zip(vector, lexical)
+                .map(t -> {
+                    List<ScoredCommand> hits = combine(t.getT1(), t.getT2(), k);
+                    requests.incrementAndGet();
+                    totalNanos.addAndGet(System.nanoTime() - start);
+                    return hits;
+                });
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long n = requests.get();
+        stats.put("requests", n);
+        stats.put("avgMs", avgMillis(totalNanos.get(), n));
+        outcomes.forEach((outcome, count) -> stats.put("outcome[" + outcome + "]", count.get()));
+        legs.forEach((name, leg) -> {
+            stats.put(name + "AvgMs", avgMillis(leg.nanos.get(), leg.completed.get()));
+            stats.put(name + "Timeouts", leg.timeouts.get());
+            stats.put(name + "Errors", leg.errors.get());
+        });
+        long both = outcomes.getOrDefault(OUTCOME_HYBRID, new AtomicLong()).get();
+        stats.put("top1Agreement", both == 0 ? "-" : String.format("%.3f", (double) top1Agree.get() / both));
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (requests.get() == 0) return;
+        log.info("混合检索统计: {}", stats());
+    }
+
+    /**
+     * 单路检索加截止时间, 超时或失败时返回空结果
+     */
+    private Mono<List<ScoredCommand>> leg(String name, Mono<List<ScoredCommand>> search, Duration deadline) {
+        LegStats stats = legs.get(name);
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return search
+                    .timeout(deadline)
+                    .defaultIfEmpty(List.of())
+                    .doOnNext(hits -> {
+                        stats.completed.incrementAndGet();
+                        stats.nanos.addAndGet(System.nanoTime() - start);
+                    })
+                    .onErrorResume(e -> {
+                        if (e instanceof TimeoutException) {
+                            stats.timeouts.incrementAndGet();
+                            log.debug("{} 检索超过截止时间 {}ms", name, deadline.toMillis());
+                        } else {
+                            stats.errors.incrementAndGet();
+                            log.debug("{} 检索失败: {}", name, e.getMessage());
+                        }
+                        return Mono.just(List.of());
+                    });
+        });
+    }
+
+    private List<ScoredCommand> combine(List<ScoredCommand> vector, List<ScoredCommand> lexical, int k) {
+        if (vector.isEmpty() && lexical.isEmpty()) {
+            count(OUTCOME_EMPTY);
+            return List.of();
+        }
+        if (lexical.isEmpty()) {
+            count(OUTCOME_VECTOR_ONLY);
+            return vector.subList(0, Math.min(k, vector.size()));
+        }
+        if (vector.isEmpty()) {
+            count(OUTCOME_LEXICAL_ONLY);
+            return lexical.subList(0, Math.min(k, lexical.size()));
+        }
+        count(OUTCOME_HYBRID);
+        if (RagVectorRepository.key(vector.get(0).getTemplate()).equals(RagVectorRepository.key(lexical.get(0).getTemplate()))) {
+            top1Agree.incrementAndGet();
+        }
+        return fuse(vector, lexical, k, hybridProperties.getRrfK());
+    }
+
+    /**
+     * 倒数排名融合, 保留向量检索的余弦相似度供快速路径判断; 分数相同时先出现在向量结果中的排前面
+     */
+    public static List<ScoredCommand> fuse(List<ScoredCommand> vector, List<ScoredCommand> lexical, int k, int rrfK) {
+        Map<String, ScoredCommand> fused = new LinkedHashMap<>();
+        for (List<ScoredCommand> ranked : List.of(vector, lexical)) {
+            for (int rank = 0; rank < ranked.size(); rank++) {
+                ScoredCommand hit = ranked.get(rank);
+                ScoredCommand merged = fused.computeIfAbsent(RagVectorRepository.key(hit.getTemplate()),
+                        key -> new ScoredCommand(hit.getTemplate(), 0, ScoredCommand.SOURCE_HYBRID));
+                merged.setScore(merged.getScore() + 1.0 / (rrfK + rank + 1));
+                if (!Double.isNaN(hit.getSimilarity())) merged.setSimilarity(hit.getSimilarity());
+            }
+        }
+        List<ScoredCommand> hits = new ArrayList<>(fused.values());
+        hits.sort(Comparator.comparingDouble(ScoredCommand::getScore).reversed());
+        return hits.subList(0, Math.min(k, hits.size()));
+    }
+
+    private void count(String outcome) {
+        outcomes.computeIfAbsent(outcome, o -> new AtomicLong()).incrementAndGet();
+    }
+
+    private String avgMillis(long nanos, long count) {
+        return count == 0 ? "0" : String.format("%.2f", (double) TimeUnit.NANOSECONDS.toMicros(nanos) / count / 1000);
+    }
+
+    private static final class LegStats {
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+    }
+}
@@ -0,0 +1,85 @@
+package com.eugenezhu.voxforge.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: IndexLifecycle
+ * @author: zhuyuchen
+ * @description: 命令索引的就绪状态; 只有 READY 时检索才走向量路径, 其余状态只用 BM25 词法检索, 请求不承担建表与索引的开销.
+ *               NOT_READY: 尚未开始; INDEXING: 后台建表/加载命令库中; READY: pgvector 与命令库可用; DEGRADED: 上次检查失败, 等待重试
+ * @date: 2026/10/22 上午10:10
+ */
+@Slf4j
+@Component
+public class IndexLifecycle {
+
+    public enum State {
+        NOT_READY, INDEXING, READY, DEGRADED
+    }
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.NOT_READY);
+    private volatile Instant since = Instant.now();
+    private volatile String reason = "启动中";
+    private final AtomicLong transitions = new AtomicLong();
+
+    public State state() {
+        return state.get();
+    }
+
+    public boolean isReady() {
+        return state.get() == State.READY;
+    }
+
+    /**
+     * 进入 INDEXING, 已在 INDEXING 时返回 false, 保证同一时间只有一个后台任务
+     */
+    public boolean beginIndexing(String why) {
+        State current;
+        do {
+            current = state.get();
+            if (current == State.INDEXING) return false;
+        } while (!state.compareAndSet(current, State.INDEXING));
+        changed(current, State.INDEXING, why);
+        return true;
+    }
+
+    public void ready(String why) {
+        transition(State.READY, why);
+    }
+
+    public void degrade(String why) {
+        transition(State.DEGRADED, why);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state.get());
+        stats.put("since", since.toString());
+        stats.put("reason", reason);
+        stats.put("transitions", transitions.get());
+        return stats;
+    }
+
+    private void transition(State next, String why) {
+        State previous = state.getAndSet(next);
+        if (previous != next) changed(previous, next, why);
+        else reason = why;
+    }
+
+    private void changed(State from, State to, String why) {
+        since = Instant.now();
+        reason = why;
+        transitions.incrementAndGet();
+        if (to == State.DEGRADED) log.warn("命令索引状态 {} -> {}: {}", from, to, why);
+        else log.info("命令索引状态 {} -> {}: {}", from, to, why);
+    }
+}
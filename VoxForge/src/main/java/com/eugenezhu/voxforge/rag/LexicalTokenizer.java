@@ -0,0 +1,62 @@
+package com.eugenezhu.voxforge.rag;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: LexicalTokenizer
+ * @author: zhuyuchen
+ * @description: 词法检索分词: 拉丁字母/数字按连续片段切为单词并转小写, 中日韩文字按相邻两字切为二元组,
+ *               只有一个字的片段保留单字; 其余字符 (空白, 标点, 符号) 作为分隔符
+ * @date: 2026/10/20 下午4:30
+ */
+public final class LexicalTokenizer {
+
+    private LexicalTokenizer() {
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) return tokens;
+        String s = text.toLowerCase(Locale.ROOT);
+        int i = 0;
+        int n = s.length();
+        while (i < n) {
+            int cp = s.codePointAt(i);
+            if (isWordChar(cp)) {
+                int start = i;
+                while (i < n && isWordChar(s.codePointAt(i))) i += Character.charCount(s.codePointAt(i));
+                tokens.add(s.substring(start, i));
+            } else if (isCjk(cp)) {
+                int start = i;
+                int prev = -1; // 上一个字的起始位置
+                int count = 0;
+                while (i < n && isCjk(s.codePointAt(i))) {
+                    if (prev >= 0) tokens.add(s.substring(prev, i + Character.charCount(s.codePointAt(i))));
+                    prev = i;
+                    count++;
+                    i += Character.charCount(s.codePointAt(i));
+                }
+                if (count == 1) tokens.add(s.substring(start, i));
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isWordChar(int cp) {
+        return (cp >= 'a' && cp <= 'z') || (cp >= '0' && cp <= '9');
+    }
+
+    private static boolean isCjk(int cp) {
+        if (Character.isIdeographic(cp)) return true;
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,99 @@
+package com.eugenezhu.voxforge.rag;
+
+import com.eugenezhu.voxforge.config.RagConfig;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: OfflineEmbedder
+ * @author: zhuyuchen
+ * @description: 纯 CPU 的离线向量, 不依赖模型文件与网络, 在 embedding 接口熔断或超时时使用.
+ *               文本经 NFKC 归一化并转小写后取字符 n-gram (中文按字, 两端加边界符) 与英文/数字单词作为特征,
+ *               特征先哈希到 2^hashBits 个桶 (feature hashing), 再乘以固定种子生成的稀疏随机投影矩阵降到 dimension 维:
+ *               每个桶对应投影矩阵的一行, 只有 nonZeros 个 ±1, 按需由种子计算, 不占内存; 最后 L2 归一化.
+ *               向量空间与线上 embedding 模型无关, 只能与同一实例计算的离线向量比较
+ * @date: 2026/10/23 下午2:00
+ */
+@Component
+@RequiredArgsConstructor
+public class OfflineEmbedder {
+
+    private static final char BOUNDARY = '\u0002';
+    private static final int NON_ZEROS = 4; // 投影矩阵每行的非零元素数
+
+    private final RagConfig.OfflineEmbeddingProperties properties;
+
+    public int dimension() {
+        return properties.getDimension();
+    }
+
+    /**
+     * @return 归一化的 dimension 维向量, 文本没有任何特征时为全零
+     */
+    public float[] embed(String text) {
+        float[] v = new float[properties.getDimension()];
+        if (text == null || text.isBlank()) return v;
+        String s = BOUNDARY + Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT).strip().replaceAll("\\s+", " ") + BOUNDARY;
+        for (int n = properties.getMinN(); n <= properties.getMaxN(); n++) {
+            float weight = n == 1 ? 0.5f : 1f; // 单字区分度低, 权重减半
+            for (int i = 0; i + n <= s.length(); i++) {
+                if (n == 1 && s.charAt(i) == BOUNDARY) continue;
+                if (s.lastIndexOf(' ', i + n - 1) >= i) continue; // 不跨越空白
+                add(v, hash(s, i, i + n, n), weight);
+            }
+        }
+        int start = -1;
+        for (int i = 0; i <= s.length(); i++) {
+            boolean word = i < s.length() && isWordChar(s.charAt(i));
+            if (word && start < 0) start = i;
+            if (!word && start >= 0) {
+                if (i - start > 1) add(v, hash(s, start, i, 0x57), 1f);
+                start = -1;
+            }
+        }
+        return VectorKernels.normalize(v);
+    }
+
+    /**
+     * 特征哈希到桶, 再按桶号与种子生成投影矩阵中该行的非零位置与符号, 累加到输出
+     */
+    private void add(float[] v, long featureHash, float weight) {
+        long bucket = featureHash & ((1L << properties.getHashBits()) - 1);
+        for (int j = 0; j < NON_ZEROS; j++) {
+            long r = mix(bucket * NON_ZEROS + j + properties.getSeed());
+            int index = (int) ((r >>> 1) % v.length);
+            v[index] += (r & 1) == 0 ? weight : -weight;
+        }
+    }
+
+    /**
+     * FNV-1a, 以 n-gram 长度作为初始扰动, 区分不同长度的相同字符
+     */
+    private static long hash(String s, int from, int to, int salt) {
+        long h = 0xcbf29ce484222325L ^ salt;
+        for (int i = from; i < to; i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * SplitMix64 混合函数
+     */
+    private static long mix(long z) {
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
+    }
+}
@@ -0,0 +1,109 @@
+package com.eugenezhu.voxforge.rag;
+
+import com.eugenezhu.voxforge.config.RagConfig;
+import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import com.eugenezhu.voxforge.repository.RagVectorRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: OfflineVectorIndex
+ * @author: zhuyuchen
+ * @description: 离线向量 (OfflineEmbedder) 的进程内 HNSW 索引, 按操作系统分区; 与命令库同步重建, 不依赖 pgvector 与 embedding 接口.
+ *               embedding 接口熔断或查询向量未能在截止时间内算出时, 由它代替向量检索一路;
+ *               结果的来源为 SOURCE_OFFLINE, 不带余弦相似度, 不会触发快速路径
+ * @date: 2026/10/23 下午2:30
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OfflineVectorIndex {
+
+    private final RagConfig.OfflineEmbeddingProperties properties;
+    private final RagConfig.HnswProperties hnswProperties;
+    private final OfflineEmbedder offlineEmbedder;
+
+    private volatile Map<String, HnswIndex<CommandTemplate>> partitions = new ConcurrentHashMap<>(); // 按操作系统
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong queryNanos = new AtomicLong();
+    private final AtomicLong embedNanos = new AtomicLong();
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 以给定模板重建索引, 新索引构建完成后整体替换, 构建期间查询使用旧索引
+     */
+    public void replaceAll(Collection<CommandTemplate> templates) {
+        if (!isEnabled()) return;
+        long start = System.nanoTime();
+        Map<String, HnswIndex<CommandTemplate>> next = new ConcurrentHashMap<>();
+        templates.forEach(t -> add(next, t));
+        partitions = next;
+        log.info("离线向量索引已重建: {} 条, 耗时 {}ms", templates.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * 检索指定操作系统下与文本最相似的命令
+     * @param os 操作系统
+     * @param shell 为空时不按 shell 过滤; 该 shell 没有匹配结果时同样不过滤
+     * @param text 查询文本
+     * @param k 返回数量
+     * @return 按离线向量相似度降序排列的结果
+     */
+    public List<ScoredCommand> search(String os, String shell, String text, int k) {
+        HnswIndex<CommandTemplate> partition = partitions.get(os);
+        if (!isEnabled() || partition == null) return List.of();
+        long start = System.nanoTime();
+        float[] query = offlineEmbedder.embed(text);
+        embedNanos.addAndGet(System.nanoTime() - start);
+        String normalized = ShellNames.normalize(shell);
+        int ef = Math.max(hnswProperties.getEfSearch(), k);
+        List<HnswIndex.Result<CommandTemplate>> results = partition.search(query, k, ef,
+                t -> normalized == null || normalized.equals(ShellNames.normalize(t.getShell())));
+        if (results.isEmpty() && normalized != null) results = partition.search(query, k, ef, t -> true);
+        List<ScoredCommand> hits = results.stream()
+                .map(r -> new ScoredCommand(r.value(), r.score(), ScoredCommand.SOURCE_OFFLINE))
+                .toList();
+        queries.incrementAndGet();
+        queryNanos.addAndGet(System.nanoTime() - start);
+        return hits;
+    }
+
+    private void add(Map<String, HnswIndex<CommandTemplate>> target, CommandTemplate template) {
+        target.computeIfAbsent(template.getOs(), os -> new HnswIndex<>(hnswProperties.getM(), hnswProperties.getEfConstruction()))
+                .add(RagVectorRepository.key(template), template, offlineEmbedder.embed(template.getCmd() + " " + template.getDesc()));
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long q = queries.get();
+        stats.put("size", partitions.values().stream().mapToInt(HnswIndex::size).sum());
+        stats.put("dimension", offlineEmbedder.dimension());
+        stats.put("queries", q);
+        stats.put("avgEmbedUs", q == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(embedNanos.get() / q));
+        stats.put("avgQueryUs", q == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(queryNanos.get() / q));
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (queries.get() == 0) return;
+        log.info("离线向量索引统计: {}", stats());
+    }
+}
@@ -0,0 +1,116 @@
+package com.eugenezhu.voxforge.rag;
+
+import com.eugenezhu.voxforge.config.RagConfig;
+import com.eugenezhu.voxforge.llm.LlmResponseCache;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: RetrievalCache
+ * @author: zhuyuchen
+ * @description: 检索结果缓存, 键为 (归一化文本, 操作系统, shell, k), 值为融合后的 top-k; 命中时跳过 embedding 与向量检索.
+ *               每个条目记录写入时命令库的版本号, 读取时版本号不一致即视为失效, 不设 TTL; LRU 淘汰
+ * @date: 2026/10/22 下午2:00
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RetrievalCache {
+
+    private final RagConfig.RetrievalCacheProperties properties;
+    private final CommandLibrary commandLibrary;
+
+    // accessOrder = true, 头部为最久未使用的条目
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong(); // 命令库版本变化导致的失效
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * 当前命令库版本, 检索开始前读取, 写入时随结果一起传回; 检索期间命令库发生变化时该结果写入后即失效
+     */
+    public long version() {
+        return commandLibrary.version();
+    }
+
+    /**
+     * @return 缓存的结果, 未命中或已失效时为 null
+     */
+    public List<ScoredCommand> get(String text, String os, String shell, int k) {
+        if (!properties.isEnabled()) return null;
+        String key = key(text, os, shell, k);
+        long current = version();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version == current) {
+                hits.incrementAndGet();
+                return entry.hits;
+            }
+            if (entry != null) {
+                entries.remove(key);
+                stale.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 写入缓存
+     * @param version 检索开始前读取的 version()
+     */
+    public void put(String text, String os, String shell, int k, long version, List<ScoredCommand> hits) {
+        if (!properties.isEnabled() || hits.isEmpty() || version != version()) return;
+        synchronized (entries) {
+            entries.put(key(text, os, shell, k), new Entry(version, List.copyOf(hits)));
+            Iterator<String> it = entries.keySet().iterator();
+            while (entries.size() > properties.getMaxEntries() && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long h = hits.get();
+        long total = h + misses.get();
+        stats.put("hits", h);
+        stats.put("misses", misses.get());
+        stats.put("hitRate", total == 0 ? "-" : String.format("%.3f", (double) h / total));
+        stats.put("stale", stale.get());
+        stats.put("evictions", evictions.get());
+        stats.put("libraryVersion", version());
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        return stats;
+    }
+
+    @Scheduled(fixedDelay = 300000) // 每 5 分钟输出一次
+    public void logStats() {
+        if (hits.get() + misses.get() == 0) return;
+        log.info("检索结果缓存统计: {}", stats());
+    }
+
+    private static String key(String text, String os, String shell, int k) {
+        return os + '\u0000' + (shell == null ? "" : shell) + '\u0000' + k + '\u0000' + LlmResponseCache.normalize(text);
+    }
+
+    private record Entry(long version, List<ScoredCommand> hits) {
+    }
+}
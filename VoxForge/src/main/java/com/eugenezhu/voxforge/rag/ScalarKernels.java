@@ -0,0 +1,88 @@
+package com.eugenezhu.voxforge.rag;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: ScalarKernels
+ * @author: zhuyuchen
+ * @description: float32 相似度计算的标量实现, Vector API 不可用时使用; 4 路累加打断浮点加法的依赖链
+ * @date: 2026/10/20 下午2:00
+ */
+public final class ScalarKernels {
+
+    private ScalarKernels() {
+    }
+
+    public static float dot(float[] a, float[] b) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) s0 += a[i] * b[i];
+        return s0 + s1 + s2 + s3;
+    }
+
+    /**
+     * float 与 int8 码的内积, 未乘以量化比例
+     */
+    public static float dot(float[] a, byte[] b) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) s0 += a[i] * b[i];
+        return s0 + s1 + s2 + s3;
+    }
+
+    /**
+     * 两个 int8 码的内积, 1024 维以内不会溢出
+     */
+    public static int dot(byte[] a, byte[] b) {
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) s0 += a[i] * b[i];
+        return s0 + s1 + s2 + s3;
+    }
+
+    public static float cosine(float[] a, float[] b) {
+        float dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        float denom = (float) (Math.sqrt(na) * Math.sqrt(nb));
+        return denom == 0 ? 0 : dot / denom;
+    }
+
+    public static float l2Squared(float[] a, float[] b) {
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < a.length; i += 4) {
+            float d0 = a[i] - b[i], d1 = a[i + 1] - b[i + 1], d2 = a[i + 2] - b[i + 2], d3 = a[i + 3] - b[i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < a.length; i++) {
+            float d = a[i] - b[i];
+            s0 += d * d;
+        }
+        return s0 + s1 + s2 + s3;
+    }
+}
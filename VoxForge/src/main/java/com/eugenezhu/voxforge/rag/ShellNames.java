@@ -0,0 +1,37 @@
+package com.eugenezhu.voxforge.rag;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: ShellNames
+ * @author: zhuyuchen
+ * @description: shell 名称归一化: 转小写, 去掉路径与 .exe 后缀, 同一 shell 的别名统一为一个名称 (如 pwsh → powershell),
+ *               客户端上报的 shell 与模板的 shell 按归一化后的名称比较
+ * @date: 2026/10/24 下午3:00
+ */
+public final class ShellNames {
+
+    private static final Map<String, String> ALIASES = Map.of(
+            "pwsh", "powershell",
+            "windows powershell", "powershell",
+            "powershell core", "powershell",
+            "command prompt", "cmd");
+
+    private ShellNames() {
+    }
+
+    /**
+     * @return 归一化的 shell 名称, 为空或空白时返回 null
+     */
+    public static String normalize(String shell) {
+        if (shell == null || shell.isBlank()) return null;
+        String s = shell.strip().toLowerCase(Locale.ROOT);
+        int slash = Math.max(s.lastIndexOf('/'), s.lastIndexOf('\\'));
+        if (slash >= 0) s = s.substring(slash + 1);
+        if (s.endsWith(".exe")) s = s.substring(0, s.length() - 4);
+        return ALIASES.getOrDefault(s, s);
+    }
+}
@@ -0,0 +1,153 @@
+package com.eugenezhu.voxforge.rag;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: VectorKernels
+ * @author: zhuyuchen
+ * @description: float32 相似度计算入口: 启动参数包含 --add-modules jdk.incubator.vector 且硬件支持 128 位以上向量时使用 SimdKernels,
+ *               否则使用 ScalarKernels; 可用 -Dvoxforge.simd.disabled=true 强制使用标量实现
+ * @date: 2026/10/20 下午2:00
+ */
+@Slf4j
+public final class VectorKernels {
+
+    private static final int MIN_LANES = 4;
+
+    /**
+     * static final, JIT 编译后分支被消除
+     */
+    private static final boolean SIMD = detect();
+    private static final boolean SIMD_INT8 = SIMD && SimdKernels.supportsInt8();
+
+    private VectorKernels() {
+    }
+
+    public static boolean isSimd() {
+        return SIMD;
+    }
+
+    /**
+     * 内积, 向量已归一化时即余弦相似度
+     */
+    public static float dot(float[] a, float[] b) {
+        return SIMD ? SimdKernels.dot(a, b) : ScalarKernels.dot(a, b);
+    }
+
+    /**
+     * float 与 int8 码的内积, 结果需乘以码的量化比例
+     */
+    public static float dot(float[] a, byte[] b) {
+        return SIMD_INT8 ? SimdKernels.dot(a, b) : ScalarKernels.dot(a, b);
+    }
+
+    /**
+     * 两个 int8 码的内积, 结果需乘以两者的量化比例
+     */
+    public static int dot(byte[] a, byte[] b) {
+        return SIMD_INT8 ? SimdKernels.dot(a, b) : ScalarKernels.dot(a, b);
+    }
+
+    public static float cosine(float[] a, float[] b) {
+        return SIMD ? SimdKernels.cosine(a, b) : ScalarKernels.cosine(a, b);
+    }
+
+    /**
+     * 欧氏距离的平方
+     */
+    public static float l2Squared(float[] a, float[] b) {
+        return SIMD ? SimdKernels.l2Squared(a, b) : ScalarKernels.l2Squared(a, b);
+    }
+
+    /**
+     * 归一化为单位向量, 返回新数组; 零向量原样复制
+     */
+    public static float[] normalize(float[] v) {
+        float norm = (float) Math.sqrt(dot(v, v));
+        float[] r = new float[v.length];
+        if (norm == 0) {
+            System.arraycopy(v, 0, r, 0, v.length);
+            return r;
+        }
+        for (int i = 0; i < v.length; i++) r[i] = v[i] / norm;
+        return r;
+    }
+
+    /**
+     * 嵌入接口返回的 double 向量归一化, 全程以 double 计算, 返回新数组; 零向量原样复制
+     */
+    public static double[] normalize(double[] v) {
+        double sum = 0;
+        for (double x : v) sum += x * x;
+        double norm = Math.sqrt(sum);
+        if (norm == 0) return v.clone();
+        double[] r = new double[v.length];
+        for (int i = 0; i < v.length; i++) r[i] = v[i] / norm;
+        return r;
+    }
+
+    /**
+     * 取前 dimension 维并重新归一化, 用于 Matryoshka 式嵌入的低维检索; dimension 不小于向量维度或不大于 0 时原样返回
+     */
+    public static float[] truncate(float[] v, int dimension) {
+        if (dimension <= 0 || dimension >= v.length) return v;
+        return normalize(Arrays.copyOf(v, dimension));
+    }
+
+    /**
+     * 嵌入接口返回的 double 向量转为 float32 存储
+     */
+    public static float[] toFloat(double[] v) {
+        float[] f = new float[v.length];
+        for (int i = 0; i < v.length; i++) f[i] = (float) v[i];
+        return f;
+    }
+
+    /**
+     * int8 对称量化的比例: 绝对值最大的分量映射为 127; 零向量为 0
+     */
+    public static float int8Scale(float[] v) {
+        float max = 0;
+        for (float x : v) max = Math.max(max, Math.abs(x));
+        return max / 127f;
+    }
+
+    /**
+     * 按比例量化为 int8 码, 分量 x 对应 round(x / scale)
+     */
+    public static byte[] quantize(float[] v, float scale) {
+        byte[] code = new byte[v.length];
+        if (scale == 0) return code;
+        for (int i = 0; i < v.length; i++) {
+            code[i] = (byte) Math.max(-127, Math.min(127, Math.round(v[i] / scale)));
+        }
+        return code;
+    }
+
+    private static boolean detect() {
+        if (Boolean.getBoolean("voxforge.simd.disabled")) {
+            log.info("相似度计算使用标量实现 (voxforge.simd.disabled)");
+            return false;
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            log.info("相似度计算使用标量实现, 启用 SIMD 需添加 JVM 参数 --add-modules jdk.incubator.vector");
+            return false;
+        }
+        try {
+            int lanes = SimdKernels.lanes();
+            if (lanes < MIN_LANES) {
+                log.info("相似度计算使用标量实现, 硬件向量宽度不足 ({} 个 float)", lanes);
+                return false;
+            }
+            log.info("相似度计算使用 Vector API, 每次处理 {} 个 float", lanes);
+            return true;
+        } catch (Throwable e) {
+            log.warn("Vector API 不可用, 相似度计算使用标量实现: {}", e.toString());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.eugenezhu.voxforge.ratelimit;
+
+import com.eugenezhu.voxforge.util.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.ratelimit
+ * @className: SingleFlight
+ * @author: zhuyuchen
+ * @description: 相同 key 的并发请求合并为一次上游调用, 所有调用方订阅同一个共享流;
+ *               单个调用方取消不影响其他调用方, 只有全部调用方都取消时才取消上游调用
+ * @date: 2026/10/17 下午4:21
+ */
+@Slf4j
+public class SingleFlight<K, V> {
+
+    private final String name;
+    private final ConcurrentHashMap<K, Flux<V>> inflight = new ConcurrentHashMap<>(); // 进行中的上游调用
+
+    private final AtomicLong leaders = new AtomicLong(); // 真正发起上游调用的次数
+    private final AtomicLong joins = new AtomicLong(); // 合并到已有调用的次数
+
+    public SingleFlight(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 合并执行单值调用
+     * @param key 请求指纹
+     * @param call 上游调用, 只有第一个调用方订阅时才会执行
+     * @return 共享结果
+     */
+    public Mono<V> execute(K key, Supplier<Mono<V>> call) {
+        return executeMany(key, () -> call.get().flux()).singleOrEmpty();
+    }
+
+    /**
+     * 合并执行多值调用, 后加入的调用方会收到已经下发的全部元素
+     * @param key 请求指纹
+     * @param call 上游调用, 只有第一个调用方订阅时才会执行
+     * @return 共享结果流
+     */
+    public Flux<V> executeMany(K key, Supplier<Flux<V>> call) {
+        return Flux.defer(() -> {
+            boolean[] leader = {false};
+            Flux<V> shared = inflight.computeIfAbsent(key, k -> {
+                leader[0] = true;
+                return share(k, call);
+            });
+            if (leader[0]) {
+                leaders.incrementAndGet();
+            } else {
+                joins.incrementAndGet();
+                log.debug("{} 合并进行中的请求: {}", name, key);
+            }
+            return shared;
+        });
+    }
+
+    private Flux<V> share(K key, Supplier<Flux<V>> call) {
+        AtomicReference<Flux<V>> self = new AtomicReference<>();
+        Flux<V> shared = Flux.defer(call)
+                // 完成, 失败或全部调用方取消后移除, 只移除自己, 避免误删后续的新调用
+                .doFinally(signalType -> inflight.remove(key, self.get()))
+                .replay()
+                .refCount();
+        self.set(shared);
+        return shared;
+    }
+
+    public long getLeaders() {
+        return leaders.get();
+    }
+
+    public long getJoins() {
+        return joins.get();
+    }
+
+    public int getInflight() {
+        return inflight.size();
+    }
+
+    /**
+     * 计算请求指纹, 见 Hashing.fingerprint
+     * @param parts 参与计算的字段
+     * @return 十六进制摘要
+     */
+    public static String fingerprint(Object... parts) {
+        return Hashing.fingerprint(parts);
+    }
+}
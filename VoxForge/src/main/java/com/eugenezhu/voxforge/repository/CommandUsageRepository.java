@@ -0,0 +1,68 @@
+package com.eugenezhu.voxforge.repository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.repository
+ * @className: CommandUsageRepository
+ * @author: zhuyuchen
+ * @description: 每个用户执行成功的命令次数, 表 user_command_usage, 主键 (user_id, cmd)
+ * @date: 2026/10/22 下午4:30
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class CommandUsageRepository {
+
+    private final DatabaseClient databaseClient;
+
+    public Mono<Void> initializeSchema() {
+        String createTable = "CREATE TABLE IF NOT EXISTS user_command_usage (" +
+                "user_id BIGINT NOT NULL, " +
+                "cmd TEXT NOT NULL, " +
+                "count BIGINT NOT NULL, " +
+                "last_used_at TIMESTAMP NOT NULL DEFAULT now(), " +
+                "PRIMARY KEY (user_id, cmd))";
+        return databaseClient.sql(createTable).fetch().rowsUpdated().then();
+    }
+
+    /**
+     * 批量累加, 一条 INSERT ... SELECT FROM unnest 语句写入整批
+     * @param userIds 用户ID
+     * @param cmds 与 userIds 一一对应的命令, 同一批内 (user_id, cmd) 不得重复
+     * @param counts 与 userIds 一一对应的增量
+     */
+    public Mono<Void> incrementAll(List<Long> userIds, List<String> cmds, List<Long> counts) {
+        if (userIds.isEmpty()) return Mono.empty();
+        String sql = "INSERT INTO user_command_usage (user_id, cmd, count, last_used_at) " +
+                "SELECT u, c, n, now() FROM unnest(CAST(:userIds AS bigint[]), CAST(:cmds AS text[]), CAST(:counts AS bigint[])) AS t(u, c, n) " +
+                "ON CONFLICT (user_id, cmd) DO UPDATE SET count = user_command_usage.count + EXCLUDED.count, last_used_at = EXCLUDED.last_used_at";
+        return databaseClient.sql(sql)
+                .bind("userIds", userIds.toArray(Long[]::new))
+                .bind("cmds", cmds.toArray(String[]::new))
+                .bind("counts", counts.toArray(Long[]::new))
+                .fetch().rowsUpdated().then();
+    }
+
+    /**
+     * 读取用户最常用的命令
+     * @return 按次数降序排列的 (命令, 次数)
+     */
+    public Flux<Map.Entry<String, Long>> findTop(Long userId, int limit) {
+        String sql = "SELECT cmd, count FROM user_command_usage WHERE user_id = :userId ORDER BY count DESC LIMIT :limit";
+        return databaseClient.sql(sql)
+                .bind("userId", userId)
+                .bind("limit", limit)
+                .map((row, meta) -> Map.entry(row.get("cmd", String.class), row.get("count", Long.class)))
+                .all();
+    }
+}
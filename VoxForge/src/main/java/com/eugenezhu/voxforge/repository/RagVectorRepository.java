@@ -1,12 +1,22 @@
 package com.eugenezhu.voxforge.repository;
 
+import com.eugenezhu.voxforge.model.CommandEmbedding;
+import com.eugenezhu.voxforge.model.CommandRecord;
 import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import com.eugenezhu.voxforge.rag.VectorKernels;
+import io.r2dbc.postgresql.codec.Vector;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.stereotype.Repository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
 /**
  * @projectName: VoxForge
  * @package: com.eugenezhu.voxforge.repository
@@ -15,12 +25,16 @@ import reactor.core.publisher.Mono;
  * @description: TODO
  * @date: 2025/11/17 下午9:31
  */
+@Slf4j
 @Repository
 @RequiredArgsConstructor
 public class RagVectorRepository {
 
     private final DatabaseClient databaseClient;
 
+    // 连接上是否注册了 pgvector 二进制编解码器, 建表后探测一次; 探测前与不支持时向量以文本字面量收发
+    private volatile boolean vectorCodec = false;
+
     public Mono<Void> initializeSchema(int dimension) {
         String createExt = "CREATE EXTENSION IF NOT EXISTS vector";
         String createTable = "CREATE TABLE IF NOT EXISTS kb_commands (" +
@@ -29,7 +43,14 @@ public class RagVectorRepository {
                 "description TEXT NOT NULL, " +
                 "os TEXT NOT NULL, " +
                 "shell TEXT NOT NULL, " +
-                "embedding VECTOR(" + dimension + ") NOT NULL)";
+                "embedding VECTOR(" + dimension + "), " +
+                "content_hash TEXT, " +
+                "source TEXT NOT NULL DEFAULT '" + CommandRecord.SOURCE_DB + "')";
+        // 旧表升级: 已有的行都来自内置命令库; 之后直接插入的行默认为数据库维护, 可以不带向量
+        String addHash = "ALTER TABLE kb_commands ADD COLUMN IF NOT EXISTS content_hash TEXT";
+        String addSource = "ALTER TABLE kb_commands ADD COLUMN IF NOT EXISTS source TEXT NOT NULL DEFAULT '" + CommandRecord.SOURCE_LIBRARY + "'";
+        String sourceDefault = "ALTER TABLE kb_commands ALTER COLUMN source SET DEFAULT '" + CommandRecord.SOURCE_DB + "'";
+        String embeddingNullable = "ALTER TABLE kb_commands ALTER COLUMN embedding DROP NOT NULL";
         String uniqueIdx = "CREATE UNIQUE INDEX IF NOT EXISTS kb_commands_unique ON kb_commands (cmd, os, shell)";
         String hnswIdx = "CREATE INDEX IF NOT EXISTS idx_kb_commands_embedding_hnsw ON kb_commands USING hnsw (embedding vector_cosine_ops)";
         String osIdx = "CREATE INDEX IF NOT EXISTS idx_kb_commands_os ON kb_commands (os)";
@@ -45,55 +66,206 @@ public class RagVectorRepository {
                                 .flatMap(y -> databaseClient.sql(createTable).fetch().rowsUpdated())
                         )
                 )
+                .flatMap(x -> databaseClient.sql(addHash).fetch().rowsUpdated())
+                .flatMap(x -> databaseClient.sql(addSource).fetch().rowsUpdated())
+                .flatMap(x -> databaseClient.sql(sourceDefault).fetch().rowsUpdated())
+                .flatMap(x -> databaseClient.sql(embeddingNullable).fetch().rowsUpdated())
                 .flatMap(x -> databaseClient.sql(uniqueIdx).fetch().rowsUpdated())
                 .flatMap(x -> databaseClient.sql(hnswIdx).fetch().rowsUpdated())
                 .flatMap(x -> databaseClient.sql(osIdx).fetch().rowsUpdated())
+                .then(probeVectorCodec())
                 .then();
     }
 
-    public Mono<Void> upsert(CommandTemplate t, double[] embedding) {
-        String emb = toVectorLiteral(embedding);
-        String sql = "INSERT INTO kb_commands (cmd, description, os, shell, embedding) " +
-                "VALUES (:cmd, :desc, :os, :shell, CAST(:emb AS vector)) " +
-                "ON CONFLICT (cmd, os, shell) DO UPDATE SET description = EXCLUDED.description, embedding = EXCLUDED.embedding";
+    /**
+     * 探测驱动是否能以 Vector 读取 vector 列 (r2dbc-postgresql 1.0.5 起内置 VectorCodec/VectorArrayCodec,
+     * 在建立连接时按 vector 类型是否存在注册), 结果保存后决定之后的读写格式, 不再按每次的错误信息判断
+     * @return 是否支持二进制编解码器
+     */
+    public Mono<Boolean> probeVectorCodec() {
+        return databaseClient.sql("SELECT CAST('[0]' AS vector) AS v")
+                .map((row, meta) -> row.get("v", Vector.class))
+                .first()
+                .map(v -> true)
+                .onErrorResume(e -> {
+                    log.debug("探测 vector 编解码器失败: {}", e.getMessage());
+                    return Mono.just(false);
+                })
+                .defaultIfEmpty(false)
+                .doOnNext(supported -> {
+                    vectorCodec = supported;
+                    log.info("pgvector 向量格式: {}", supported ? "二进制编解码器" : "文本字面量");
+                });
+    }
+
+    /**
+     * 探测 kb_commands 是否可查询
+     */
+    public Mono<Void> ping() {
+        return databaseClient.sql("SELECT 1 FROM kb_commands LIMIT 1").fetch().rowsUpdated().then();
+    }
+
+    /**
+     * 批量写入, 一条 INSERT ... SELECT FROM unnest 语句写入整批, SQL 文本固定以复用预编译语句
+     * @param templates 命令模板, 同一批内 (cmd, os, shell) 不得重复
+     * @param embeddings 与 templates 一一对应的向量
+     * @param hashes 与 templates 一一对应的内容哈希
+     * @param sources 与 templates 一一对应的来源, 见 {@link CommandRecord}
+     */
+    public Mono<Void> upsertAll(List<CommandTemplate> templates, List<double[]> embeddings, List<String> hashes, List<String> sources) {
+        if (templates.isEmpty()) return Mono.empty();
+        int n = templates.size();
+        String[] cmds = new String[n], descs = new String[n], oses = new String[n], shells = new String[n];
+        Vector[] embs = vectorCodec ? new Vector[n] : null;
+        for (int i = 0; i < n; i++) {
+            CommandTemplate t = templates.get(i);
+            cmds[i] = t.getCmd();
+            descs[i] = t.getDesc();
+            oses[i] = t.getOs();
+            shells[i] = t.getShell();
+            if (embs != null) embs[i] = toVector(embeddings.get(i));
+        }
+        String[] hashArray = hashes.toArray(String[]::new);
+        String[] sourceArray = sources.toArray(String[]::new);
+        // text[] 到 vector[] 的转换逐元素解析文本, 未注册编解码器时也能使用同一条 SQL
+        Object values = vectorCodec ? embs : embeddings.stream().map(RagVectorRepository::toVectorLiteral).toArray(String[]::new);
+        String sql = "INSERT INTO kb_commands (cmd, description, os, shell, embedding, content_hash, source) " +
+                "SELECT c, d, o, s, e, h, src FROM unnest(CAST(:cmds AS text[]), CAST(:descs AS text[]), " +
+                "CAST(:oses AS text[]), CAST(:shells AS text[]), CAST(:embs AS vector[]), " +
+                "CAST(:hashes AS text[]), CAST(:sources AS text[])) AS t(c, d, o, s, e, h, src) " +
+                "ON CONFLICT (cmd, os, shell) DO UPDATE SET description = EXCLUDED.description, embedding = EXCLUDED.embedding, " +
+                "content_hash = EXCLUDED.content_hash, source = EXCLUDED.source";
         return databaseClient.sql(sql)
-                .bind("cmd", t.getCmd())
-                .bind("desc", t.getDesc())
-                .bind("os", t.getOs())
-                .bind("shell", t.getShell())
-                .bind("emb", emb)
+                .bind("cmds", cmds)
+                .bind("descs", descs)
+                .bind("oses", oses)
+                .bind("shells", shells)
+                .bind("embs", values)
+                .bind("hashes", hashArray)
+                .bind("sources", sourceArray)
                 .fetch().rowsUpdated().then();
     }
 
-    public Mono<Boolean> exists(String cmd, String os, String shell) {
-        String sql = "SELECT 1 FROM kb_commands WHERE cmd = :cmd AND os = :os AND shell = :shell LIMIT 1";
+    /**
+     * 读取全部行的来源与内容哈希, 不读取向量
+     */
+    public Flux<CommandRecord> findAllRecords() {
+        String sql = "SELECT cmd, description, os, shell, source, content_hash, embedding IS NOT NULL AS embedded FROM kb_commands";
         return databaseClient.sql(sql)
-                .bind("cmd", cmd)
-                .bind("os", os)
-                .bind("shell", shell)
-                .map((row, meta) -> 1)
-                .first()
-                .map(v -> true)
-                .defaultIfEmpty(false);
+                .map((row, meta) -> new CommandRecord(
+                        template(row),
+                        row.get("source", String.class),
+                        row.get("content_hash", String.class),
+                        Boolean.TRUE.equals(row.get("embedded", Boolean.class))
+                ))
+                .all();
     }
 
-    public Flux<CommandTemplate> search(String os, double[] query, int k) {
-        String emb = toVectorLiteral(query);
-        String sql = "SELECT cmd, description, os, shell FROM kb_commands WHERE os = :os ORDER BY embedding <-> CAST(:emb AS vector) LIMIT :limit";
+    /**
+     * 批量删除, 一条 DELETE ... USING unnest 语句删除整批
+     */
+    public Mono<Void> deleteAll(List<CommandTemplate> templates) {
+        if (templates.isEmpty()) return Mono.empty();
+        String sql = "DELETE FROM kb_commands k USING unnest(CAST(:cmds AS text[]), CAST(:oses AS text[]), CAST(:shells AS text[])) AS t(c, o, s) " +
+                "WHERE k.cmd = t.c AND k.os = t.o AND k.shell = t.s";
         return databaseClient.sql(sql)
-                .bind("os", os)
-                .bind("emb", emb)
-                .bind("limit", k)
-                .map((row, meta) -> new CommandTemplate(
-                        row.get("cmd", String.class),
-                        row.get("description", String.class),
-                        row.get("os", String.class),
-                        row.get("shell", String.class)
-                ))
+                .bind("cmds", templates.stream().map(CommandTemplate::getCmd).toArray(String[]::new))
+                .bind("oses", templates.stream().map(CommandTemplate::getOs).toArray(String[]::new))
+                .bind("shells", templates.stream().map(CommandTemplate::getShell).toArray(String[]::new))
+                .fetch().rowsUpdated().then();
+    }
+
+    public static String key(CommandTemplate t) {
+        return t.getCmd() + '\u0000' + t.getOs() + '\u0000' + t.getShell();
+    }
+
+    /**
+     * 读取全部命令模板及向量, 用于构建进程内索引; 不支持 vector 编解码器时读取文本格式
+     */
+    public Flux<CommandEmbedding> findAllEmbeddings() {
+        if (!vectorCodec) {
+            String textSql = "SELECT cmd, description, os, shell, embedding::text AS embedding FROM kb_commands WHERE embedding IS NOT NULL";
+            return databaseClient.sql(textSql)
+                    .map((row, meta) -> new CommandEmbedding(template(row), parseVector(row.get("embedding", String.class))))
+                    .all();
+        }
+        String sql = "SELECT cmd, description, os, shell, embedding FROM kb_commands WHERE embedding IS NOT NULL";
+        return databaseClient.sql(sql)
+                .map((row, meta) -> new CommandEmbedding(template(row), row.get("embedding", Vector.class).getVector()))
                 .all();
     }
 
-    private String toVectorLiteral(double[] v) {
+    /**
+     * 按余弦距离检索, 同时返回相似度分数; 使用 <=> 以命中 vector_cosine_ops 的 HNSW 索引
+     * @param os 操作系统
+     * @param query 归一化后的查询向量
+     * @param k 返回数量
+     * @return 按相似度降序排列的结果
+     */
+    public Flux<ScoredCommand> searchScored(String os, double[] query, int k) {
+        return searchScored(os, null, query, k);
+    }
+
+    /**
+     * 按余弦距离检索, 可限定 shell
+     * @param shells 允许的 shell 取值 (原始写法), 为空时不按 shell 过滤
+     */
+    public Flux<ScoredCommand> searchScored(String os, List<String> shells, double[] query, int k) {
+        String shellFilter = shells == null ? "" : "AND shell = ANY(CAST(:shells AS text[])) ";
+        String sql = "SELECT cmd, description, os, shell, 1 - (embedding <=> CAST(:emb AS vector)) AS score " +
+                "FROM kb_commands WHERE os = :os " + shellFilter + "AND embedding IS NOT NULL ORDER BY embedding <=> CAST(:emb AS vector) LIMIT :limit";
+        return bindVector(query, emb -> {
+            DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql)
+                    .bind("os", os)
+                    .bind("emb", emb)
+                    .bind("limit", k);
+            if (shells != null) spec = spec.bind("shells", shells.toArray(String[]::new));
+            return spec.map((row, meta) -> new ScoredCommand(
+                            template(row),
+                            Optional.ofNullable(row.get("score", Double.class)).orElse(0d),
+                            ScoredCommand.SOURCE_VECTOR
+                    ))
+                    .all();
+        });
+    }
+
+    /**
+     * 支持时以驱动内置的 pgvector 二进制编解码器发送向量 (每维 4 字节 float32), 否则发送约 20 字节每维的文本字面量;
+     * 格式由 probeVectorCodec 的结果决定, SQL 中的 CAST 对两者都适用
+     * @param v 向量
+     * @param query 以绑定值执行的查询
+     */
+    private <T> Flux<T> bindVector(double[] v, Function<Object, Flux<T>> query) {
+        return query.apply(vectorCodec ? toVector(v) : toVectorLiteral(v));
+    }
+
+    private static CommandTemplate template(io.r2dbc.spi.Readable row) {
+        return new CommandTemplate(
+                row.get("cmd", String.class),
+                row.get("description", String.class),
+                row.get("os", String.class),
+                row.get("shell", String.class)
+        );
+    }
+
+    private static Vector toVector(double[] v) {
+        return Vector.of(VectorKernels.toFloat(v));
+    }
+
+    /**
+     * 解析 pgvector 文本格式 [x1,x2,...]
+     */
+    private float[] parseVector(String literal) {
+        if (literal == null || literal.length() < 2) return new float[0];
+        String body = literal.substring(1, literal.length() - 1);
+        if (body.isEmpty()) return new float[0];
+        String[] parts = body.split(",");
+        float[] v = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) v[i] = Float.parseFloat(parts[i]);
+        return v;
+    }
+
+    public static String toVectorLiteral(double[] v) {
         StringBuilder sb = new StringBuilder();
         sb.append('[');
         for (int i = 0; i < v.length; i++) {
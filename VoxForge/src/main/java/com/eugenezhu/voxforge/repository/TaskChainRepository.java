@@ -66,6 +66,22 @@ public interface TaskChainRepository extends R2dbcRepository<TaskChain, Long> {
     @Query("UPDATE task_chains SET status = :status, updated_at = CURRENT_TIMESTAMP WHERE id = :id")
     Mono<Integer> updateStatus(@Param("id") Long id, @Param("status") String status);
 
+    /**
+     * 添加流式生成标记列, 启动时执行, 列已存在时不变
+     * @return
+     */
+    @Query("ALTER TABLE task_chains ADD COLUMN IF NOT EXISTS generating BOOLEAN NOT NULL DEFAULT FALSE")
+    Mono<Integer> addGeneratingColumn();
+
+    /**
+     * 更新任务链流式生成标记, 只修改该列, 不覆盖并发写入的状态
+     * @param id
+     * @param generating
+     * @return
+     */
+    @Query("UPDATE task_chains SET generating = :generating, updated_at = CURRENT_TIMESTAMP WHERE id = :id")
+    Mono<Integer> updateGenerating(@Param("id") Long id, @Param("generating") Boolean generating);
+
     /**
      * 更新任务链当前执行任务索引
      * @param id
@@ -3,6 +3,7 @@ package com.eugenezhu.voxforge.service;
 import com.eugenezhu.voxforge.config.AsrTtsConfig;
 import com.eugenezhu.voxforge.model.AsrRequest;
 import com.eugenezhu.voxforge.model.AsrResponse;
+import com.eugenezhu.voxforge.ratelimit.SingleFlight;
 import io.github.resilience4j.bulkhead.Bulkhead;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
 import io.github.resilience4j.ratelimiter.RateLimiter;
@@ -46,6 +47,8 @@ public class AsrService {
 
     private final ResilienceTuner resilienceTuner;
 
+    private final SingleFlight<String, String> asrFlight = new SingleFlight<>("asr");
+
     /**
      * 调用qiniu asr api, 将语音流转换为文本流
      * @param audioUrl 语音流url
@@ -61,6 +64,11 @@ public class AsrService {
             return Mono.error(new IllegalArgumentException("音频URL不能为空"));
         }
 
+        // 客户端重试或多人同时上传同一音频时, 只调用一次上游
+        return asrFlight.execute(SingleFlight.fingerprint(audioUrl, audioFormat), () -> requestSpeechToText(audioUrl, audioFormat));
+    }
+
+    private Mono<String> requestSpeechToText(String audioUrl, String audioFormat) {
         AsrRequest request = new AsrRequest(audioUrl, audioFormat); // 创建asr请求对象
         
         // 添加调试日志
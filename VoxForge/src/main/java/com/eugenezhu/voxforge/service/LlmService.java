@@ -1,28 +1,49 @@
 package com.eugenezhu.voxforge.service;
 
 import com.eugenezhu.voxforge.config.AiConfig;
+import com.eugenezhu.voxforge.llm.ConversationMemory;
+import com.eugenezhu.voxforge.llm.FastPathRouter;
+import com.eugenezhu.voxforge.llm.HedgingPolicy;
+import com.eugenezhu.voxforge.llm.LlmResponseCache;
+import com.eugenezhu.voxforge.llm.LlmResponseDecoder;
+import com.eugenezhu.voxforge.llm.PromptCompiler;
+import com.eugenezhu.voxforge.llm.TaskStreamParser;
 import com.eugenezhu.voxforge.model.CommandTemplate;
 import com.eugenezhu.voxforge.model.LlmRequest;
 import com.eugenezhu.voxforge.model.LlmResponse;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import com.eugenezhu.voxforge.ratelimit.SingleFlight;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.github.resilience4j.bulkhead.Bulkhead;
 import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import io.github.resilience4j.ratelimiter.RateLimiter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @projectName: VoxForge
@@ -50,71 +71,429 @@ public class LlmService {
     @Qualifier("llmCircuitBreaker")
     private final CircuitBreaker llmCircuitBreaker;
 
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+
     private final ResilienceTuner resilienceTuner;
     private final RagService ragService;
-
-    public Mono<LlmResponse> parseUserInput(String text, Map<String, Object> clientEnv) {
+    private final LlmResponseCache llmResponseCache;
+    private final HedgingPolicy hedgingPolicy;
+    private final PromptCompiler promptCompiler;
+    private final FastPathRouter fastPathRouter;
+    private final ConversationMemory conversationMemory;
+
+    // 没有备份模型时的重试策略; 有备份模型时由对冲兜底, 不再重试
+    private static final Retry COMPLETION_RETRY = Retry.backoff(5, Duration.ofSeconds(3))
+            .maxBackoff(Duration.ofSeconds(10))
+            .filter(throwable -> !(throwable instanceof IllegalArgumentException));
+
+    private final SingleFlight<String, LlmResponse> completionFlight = new SingleFlight<>("llm");
+    private final SingleFlight<String, LlmResponse> completionStreamFlight = new SingleFlight<>("llm-stream");
+
+    /**
+     * 解析用户输入生成任务链
+     * @param text 用户输入文本
+     * @param clientEnv 客户端环境信息
+     * @param sessionId 会话ID, 用于读写会话记忆, 可为空
+     * @param userId 用户ID, 按其命令使用次数重排检索结果, 可为空
+     * @return 解析结果
+     */
+    public Mono<LlmResponse> parseUserInput(String text, Map<String, Object> clientEnv, Long sessionId, Long userId) {
         log.info("正在解析用户输入：{}", text);
+        long startTime = System.nanoTime();
+        boolean cacheable = llmResponseCache.isEnabled();
 
-        return ragService.retrieve(text, clientEnv, 5)
-                .defaultIfEmpty(List.of())
-                .flatMap(candidates -> {
-                    String prompt = buildStartPromptRag(clientEnv, candidates);
-                    LlmRequest request = new LlmRequest(prompt, text, llmProperties.getModel());
+        return resolveUserInput(text, clientEnv, sessionId, userId, cacheable, startTime)
+                .doOnNext(response -> conversationMemory.record(sessionId, text, response));
+    }
 
-                    long startTime = System.nanoTime();
+    private Mono<LlmResponse> resolveUserInput(String text, Map<String, Object> clientEnv, Long sessionId, Long userId, boolean cacheable, long startTime) {
+        if (!cacheable) {
+            return ragService.retrieveScored(text, clientEnv, 5, userId)
+                    .defaultIfEmpty(List.of())
+                    .flatMap(hits -> routeOrComplete(text, clientEnv, sessionId, hits, startTime));
+        }
 
-                    if (!llmCircuitBreaker.tryAcquirePermission()) {
-                        resilienceTuner.recordRejection("llm");
-                        return Mono.error(new RuntimeException("llmCircuitBreaker 拒绝请求"));
-                    }
+        // 一级缓存: 归一化文本 + 环境指纹 + 上下文指纹精确匹配, 命中时不经过熔断/舱壁/限流
+        String context = cacheContext(sessionId, userId);
+        LlmResponse cached = llmResponseCache.getExact(text, clientEnv, context);
+        if (cached != null) {
+            log.info("命中llm缓存(精确匹配)：{}", text);
+            return Mono.just(cached);
+        }
 
-                    if (!llmBulkhead.tryAcquirePermission()) {
-                        resilienceTuner.recordRejection("llm");
-                        return Mono.error(new RuntimeException("llmBulkhead 拒绝请求"));
-                    }
+        // 检索结果缓存命中时不计算查询向量, 结果只写入精确匹配层
+        List<ScoredCommand> retrieved = ragService.cachedRetrieval(text, clientEnv, 5, userId);
+        if (retrieved != null) {
+            return routeOrComplete(text, clientEnv, sessionId, retrieved, startTime)
+                    .doOnNext(response -> llmResponseCache.put(text, clientEnv, context, null, response));
+        }
 
-                    if (!llmRateLimiter.acquirePermission()) {
-                        resilienceTuner.recordRejection("llm");
-                        return Mono.error(new RuntimeException("llmRateLimiter 拒绝请求"));
+        return embedQuery(text)
+                .flatMap(vector -> {
+                    double[] query = vector.length > 0 ? vector : null;
+                    // 二级缓存: 查询向量近邻匹配
+                    LlmResponse similar = llmResponseCache.getSimilar(query, clientEnv, context);
+                    if (similar != null) {
+                        log.info("命中llm缓存(语义匹配)：{}", text);
+                        return Mono.just(similar);
                     }
+                    return ragService.retrieveScored(text, clientEnv, 5, query, userId)
+                            .defaultIfEmpty(List.of())
+                            .flatMap(hits -> routeOrComplete(text, clientEnv, sessionId, hits, startTime))
+                            .doOnNext(response -> llmResponseCache.put(text, clientEnv, context, query, response));
+                });
+    }
 
-                    resilienceTuner.recordCall("llm");
+    /**
+     * 以 SSE 流式方式解析用户输入, tasks 中每个任务对象闭合后立即下发
+     * @param text 用户输入文本
+     * @param clientEnv 客户端环境信息
+     * @param sessionId 会话ID, 用于读写会话记忆, 可为空
+     * @param userId 用户ID, 按其命令使用次数重排检索结果, 可为空
+     * @return 增量响应流, 每个元素只包含一个新任务; 没有任务时只下发一个仅含 reply 的响应;
+     *         下发任务之前出错时下发一个错误响应, 之后出错时以错误结束
+     */
+    public Flux<LlmResponse> streamUserInput(String text, Map<String, Object> clientEnv, Long sessionId, Long userId) {
+        log.info("正在流式解析用户输入：{}", text);
+        long startTime = System.nanoTime();
+        boolean cacheable = llmResponseCache.isEnabled();
+
+        return remember(sessionId, text, resolveUserInputStream(text, clientEnv, sessionId, userId, cacheable, startTime));
+    }
+
+    private Flux<LlmResponse> resolveUserInputStream(String text, Map<String, Object> clientEnv, Long sessionId, Long userId, boolean cacheable, long startTime) {
+        if (!cacheable) {
+            return Flux.defer(() -> {
+                AtomicBoolean emitted = new AtomicBoolean(false);
+                return ragService.retrieveScored(text, clientEnv, 5, userId)
+                        .defaultIfEmpty(List.of())
+                        .flatMapMany(hits -> routeOrCompleteStream(text, clientEnv, sessionId, hits, startTime))
+                        .doOnNext(fragment -> emitted.set(true))
+                        .onErrorResume(error -> interrupted(error, emitted.get()));
+            });
+        }
+
+        String context = cacheContext(sessionId, userId);
+        LlmResponse cached = llmResponseCache.getExact(text, clientEnv, context);
+        if (cached != null) {
+            log.info("命中llm缓存(精确匹配)：{}", text);
+            return Flux.fromIterable(toFragments(cached));
+        }
+
+        // 检索结果缓存命中时不计算查询向量, 按无查询向量处理, retrieveScored 直接返回缓存结果
+        List<ScoredCommand> retrieved = ragService.cachedRetrieval(text, clientEnv, 5, userId);
+        return (retrieved != null ? Mono.just(new double[0]) : embedQuery(text))
+                .flatMapMany(vector -> {
+                    double[] query = vector.length > 0 ? vector : null;
+                    LlmResponse similar = llmResponseCache.getSimilar(query, clientEnv, context);
+                    if (similar != null) {
+                        log.info("命中llm缓存(语义匹配)：{}", text);
+                        return Flux.fromIterable(toFragments(similar));
+                    }
 
-                    return llmWebClient
-                            .post()
-                            .uri("/chat/completions")
-                            .header("Authorization", "Bearer " + llmProperties.getApiKey())
-                            .contentType(MediaType.APPLICATION_JSON)
-                            .body(BodyInserters.fromValue(request))
-                            .retrieve()
-                            .bodyToMono(String.class)
-                            .map(this::parseLlmResponse)
-                            .retryWhen(
-                                    Retry.backoff(5, Duration.ofSeconds(3))
-                                            .maxBackoff(Duration.ofSeconds(10))
-                                            .filter(throwable -> !(throwable instanceof IllegalArgumentException))
-                            )
-                            .doOnSuccess(response -> {
-                                llmCircuitBreaker.onSuccess(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
-                                int taskCount = response.getTasks() != null ? response.getTasks().size() : 0;
-                                log.info("成功解析用户输入, 生成 {} 个任务", taskCount);
+                    List<LlmResponse.TaskDefinition> tasks = new ArrayList<>();
+                    AtomicReference<String> reply = new AtomicReference<>();
+                    return ragService.retrieveScored(text, clientEnv, 5, query, userId)
+                            .defaultIfEmpty(List.of())
+                            .flatMapMany(hits -> routeOrCompleteStream(text, clientEnv, sessionId, hits, startTime))
+                            .doOnNext(fragment -> {
+                                reply.compareAndSet(null, fragment.getReply());
+                                tasks.addAll(fragment.getTasks());
                             })
-                            .doOnError(error -> {
-                                llmCircuitBreaker.onError(System.nanoTime() - startTime, TimeUnit.NANOSECONDS, error);
-                                log.error("解析用户输入失败：{}", error.getMessage(), error);
+                            // 只缓存完整生成的任务链
+                            .doOnComplete(() -> {
+                                LlmResponse response = new LlmResponse();
+                                response.setReply(reply.get());
+                                response.setTasks(List.copyOf(tasks));
+                                llmResponseCache.put(text, clientEnv, context, query, response);
                             })
-                            .doFinally(signalType -> llmBulkhead.releasePermission())
-                            .onErrorReturn(createErrorResponse("LLM 服务暂时不可用，请稍后重试"));
+                            .onErrorResume(error -> interrupted(error, !tasks.isEmpty()));
                 });
     }
 
-    public Mono<String> generateNextStep(String taskTitle, String feedback, java.util.Map<String, Object> clientEnv) {
-        log.info("生成下一步指示，任务: {}, 反馈: {}", taskTitle, feedback);
+    /**
+     * 流式解析出错: 尚未下发任务时返回错误响应; 已经下发过任务时继续向下游传播错误,
+     * 不完整的任务链不写入解析缓存与会话记忆, 由调用方将已落库的任务链标记为失败
+     */
+    private Flux<LlmResponse> interrupted(Throwable error, boolean emitted) {
+        return emitted ? Flux.error(error) : Flux.just(createErrorResponse("LLM 服务暂时不可用，请稍后重试"));
+    }
+
+    /**
+     * 检索置信度足够高时直接由命令模板构造任务链, 否则调用 llm
+     * @param hits 带分数的检索结果
+     * @param startTime 请求开始时间, 用于统计两条路径的延迟
+     */
+    private Mono<LlmResponse> routeOrComplete(String text, Map<String, Object> clientEnv, Long sessionId, List<ScoredCommand> hits, long startTime) {
+        LlmResponse fast = fastPathRouter.route(text, clientEnv, hits);
+        if (fast != null) {
+            fastPathRouter.recordFastPath(System.nanoTime() - startTime);
+            return Mono.just(fast);
+        }
+        return coalescedCompletion(text, clientEnv, sessionId, RagService.templates(hits))
+                .doOnSuccess(response -> fastPathRouter.recordLlmPath(System.nanoTime() - startTime));
+    }
+
+    private Flux<LlmResponse> routeOrCompleteStream(String text, Map<String, Object> clientEnv, Long sessionId, List<ScoredCommand> hits, long startTime) {
+        LlmResponse fast = fastPathRouter.route(text, clientEnv, hits);
+        if (fast != null) {
+            fastPathRouter.recordFastPath(System.nanoTime() - startTime);
+            return Flux.fromIterable(toFragments(fast));
+        }
+        return coalescedCompletionStream(text, clientEnv, sessionId, RagService.templates(hits))
+                .doOnComplete(() -> fastPathRouter.recordLlmPath(System.nanoTime() - startTime));
+    }
+
+    /**
+     * 解析结果缓存的上下文指纹: 会话记忆 (有对话历史时输入可能依赖上下文, 如 "再打开一个")
+     * + 命令使用先验 (检索结果按用户重排时解析结果因人而异)
+     */
+    private String cacheContext(Long sessionId, Long userId) {
+        return conversationMemory.fingerprint(sessionId) + '|' + ragService.personalization(userId);
+    }
+
+    /**
+     * 流式结果完整下发后记入会话记忆, 中途出错的结果不记录
+     */
+    private Flux<LlmResponse> remember(Long sessionId, String text, Flux<LlmResponse> fragments) {
+        if (!conversationMemory.isEnabled() || sessionId == null) return fragments;
+        return Flux.defer(() -> {
+            List<LlmResponse.TaskDefinition> tasks = new ArrayList<>();
+            AtomicReference<String> reply = new AtomicReference<>();
+            return fragments
+                    .doOnNext(fragment -> {
+                        if (fragment.getReply() != null) reply.compareAndSet(null, fragment.getReply());
+                        if (fragment.getTasks() != null) tasks.addAll(fragment.getTasks());
+                    })
+                    .doOnComplete(() -> {
+                        LlmResponse response = new LlmResponse();
+                        response.setReply(reply.get());
+                        response.setTasks(List.copyOf(tasks));
+                        conversationMemory.record(sessionId, text, response);
+                    });
+        });
+    }
+
+    /**
+     * 相同 prompt 的并发请求合并为一次 llm 调用, 只占用一个舱壁/限流许可
+     */
+    private Mono<LlmResponse> coalescedCompletion(String text, Map<String, Object> clientEnv, Long sessionId, List<CommandTemplate> candidates) {
+        String prompt = promptCompiler.compileStart(clientEnv, candidates);
+        String message = userMessage(sessionId, prompt, text);
+        String key = SingleFlight.fingerprint(llmProperties.getModels(), prompt, message);
+        return completionFlight.execute(key, () -> requestCompletion(prompt, message));
+    }
 
-        String prompt = buildNextPrompt(taskTitle, feedback, clientEnv);
+    private Flux<LlmResponse> coalescedCompletionStream(String text, Map<String, Object> clientEnv, Long sessionId, List<CommandTemplate> candidates) {
+        String prompt = promptCompiler.compileStart(clientEnv, candidates);
+        String message = userMessage(sessionId, prompt, text);
+        String key = SingleFlight.fingerprint(llmProperties.getModels(), prompt, message);
+        return completionStreamFlight.executeMany(key, () -> requestCompletionStream(prompt, message));
+    }
+
+    /**
+     * 用户消息: 按 token 预算裁剪后的会话上下文 + 当前输入
+     */
+    private String userMessage(Long sessionId, String prompt, String text) {
+        return promptCompiler.compileUserMessage(conversationMemory.contextFor(sessionId, prompt, text), text);
+    }
+
+    /**
+     * 调用 llm 生成任务链, 主模型超时未返回时对冲到模型池中的下一个模型
+     * @param prompt 系统提示词
+     * @param text 用户输入文本
+     * @return 解析结果, 失败时返回错误响应
+     */
+    private Mono<LlmResponse> requestCompletion(String prompt, String text) {
+        long startTime = System.nanoTime();
+
+        if (!llmCircuitBreaker.tryAcquirePermission()) {
+            resilienceTuner.recordRejection("llm");
+            return Mono.error(new RuntimeException("llmCircuitBreaker 拒绝请求"));
+        }
+
+        // 后续环节拒绝时归还已获取的许可, 熔断器半开状态下的许可数有限
+        if (!llmBulkhead.tryAcquirePermission()) {
+            llmCircuitBreaker.releasePermission();
+            resilienceTuner.recordRejection("llm");
+            return Mono.error(new RuntimeException("llmBulkhead 拒绝请求"));
+        }
+
+        if (!llmRateLimiter.acquirePermission()) {
+            llmBulkhead.releasePermission();
+            llmCircuitBreaker.releasePermission();
+            resilienceTuner.recordRejection("llm");
+            return Mono.error(new RuntimeException("llmRateLimiter 拒绝请求"));
+        }
+
+        resilienceTuner.recordCall("llm");
+
+        Mono<LlmResponse> completion = hedged("completion", model -> callCompletion(model, prompt, text).flux()).next();
+        // 重试放在对冲之外: 每条调用各自重试会把一次请求放大为十余次
+        if (!hedging()) completion = completion.retryWhen(COMPLETION_RETRY);
+
+        return completion
+                .doOnSuccess(response -> {
+                    llmCircuitBreaker.onSuccess(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                    int taskCount = response.getTasks() != null ? response.getTasks().size() : 0;
+                    log.info("成功解析用户输入, 生成 {} 个任务", taskCount);
+                })
+                .doOnError(error -> {
+                    llmCircuitBreaker.onError(System.nanoTime() - startTime, TimeUnit.NANOSECONDS, error);
+                    log.error("解析用户输入失败：{}", error.getMessage(), error);
+                })
+                .doFinally(signalType -> llmBulkhead.releasePermission())
+                .onErrorReturn(createErrorResponse("LLM 服务暂时不可用，请稍后重试"));
+    }
+
+    /**
+     * 以 SSE 流式调用 llm 生成任务链, 主模型首个任务超时未返回时对冲到下一个模型, 错误由调用方处理
+     * @param prompt 系统提示词
+     * @param text 用户输入文本
+     * @return 增量响应流
+     */
+    private Flux<LlmResponse> requestCompletionStream(String prompt, String text) {
+        long startTime = System.nanoTime();
+
+        if (!llmCircuitBreaker.tryAcquirePermission()) {
+            resilienceTuner.recordRejection("llm");
+            return Flux.error(new RuntimeException("llmCircuitBreaker 拒绝请求"));
+        }
+
+        // 后续环节拒绝时归还已获取的许可, 熔断器半开状态下的许可数有限
+        if (!llmBulkhead.tryAcquirePermission()) {
+            llmCircuitBreaker.releasePermission();
+            resilienceTuner.recordRejection("llm");
+            return Flux.error(new RuntimeException("llmBulkhead 拒绝请求"));
+        }
+
+        if (!llmRateLimiter.acquirePermission()) {
+            llmBulkhead.releasePermission();
+            llmCircuitBreaker.releasePermission();
+            resilienceTuner.recordRejection("llm");
+            return Flux.error(new RuntimeException("llmRateLimiter 拒绝请求"));
+        }
 
-        LlmRequest request = new LlmRequest("你是一个智能助手，负责指导用户完成任务。", prompt, llmProperties.getModel());
+        resilienceTuner.recordCall("llm");
+
+        AtomicInteger emitted = new AtomicInteger();
+
+        return hedged("stream", model -> callCompletionStream(model, prompt, text))
+                .doOnNext(fragment -> emitted.addAndGet(fragment.getTasks().size()))
+                .doOnComplete(() -> {
+                    llmCircuitBreaker.onSuccess(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                    log.info("流式解析用户输入完成, 生成 {} 个任务", emitted.get());
+                })
+                .doOnError(error -> {
+                    llmCircuitBreaker.onError(System.nanoTime() - startTime, TimeUnit.NANOSECONDS, error);
+                    log.error("流式解析用户输入失败：{}", error.getMessage(), error);
+                })
+                .doFinally(signalType -> llmBulkhead.releasePermission());
+    }
+
+    /**
+     * 对冲请求: 先向主模型发起调用, 超过主模型滚动分位延迟仍无结果时, 再向模型池中的下一个模型发起备份调用,
+     * 先产生结果的一方胜出, 另一方被取消. 主模型由调用方的 llmCircuitBreaker 保护; 备份调用使用备份模型
+     * 自己的熔断器, 熔断打开时不发起, 同样占用 llmBulkhead 与 llmRateLimiter 许可
+     * @param kind 调用类型, 流式与非流式分别统计延迟
+     * @param call 按模型发起调用
+     * @return 胜出一方的结果流
+     */
+    private Flux<LlmResponse> hedged(String kind, Function<String, Flux<LlmResponse>> call) {
+        List<String> models = llmProperties.getModels();
+        String primaryModel = models.get(0);
+        AtomicBoolean decided = new AtomicBoolean(false);
+        Flux<LlmResponse> primary = timed(kind, primaryModel, call.apply(primaryModel), decided);
+        if (!hedging()) {
+            return primary;
+        }
+
+        String backupModel = models.get(1);
+        CircuitBreaker backupBreaker = modelCircuitBreaker(backupModel);
+        Flux<LlmResponse> backup = Mono.delay(hedgingPolicy.hedgeDelay(kind + ":" + primaryModel))
+                .thenMany(Flux.defer(() -> {
+                    if (!backupBreaker.tryAcquirePermission()) {
+                        hedgingPolicy.recordHedgeRejected();
+                        return Flux.empty();
+                    }
+                    if (!llmBulkhead.tryAcquirePermission()) {
+                        backupBreaker.releasePermission();
+                        hedgingPolicy.recordHedgeRejected();
+                        return Flux.empty();
+                    }
+                    if (!llmRateLimiter.acquirePermission()) {
+                        llmBulkhead.releasePermission();
+                        backupBreaker.releasePermission();
+                        hedgingPolicy.recordHedgeRejected();
+                        return Flux.empty();
+                    }
+                    hedgingPolicy.recordHedge();
+                    resilienceTuner.recordCall("llm");
+                    log.info("主模型 {} 超时未返回, 对冲请求发往 {}", primaryModel, backupModel);
+                    return guarded(backupBreaker, timed(kind, backupModel, call.apply(backupModel), decided))
+                            .doOnNext(response -> {
+                                if (decided.compareAndSet(false, true)) hedgingPolicy.recordHedgeWin();
+                            })
+                            .doFinally(signalType -> llmBulkhead.releasePermission());
+                }));
+
+        return Flux.firstWithValue(primary.doOnNext(response -> decided.compareAndSet(false, true)), backup);
+    }
+
+    private boolean hedging() {
+        return hedgingPolicy.isEnabled() && llmProperties.getModels().size() >= 2;
+    }
+
+    /**
+     * 模型池中非主模型的熔断器, 配置与 llmCircuitBreaker 相同, 按模型名注册
+     */
+    private CircuitBreaker modelCircuitBreaker(String model) {
+        return circuitBreakerRegistry.circuitBreaker("llmApi:" + model, llmCircuitBreaker.getCircuitBreakerConfig());
+    }
+
+    /**
+     * 向熔断器报告单条调用的结果: 完成记为成功, 出错记为失败; 被取消时 (对方胜出) 已产生结果记为成功, 否则归还许可
+     */
+    private Flux<LlmResponse> guarded(CircuitBreaker breaker, Flux<LlmResponse> source) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean produced = new AtomicBoolean(false);
+            return source
+                    .doOnNext(response -> produced.set(true))
+                    .doOnComplete(() -> breaker.onSuccess(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+                    .doOnError(error -> breaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS, error))
+                    .doOnCancel(() -> {
+                        if (produced.get()) breaker.onSuccess(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        else breaker.releasePermission();
+                    });
+        });
+    }
+
+    /**
+     * 记录首个结果的延迟, 用于计算对冲延迟; 另一方已胜出而本方被取消时, 按已耗时记为删失样本
+     * @param decided 对冲双方共享, 任一方产生结果后为 true
+     */
+    private Flux<LlmResponse> timed(String kind, String model, Flux<LlmResponse> source, AtomicBoolean decided) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            return source
+                    .doOnNext(response -> {
+                        if (first.compareAndSet(true, false)) {
+                            hedgingPolicy.recordLatency(kind + ":" + model, System.nanoTime() - start);
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        // 调用方整体取消 (decided 仍为 false) 时不记录, 以免混入与上游无关的短样本
+                        if (decided.get() && first.compareAndSet(true, false)) {
+                            hedgingPolicy.recordCensored(kind + ":" + model, System.nanoTime() - start);
+                        }
+                    });
+        });
+    }
+
+    private Mono<LlmResponse> callCompletion(String model, String prompt, String text) {
+        LlmRequest request = new LlmRequest(prompt, text, model);
 
         return llmWebClient
                 .post()
@@ -123,56 +502,104 @@ public class LlmService {
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(BodyInserters.fromValue(request))
                 .retrieve()
-                .bodyToMono(String.class)
-                .map(this::extractTextFromResponse)
-                .doOnSuccess(guidance -> log.info("生成下一步指示: {}", guidance))
-                .doOnError(error -> log.error("生成下一步指示失败", error))
-                .onErrorReturn("请继续执行下一个任务");
+                .bodyToFlux(DataBuffer.class)
+                .as(this::decodeLlmResponse);
     }
 
-    private LlmResponse parseLlmResponse(String responseJson) {
-        try {
-            Map<String, Object> response = objectMapper.readValue(responseJson, Map.class);
-            List<Map<String, Object>> choices = (List<Map<String, Object>>) response.get("choices");
-
-            if (choices != null && !choices.isEmpty()) {
-                Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
-                String content = (String) message.get("content");
-
-                // 清理可能的非JSON内容
-                String cleanedContent = cleanJsonContent(content);
+    private Flux<LlmResponse> callCompletionStream(String model, String prompt, String text) {
+        LlmRequest request = new LlmRequest(prompt, text, model);
+        request.setStream(true);
+
+        return Flux.defer(() -> {
+            TaskStreamParser parser = new TaskStreamParser(objectMapper);
+            AtomicInteger emitted = new AtomicInteger();
+
+            return llmWebClient
+                    .post()
+                    .uri("/chat/completions")
+                    .header("Authorization", "Bearer " + llmProperties.getApiKey())
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .body(BodyInserters.fromValue(request))
+                    .retrieve()
+                    .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<String>>() {})
+                    .mapNotNull(ServerSentEvent::data)
+                    .takeWhile(data -> !"[DONE]".equals(data.trim()))
+                    .mapNotNull(this::extractDeltaContent)
+                    .concatMapIterable(parser::feed)
+                    .map(task -> {
+                        emitted.incrementAndGet();
+                        return createTaskFragment(parser.getReply(), task);
+                    })
+                    // 没有生成任何任务时, 只返回 reply
+                    .concatWith(Mono.defer(() -> emitted.get() == 0
+                            ? Mono.just(createTaskFragment(parser.getReply() != null ? parser.getReply() : "处理完成", null))
+                            : Mono.empty()));
+        });
+    }
 
-                // 解析JSON格式的任务内容
-                return objectMapper.readValue(cleanedContent, LlmResponse.class);
-            }
+    /**
+     * 计算查询向量, 供语义缓存和 rag 检索共用, 失败或超过向量检索截止时间时返回空数组
+     */
+    private Mono<double[]> embedQuery(String text) {
+        return ragService.embedWithinDeadline(text)
+                .defaultIfEmpty(new double[0]);
+    }
 
-            return createErrorResponse("LLM响应格式错误");
-        } catch (JsonProcessingException e) {
-            log.error("解析LLM响应失败", e);
-            return createErrorResponse("解析LLM响应失败");
+    /**
+     * 将完整的解析结果拆分为与流式输出一致的增量片段
+     */
+    private List<LlmResponse> toFragments(LlmResponse response) {
+        if (response.getTasks() == null || response.getTasks().isEmpty()) {
+            return List.of(createTaskFragment(response.getReply(), null));
         }
+        return response.getTasks().stream()
+                .map(task -> createTaskFragment(response.getReply(), task))
+                .toList();
     }
 
-    private String cleanJsonContent(String content) {
-        if (content == null) {
-            return "{}";
-        }
+    public Mono<String> generateNextStep(Long sessionId, String taskTitle, String feedback, java.util.Map<String, Object> clientEnv) {
+        log.info("生成下一步指示，任务: {}, 反馈: {}", taskTitle, feedback);
 
-        // 去除前后空白字符
-        content = content.trim();
+        String system = "你是一个智能助手，负责指导用户完成任务。";
+        String context = conversationMemory.contextFor(sessionId, system, taskTitle, feedback);
+        String prompt = promptCompiler.compileNext(taskTitle, feedback, clientEnv, context);
 
-        // 查找第一个 { 和最后一个 }
-        int firstBrace = content.indexOf('{');
-        int lastBrace = content.lastIndexOf('}');
+        LlmRequest request = new LlmRequest(system, prompt, llmProperties.getModel());
 
-        if (firstBrace != -1 && lastBrace != -1 && firstBrace < lastBrace) {
-            // 提取JSON部分
-            return content.substring(firstBrace, lastBrace + 1);
-        }
+        return llmWebClient
+                .post()
+                .uri("/chat/completions")
+                .header("Authorization", "Bearer " + llmProperties.getApiKey())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromValue(request))
+                .retrieve()
+                .bodyToMono(String.class)
+                .map(this::extractTextFromResponse)
+                .doOnSuccess(guidance -> log.info("生成下一步指示: {}", guidance))
+                .doOnError(error -> log.error("生成下一步指示失败", error))
+                .onErrorReturn("请继续执行下一个任务");
+    }
 
-        // 如果没有找到有效的JSON结构，返回空的响应
-        log.warn("无法从LLM响应中提取有效JSON: {}", content);
-        return "{\"reply\":\"解析失败\",\"tasks\":[]}";
+    /**
+     * 单遍解码响应体: 网络缓冲区直接喂入流式解析器, 不构建中间 Map 和 String
+     * @param body 响应体缓冲区流
+     * @return 解析结果
+     */
+    private Mono<LlmResponse> decodeLlmResponse(Flux<DataBuffer> body) {
+        return Mono.using(
+                () -> new LlmResponseDecoder(objectMapper),
+                decoder -> body
+                        .doOnNext(buffer -> {
+                            try (DataBuffer.ByteBufferIterator it = buffer.readableByteBuffers()) {
+                                it.forEachRemaining(decoder::feed);
+                            } finally {
+                                DataBufferUtils.release(buffer);
+                            }
+                        })
+                        .then(Mono.fromSupplier(decoder::finish)),
+                LlmResponseDecoder::close
+        );
     }
 
     private String extractTextFromResponse(String responseJson) {
@@ -192,109 +619,32 @@ public class LlmService {
         }
     }
 
-    private LlmResponse createErrorResponse(String errorMessage) {
-        LlmResponse response = new LlmResponse();
-        response.setReply(errorMessage);
-        response.setTasks(List.of());
-        return response;
-    }
-
-    private String buildStartPrompt(java.util.Map<String, Object> clientEnv) {
-        String clientEnvStr = "";
-        if (clientEnv != null) {
-            try {
-                clientEnvStr = objectMapper.writeValueAsString(clientEnv);
-            } catch (Exception e) {
-                log.warn("序列化客户端环境信息失败", e);
-                clientEnvStr = clientEnv.toString();
-            }
+    /**
+     * 提取 SSE 数据块中的 choices[0].delta.content
+     * @param chunk 单个 SSE data
+     * @return 增量文本, 没有内容时返回 null
+     */
+    private String extractDeltaContent(String chunk) {
+        try {
+            JsonNode content = objectMapper.readTree(chunk).path("choices").path(0).path("delta").path("content");
+            return content.isTextual() ? content.asText() : null;
+        } catch (JsonProcessingException e) {
+            log.warn("解析LLM流式数据块失败: {}", chunk);
+            return null;
         }
-
-        return String.format("""
-                你是一个智能语音助手，专门帮助用户完成各种任务。
-                
-                用户的客户端环境信息：
-                %s
-                
-                请根据用户的输入，分析用户的意图，并生成一个详细的任务链来帮助用户完成目标。
-                
-                只返回如下JSON：
-                {
-                  "reply": "",
-                  "tasks": [
-                    {
-                      "title": "",
-                      "cmd": "",
-                      "shell": "cmd|powershell|bash",
-                      "os": "Windows 11|Ubuntu 22.04"
-                    }
-                  ]
-                }
-                """,
-                clientEnvStr.isEmpty() ? "无详细客户端环境信息, 默认为Windows环境" : clientEnvStr
-        );
     }
 
-    private String buildStartPromptRag(Map<String, Object> clientEnv, List<CommandTemplate> candidates) {
-        String clientEnvStr = "";
-        if (clientEnv != null) {
-            try {
-                clientEnvStr = objectMapper.writeValueAsString(clientEnv);
-            } catch (Exception e) {
-                clientEnvStr = clientEnv.toString();
-            }
-        }
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < Math.min(5, candidates.size()); i++) {
-            com.eugenezhu.voxforge.model.CommandTemplate c = candidates.get(i);
-            sb.append(i + 1).append('.').append(' ').append(c.getCmd()).append(' ').append('-').append(' ').append(c.getDesc()).append('\n');
-        }
-        String hint = sb.toString();
-        return String.format("""
-                你是一个智能语音助手，专门帮助用户完成任务。
-                用户的客户端环境信息：
-                %s
-                参考候选命令：
-                %s
-                生成JSON任务链，优先提供结合环境信息修改后的候选命令。
-                {
-                  "reply": "",
-                  "tasks": [
-                    {"title": "","cmd": "","shell": "cmd|powershell|bash","os": "Windows 11|Ubuntu 22.04"}
-                  ]
-                }
-                """,
-                clientEnvStr.isEmpty() ? "无详细客户端环境信息" : clientEnvStr,
-                hint
-        );
+    private LlmResponse createTaskFragment(String reply, LlmResponse.TaskDefinition task) {
+        LlmResponse response = new LlmResponse();
+        response.setReply(reply);
+        response.setTasks(task != null ? List.of(task) : List.of());
+        return response;
     }
 
-    private String buildNextPrompt(String taskTitle, String feedback, java.util.Map<String, Object> clientEnv) {
-        String clientEnvStr = "";
-        if (clientEnv != null) {
-            try {
-                clientEnvStr = objectMapper.writeValueAsString(clientEnv);
-            } catch (Exception e) {
-                log.warn("序列化客户端环境信息失败", e);
-                clientEnvStr = clientEnv.toString();
-            }
-        }
-
-        return String.format("""
-                当前任务：%s
-                用户反馈：%s
-                
-                用户的客户端环境信息：
-                %s
-                
-                请根据用户的反馈，生成下一步的指导建议。
-                如果任务已完成，请给出总结。
-                如果遇到问题，请提供解决方案。
-                """,
-                taskTitle,
-                feedback,
-                clientEnvStr.isEmpty() ? "无详细客户端环境信息" : clientEnvStr
-        );
+    private LlmResponse createErrorResponse(String errorMessage) {
+        LlmResponse response = new LlmResponse();
+        response.setReply(errorMessage);
+        response.setTasks(List.of());
+        return response;
     }
 }
-
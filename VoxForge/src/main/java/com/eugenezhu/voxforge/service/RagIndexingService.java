@@ -0,0 +1,73 @@
+package com.eugenezhu.voxforge.service;
+
+import com.eugenezhu.voxforge.rag.IndexLifecycle;
+import com.eugenezhu.voxforge.repository.RagVectorRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.service
+ * @className: RagIndexingService
+ * @author: zhuyuchen
+ * @description: 在后台完成 pgvector 建表与命令库索引, 维护 IndexLifecycle 的状态; 启动完成后执行一次,
+ *               之后定期检查: READY 时探测 pgvector 是否仍可用, NOT_READY/DEGRADED 时重新建表并加载
+ * @date: 2026/10/22 上午10:20
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RagIndexingService {
+
+    private final RagService ragService;
+    private final RagVectorRepository ragVectorRepository;
+    private final IndexLifecycle indexLifecycle;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initOnStartup() {
+        index("启动").subscribe();
+    }
+
+    @Scheduled(fixedDelayString = "${rag.lifecycle.recheck-interval-ms:60000}", initialDelayString = "${rag.lifecycle.recheck-interval-ms:60000}")
+    public void recheck() {
+        switch (indexLifecycle.state()) {
+            case READY -> ragVectorRepository.ping()
+                    .subscribe(ok -> {
+                    }, e -> indexLifecycle.degrade("pgvector 探测失败: " + e.getMessage()));
+            case NOT_READY, DEGRADED -> index("定期重试").subscribe();
+            default -> {
+                // INDEXING, 等待当前任务完成
+            }
+        }
+    }
+
+    /**
+     * 建表并加载命令库, 完成后根据结果切换为 READY 或 DEGRADED
+     */
+    public Mono<Void> index(String why) {
+        if (!indexLifecycle.beginIndexing(why)) return Mono.empty();
+        ragService.resetSchema();
+        return ragService.initializeSchema()
+                .flatMap(dbAvailable -> {
+                    if (!dbAvailable) {
+                        // 命令库仍然加载, 词法检索使用最新的模板
+                        return ragService.reloadLibrary().doOnNext(r -> indexLifecycle.degrade("pgvector 不可用, 只使用词法检索"));
+                    }
+                    return ragService.reloadLibrary().doOnNext(result -> {
+                        if ("ok".equals(result.get("status"))) indexLifecycle.ready("命令库版本 " + result.get("version") + ", 共 " + result.get("total") + " 条");
+                        else if ("in_progress".equals(result.get("status"))) indexLifecycle.degrade("命令库正在由其他任务加载, 下次检查时重试");
+                        else indexLifecycle.degrade("命令库加载失败: " + result.get("error"));
+                    });
+                })
+                .onErrorResume(e -> {
+                    indexLifecycle.degrade("索引失败: " + e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+}
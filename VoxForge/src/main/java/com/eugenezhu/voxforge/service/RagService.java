@@ -1,22 +1,45 @@
 package com.eugenezhu.voxforge.service;
 
 import com.eugenezhu.voxforge.config.AiConfig;
+import com.eugenezhu.voxforge.config.RagConfig;
+import com.eugenezhu.voxforge.rag.CommandLexicalIndex;
+import com.eugenezhu.voxforge.rag.CommandLibrary;
+import com.eugenezhu.voxforge.rag.CommandUsageTracker;
+import com.eugenezhu.voxforge.rag.CommandVectorIndex;
+import com.eugenezhu.voxforge.rag.EmbeddingCache;
+import com.eugenezhu.voxforge.rag.HybridRetriever;
+import com.eugenezhu.voxforge.rag.IndexLifecycle;
+import com.eugenezhu.voxforge.rag.OfflineVectorIndex;
+import com.eugenezhu.voxforge.rag.ShellNames;
+import com.eugenezhu.voxforge.rag.RetrievalCache;
+import com.eugenezhu.voxforge.rag.VectorKernels;
+import com.eugenezhu.voxforge.ratelimit.SingleFlight;
 import com.eugenezhu.voxforge.repository.RagVectorRepository;
+import com.eugenezhu.voxforge.model.CommandRecord;
 import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import com.eugenezhu.voxforge.util.Hashing;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.boot.context.event.ApplicationReadyEvent;
-import org.springframework.context.event.EventListener;
 import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 
 /**
  * @projectName: VoxForge
@@ -35,28 +58,27 @@ public class RagService {
     private final WebClient embeddingWebClient;
 
     private final AiConfig.EmbeddingProperties embeddingProperties;
+    private final RagConfig.IndexingProperties indexingProperties;
+    private final RagConfig.HybridProperties hybridProperties;
+    private final RagConfig.LibraryProperties libraryProperties;
 
     private final RagVectorRepository ragVectorRepository;
+    private final CommandLibrary commandLibrary;
+    private final CommandVectorIndex commandVectorIndex;
+    private final CommandLexicalIndex commandLexicalIndex;
+    private final HybridRetriever hybridRetriever;
+    private final IndexLifecycle indexLifecycle;
+    private final EmbeddingCache embeddingCache;
+    private final RetrievalCache retrievalCache;
+    private final CommandUsageTracker commandUsageTracker;
+    private final OfflineVectorIndex offlineVectorIndex;
+    @Qualifier("embeddingCircuitBreaker")
+    private final CircuitBreaker embeddingCircuitBreaker;
+    private final SingleFlight<String, double[]> embedFlight = new SingleFlight<>("embedding");
     private volatile boolean schemaInitialized = false;
     private volatile boolean dbAvailable = true;
 
-    /**
-     * 命令库
-     */
-    private final List<CommandTemplate> library = new ArrayList<CommandTemplate>(
-            List.of(
-                    new CommandTemplate("start notepad.exe", "打开记事本", "Windows 11", "cmd"),
-                    new CommandTemplate("start calc.exe", "打开计算器", "Windows 11", "cmd"),
-                    new CommandTemplate("start chrome", "打开浏览器", "Windows 11", "cmd"),
-                    new CommandTemplate("explorer", "打开资源管理器", "Windows 11", "cmd"),
-                    new CommandTemplate("dir", "列出目录", "Windows 11", "cmd"),
-                    new CommandTemplate("ls -la", "列出目录详细", "Ubuntu 22.04", "bash"),
-                    new CommandTemplate("xdg-open .", "打开文件管理器", "Ubuntu 22.04", "bash"),
-                    new CommandTemplate("google-chrome", "打开浏览器", "Ubuntu 22.04", "bash"),
-                    new CommandTemplate("nano", "打开文本编辑器", "Ubuntu 22.04", "bash"),
-                    new CommandTemplate("code", "打开VS Code", "Windows 11", "cmd")
-            )
-    );
+    private final AtomicBoolean reloading = new AtomicBoolean(false);
 
     /**
      * 从命令库中检索与用户输入最相关的命令
@@ -66,40 +88,305 @@ public class RagService {
      * @return 与用户输入最相关的命令列表
      */
     public Mono<List<CommandTemplate>> retrieve(String text, Map<String, Object> env, int k) {
-        String os = env != null ? String.valueOf(env.getOrDefault("os", "Windows 11")) : "Windows 11";
-        List<CommandTemplate> candidates = library.stream()
-                .filter(cmd -> cmd.getOs().equals(os))
-                .toList();
+        return retrieveScored(text, env, k).map(RagService::templates);
+    }
+
+    /**
+     * 使用调用方已计算好的查询向量检索, 避免重复调用 embedding 接口
+     * @param text 用户输入的文本
+     * @param env 环境变量，包含用户操作系统信息
+     * @param k 返回的命令数量
+     * @param query 查询向量, 为空时退化为 BM25 词法检索
+     * @return 与用户输入最相关的命令列表
+     */
+    public Mono<List<CommandTemplate>> retrieve(String text, Map<String, Object> env, int k, double[] query) {
+        return retrieveScored(text, env, k, query).map(RagService::templates);
+    }
+
+    /**
+     * 检索并返回相似度分数, 供置信度路由使用
+     * @param text 用户输入的文本
+     * @param env 环境变量，包含用户操作系统信息
+     * @param k 返回的命令数量
+     * @return 按分数降序排列的检索结果
+     */
+    public Mono<List<ScoredCommand>> retrieveScored(String text, Map<String, Object> env, int k) {
+        String os = os(env);
+
+        // 索引未就绪或 embedding 接口熔断时改用离线向量; 向量一路超过截止时间被取消时, embedding 调用在后台继续完成并写入嵌入缓存
+        if (!indexLifecycle.isReady() || isEmbeddingCircuitOpen()) {
+            return retrieveCached(text, env, k, offlineLeg(text, env), false);
+        }
+        return retrieveCached(text, env, k, depth -> embedDetached(text).flatMap(q -> searchVector(os, env, q, depth)), true);
+    }
+
+    /**
+     * 使用已计算好的查询向量检索并返回相似度分数
+     * @param text 用户输入的文本
+     * @param env 环境变量，包含用户操作系统信息
+     * @param k 返回的命令数量
+     * @param query 查询向量, 为空时退化为 BM25 词法检索
+     * @return 按分数降序排列的检索结果
+     */
+    public Mono<List<ScoredCommand>> retrieveScored(String text, Map<String, Object> env, int k, double[] query) {
+        String os = os(env);
+
+        // 查询向量未能在截止时间内算出 (为空) 时改用离线向量
+        if (!indexLifecycle.isReady() || query == null) {
+            return retrieveCached(text, env, k, offlineLeg(text, env), false);
+        }
+        return retrieveCached(text, env, k, depth -> searchVector(os, env, query, depth), true);
+    }
 
-        return ensureSchema()
-                .then(ensureTemplateIndexed(candidates))
-                .then(
-                        dbAvailable
-                                ? embed(text)
-                                .flatMap(q -> ragVectorRepository.search(os, q, k).collectList())
-                                .switchIfEmpty(Mono.just(fallbackTfRetrieve(text, candidates, k)))
-                                : Mono.just(fallbackTfRetrieve(text, candidates, k))
-                );
+    /**
+     * 按命令使用次数重排的指纹, 不重排时为空串; 调用方据此区分因人而异的解析结果
+     */
+    public String personalization(Long userId) {
+        return commandUsageTracker.fingerprint(userId);
+    }
 
+    /**
+     * 按用户的命令使用次数重排的检索, 有使用记录时多召回候选再重排
+     * @param userId 用户ID, 为空时不重排
+     */
+    public Mono<List<ScoredCommand>> retrieveScored(String text, Map<String, Object> env, int k, Long userId) {
+        int depth = commandUsageTracker.depth(userId, k);
+        return retrieveScored(text, env, depth).map(hits -> commandUsageTracker.rerank(userId, hits, k));
     }
 
     /**
-     * 确保命令模板的向量存在
-     * @param candidates 命令模板列表
+     * 使用已计算好的查询向量, 按用户的命令使用次数重排的检索
+     * @param userId 用户ID, 为空时不重排
      */
-    private Mono<Void> ensureTemplateIndexed(List<CommandTemplate> candidates) {
-        if (!dbAvailable) return Mono.empty();
-        return Flux.fromIterable(candidates)
-                .flatMap(t -> ragVectorRepository.exists(t.getCmd(), t.getOs(), t.getShell())
-                        .flatMap(exists -> exists
-                                ? Mono.empty()
-                                : embed(t.getCmd() + " " + t.getDesc())
-                                .switchIfEmpty(Mono.just(new double[embeddingProperties.getDimension()]))
-                                .flatMap(v -> ragVectorRepository.upsert(t, v)
-                                        .doOnSuccess(ignored -> log.info("索引命令模板: {} ({}, {})", t.getCmd(), t.getOs(), t.getShell())))
-                        )
-                )
-                .then();
+    public Mono<List<ScoredCommand>> retrieveScored(String text, Map<String, Object> env, int k, double[] query, Long userId) {
+        int depth = commandUsageTracker.depth(userId, k);
+        return retrieveScored(text, env, depth, query).map(hits -> commandUsageTracker.rerank(userId, hits, k));
+    }
+
+    /**
+     * 查询检索结果缓存, 命中时按用户的命令使用次数重排
+     * @return 缓存的检索结果, 未命中时为 null
+     */
+    public List<ScoredCommand> cachedRetrieval(String text, Map<String, Object> env, int k, Long userId) {
+        List<ScoredCommand> cached = cachedRetrieval(text, env, commandUsageTracker.depth(userId, k));
+        return cached == null ? null : commandUsageTracker.rerank(userId, cached, k);
+    }
+
+    /**
+     * 查询检索结果缓存, 供调用方在计算查询向量前判断是否可以跳过 embedding
+     * @return 缓存的检索结果, 未命中时为 null
+     */
+    public List<ScoredCommand> cachedRetrieval(String text, Map<String, Object> env, int k) {
+        return retrievalCache.get(text, os(env), shell(env), k);
+    }
+
+    /**
+     * 先查检索结果缓存, 未命中时混合检索; 只缓存线上向量检索参与了的结果, 降级 (离线向量, 向量检索超时或失败只剩词法) 的结果不缓存
+     * @param remote vectorLeg 是否为线上 embedding 的向量检索
+     */
+    private Mono<List<ScoredCommand>> retrieveCached(String text, Map<String, Object> env, int k, IntFunction<Mono<List<ScoredCommand>>> vectorLeg,
+                                                     boolean remote) {
+        String os = os(env);
+        String shell = shell(env);
+        List<ScoredCommand> cached = retrievalCache.get(text, os, shell, k);
+        if (cached != null) return Mono.just(cached);
+        long version = retrievalCache.version();
+        return hybridRetriever.retrieve(text, os, k, vectorLeg)
+                .doOnNext(hits -> {
+                    boolean vectorUsed = hits.stream().anyMatch(h -> !ScoredCommand.SOURCE_LEXICAL.equals(h.getSource()));
+                    if (remote && vectorUsed) retrievalCache.put(text, os, shell, k, version, hits);
+                });
+    }
+
+    /**
+     * 离线向量检索一路, 未启用时为 null (只用词法检索)
+     */
+    private IntFunction<Mono<List<ScoredCommand>>> offlineLeg(String text, Map<String, Object> env) {
+        if (!offlineVectorIndex.isEnabled()) return null;
+        String os = os(env);
+        String shell = shell(env);
+        return depth -> Mono.fromCallable(() -> offlineVectorIndex.search(os, shell, text, depth));
+    }
+
+    /**
+     * embedding 接口是否处于熔断状态, 熔断期间不调用上游
+     */
+    public boolean isEmbeddingCircuitOpen() {
+        CircuitBreaker.State state = embeddingCircuitBreaker.getState();
+        return state == CircuitBreaker.State.OPEN || state == CircuitBreaker.State.FORCED_OPEN;
+    }
+
+    private static String os(Map<String, Object> env) {
+        return env != null ? String.valueOf(env.getOrDefault("os", "Windows 11")) : "Windows 11";
+    }
+
+    private static String shell(Map<String, Object> env) {
+        Object shell = env != null ? env.get("shell") : null;
+        return shell != null ? ShellNames.normalize(String.valueOf(shell)) : null;
+    }
+
+    public static List<CommandTemplate> templates(List<ScoredCommand> hits) {
+        return hits.stream().map(ScoredCommand::getTemplate).toList();
+    }
+
+    /**
+     * 重新加载命令库: 合并内置模板, 目录文件与 kb_commands 中数据库维护的行 (键相同时后者覆盖前者),
+     * 与 kb_commands 中的内容哈希比对, 只为新增或内容变化的模板计算向量并写入, 删除已从文件中移除的行;
+     * 词法索引与模板列表在新版本构建完成后整体替换, 向量索引首次全量加载, 之后按变化增量更新.
+     * 同一时间只执行一次, 重复调用直接返回
+     * @return 本次加载的统计
+     */
+    public Mono<Map<String, Object>> reloadLibrary() {
+        if (!reloading.compareAndSet(false, true)) {
+            return Mono.just(Map.of("status", "in_progress", "version", commandLibrary.version()));
+        }
+        long start = System.nanoTime();
+        Mono<List<CommandTemplate>> files = Mono.fromCallable(commandLibrary::loadFiles).subscribeOn(Schedulers.boundedElastic());
+        Mono<List<CommandRecord>> records = ensureSchema()
+                .then(Mono.defer(() -> dbAvailable
+                        ? ragVectorRepository.findAllRecords().collectList()
+                        : Mono.just(List.<CommandRecord>of())));
+
+        return Mono.zip(files, records)
+                .flatMap(t -> {
+                    Map<String, CommandTemplate> merged = new LinkedHashMap<>();
+                    Map<String, String> sources = new HashMap<>();
+                    for (CommandTemplate template : t.getT1()) {
+                        merged.put(RagVectorRepository.key(template), template);
+                        sources.put(RagVectorRepository.key(template), CommandRecord.SOURCE_LIBRARY);
+                    }
+                    Map<String, String> storedHashes = new HashMap<>();
+                    List<CommandTemplate> stale = new ArrayList<>();
+                    for (CommandRecord record : t.getT2()) {
+                        String key = RagVectorRepository.key(record.getTemplate());
+                        if (record.isEmbedded() && record.getContentHash() != null) storedHashes.put(key, record.getContentHash());
+                        if (CommandRecord.SOURCE_DB.equals(record.getSource()) && libraryProperties.isIncludeDatabase()) {
+                            merged.put(key, record.getTemplate());
+                            sources.put(key, CommandRecord.SOURCE_DB);
+                        }
+                    }
+                    for (CommandRecord record : t.getT2()) {
+                        if (!merged.containsKey(RagVectorRepository.key(record.getTemplate()))
+                                && CommandRecord.SOURCE_LIBRARY.equals(record.getSource())) {
+                            stale.add(record.getTemplate());
+                        }
+                    }
+                    Map<String, String> hashes = new HashMap<>();
+                    List<CommandTemplate> changed = new ArrayList<>();
+                    merged.forEach((key, template) -> {
+                        String hash = commandLibrary.contentHash(template);
+                        hashes.put(key, hash);
+                        if (!hash.equals(storedHashes.get(key))) changed.add(template);
+                    });
+
+                    boolean vectorReady = commandVectorIndex.isReady();
+                    Mono<Integer> write = dbAvailable
+                            ? indexTemplates(changed, hashes, sources, vectorReady)
+                                    .flatMap(n -> ragVectorRepository.deleteAll(stale).thenReturn(n))
+                            : Mono.just(0);
+                    return write
+                            .flatMap(written -> Mono.fromRunnable(() -> {
+                                        commandLexicalIndex.replaceAll(merged.values());
+                                        offlineVectorIndex.replaceAll(merged.values());
+                                        if (vectorReady) stale.forEach(commandVectorIndex::remove);
+                                        // 索引更新完成后再更新命令库版本, 使检索结果缓存失效
+                                        commandLibrary.swap(merged.values());
+                                    })
+                                    .subscribeOn(Schedulers.boundedElastic())
+                                    .then(Mono.defer(() -> dbAvailable && !vectorReady ? commandVectorIndex.load() : Mono.empty()))
+                                    .then(Mono.fromCallable(() -> {
+                                        Map<String, Object> result = new LinkedHashMap<>();
+                                        result.put("status", "ok");
+                                        result.put("version", commandLibrary.version());
+                                        result.put("total", merged.size());
+                                        result.put("changed", changed.size());
+                                        result.put("embedded", written);
+                                        result.put("removed", stale.size());
+                                        result.put("unchanged", merged.size() - changed.size());
+                                        result.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                                        log.info("命令库加载完成: {}", result);
+                                        return result;
+                                    })));
+                })
+                .onErrorResume(e -> {
+                    log.warn("命令库加载失败, 保留当前版本 {}: {}", commandLibrary.version(), e.getMessage());
+                    return Mono.just(Map.of("status", "failed", "version", commandLibrary.version(), "error", String.valueOf(e.getMessage())));
+                })
+                .doFinally(signal -> reloading.set(false));
+    }
+
+    /**
+     * 命令库目录有变化时重新加载
+     */
+    @Scheduled(fixedDelayString = "${rag.library.watch-interval-ms:30000}", initialDelayString = "${rag.library.watch-interval-ms:30000}")
+    public void watchLibrary() {
+        if (commandLibrary.filesChanged()) {
+            log.info("命令库目录有变化, 重新加载");
+            reloadLibrary().subscribe();
+        }
+    }
+
+    /**
+     * 为新增或内容变化的模板计算向量并写入 kb_commands; 按 batchSize 分批, 每批按 embedBatchSize 分组请求 embedding;
+     * embedding 失败的模板不写入, 下次加载时重试
+     * @param updateIndex 是否同时增量更新进程内向量索引, 索引尚未加载时由随后的全量加载覆盖
+     * @return 写入的条数
+     */
+    private Mono<Integer> indexTemplates(List<CommandTemplate> changed, Map<String, String> hashes, Map<String, String> sources, boolean updateIndex) {
+        if (changed.isEmpty()) return Mono.just(0);
+        int total = changed.size();
+        int batchSize = Math.max(1, indexingProperties.getBatchSize());
+        AtomicInteger processed = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        long start = System.nanoTime();
+
+        return Flux.fromIterable(changed)
+                .buffer(batchSize)
+                .flatMap(batch -> Flux.fromIterable(batch)
+                        .buffer(Math.max(1, indexingProperties.getEmbedBatchSize()))
+                        .concatMap(chunk -> embedBatch(chunk.stream().map(t -> t.getCmd() + " " + t.getDesc()).toList()))
+                        .flatMapIterable(vectors -> vectors)
+                        .collectList()
+                        .flatMap(vectors -> {
+                            List<CommandTemplate> ok = new ArrayList<>();
+                            List<double[]> okVectors = new ArrayList<>();
+                            for (int i = 0; i < batch.size() && i < vectors.size(); i++) {
+                                if (vectors.get(i) == null) continue;
+                                ok.add(batch.get(i));
+                                okVectors.add(vectors.get(i));
+                            }
+                            List<String> keys = ok.stream().map(RagVectorRepository::key).toList();
+                            return ragVectorRepository.upsertAll(ok, okVectors,
+                                            keys.stream().map(hashes::get).toList(),
+                                            keys.stream().map(sources::get).toList())
+                                    .then(Mono.fromCallable(() -> {
+                                        if (updateIndex) {
+                                            for (int i = 0; i < ok.size(); i++) commandVectorIndex.upsert(ok.get(i), okVectors.get(i));
+                                        }
+                                        return ok.size();
+                                    }));
+                        })
+                        .doOnNext(n -> {
+                            written.addAndGet(n);
+                            int done = processed.addAndGet(batch.size());
+                            if (total > batchSize) log.info("索引命令模板进度: {}/{}, 写入 {} 条", done, total, written.get());
+                        }), Math.max(1, indexingProperties.getConcurrency()))
+                .then(Mono.fromCallable(() -> {
+                    log.info("索引命令模板完成: 变化 {} 条, 写入 {} 条, 耗时 {}ms",
+                            total, written.get(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    return written.get();
+                }));
+    }
+
+    /**
+     * 向量检索, 进程内索引就绪时只查询 env 中操作系统 (及可选的 shell) 对应的分区, 否则查询 pgvector
+     */
+    private Mono<List<ScoredCommand>> searchVector(String os, Map<String, Object> env, double[] query, int k) {
+        if (commandVectorIndex.isReady()) {
+            String shell = shell(env);
+            return Mono.fromCallable(() -> commandVectorIndex.search(os, shell, query, k));
+        }
+        return ragVectorRepository.searchScored(os, query, k).collectList();
     }
 
     /**
@@ -107,57 +394,120 @@ public class RagService {
      * @param text 输入文本
      * @return 嵌入向量数组，或null如果失败
      */
-    private Mono<double[]> embed(String text) {
-        Map<String, Object> body = new HashMap<>();
-        body.put("input", text);
-        body.put("inputs", text);
-        body.put("model", embeddingProperties.getModel());
-        if (embeddingProperties.getDimension() != null && embeddingProperties.getDimension() > 0) {
-            body.put("dimensions", embeddingProperties.getDimension());
+    public Mono<double[]> embed(String text) {
+        // 相同模型, 维度, 文本的并发请求只调用一次上游, 结果写入缓存
+        String key = Hashing.fingerprint(embeddingProperties.getModel(), embeddingProperties.getDimension(), text);
+        double[] cached = embeddingCache.get(key);
+        if (cached != null) return Mono.just(cached);
+        return embedFlight.execute(key, () -> guarded(() -> requestEmbedding(text)).doOnNext(v -> embeddingCache.put(key, v)));
+    }
+
+    /**
+     * 在向量检索的截止时间内计算查询向量, 超时返回空; 上游调用在后台继续完成并写入嵌入缓存
+     */
+    public Mono<double[]> embedWithinDeadline(String text) {
+        if (!hybridProperties.isEnabled()) return embed(text);
+        return embedDetached(text).timeout(hybridProperties.getVectorDeadline(), Mono.empty());
+    }
+
+    /**
+     * 订阅时发起 embed 并由一个后台订阅者持有到完成, 调用方取消订阅不会使 embedFlight 取消上游调用, 结果照常写入嵌入缓存;
+     * 调用方与后台订阅者共享同一次调用
+     */
+    private Mono<double[]> embedDetached(String text) {
+        return Mono.defer(() -> {
+            Mono<double[]> shared = embed(text).cache();
+            shared.subscribe(v -> { }, e -> log.debug("后台 embedding 调用失败: {}", e.toString()));
+            return shared;
+        });
+    }
+
+    /**
+     * 批量生成嵌入向量, 先查缓存, 未命中的文本合并为一次请求
+     * @param texts 输入文本
+     * @return 与 texts 一一对应的向量, 失败的位置为 null
+     */
+    public Mono<List<double[]>> embedBatch(List<String> texts) {
+        double[][] result = new double[texts.size()][];
+        String[] keys = new String[texts.size()];
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            keys[i] = Hashing.fingerprint(embeddingProperties.getModel(), embeddingProperties.getDimension(), texts.get(i));
+            result[i] = embeddingCache.get(keys[i]);
+            if (result[i] == null) missing.add(i);
         }
-        body.put("encoding_format", "float");
-        String path = embeddingProperties.getModel() != null && embeddingProperties.getModel().contains("/") ? "/" : "/embeddings";
-        return embeddingWebClient.post()
-                .uri(path)
-                .header("Authorization", "Bearer " + embeddingProperties.getApiKey())
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(BodyInserters.fromValue(body))
-                .retrieve()
-                .bodyToMono(Object.class)
+        if (missing.isEmpty()) return Mono.just(Arrays.asList(result));
+        return guarded(() -> requestEmbeddings(missing.stream().map(texts::get).toList()))
+                .map(vectors -> {
+                    for (int j = 0; j < missing.size() && j < vectors.size(); j++) {
+                        double[] v = vectors.get(j);
+                        if (v == null) continue;
+                        result[missing.get(j)] = v;
+                        embeddingCache.put(keys[missing.get(j)], v);
+                    }
+                    return Arrays.asList(result);
+                })
+                .defaultIfEmpty(Arrays.asList(result));
+    }
+
+    /**
+     * 经过熔断器调用 embedding 接口; 上游失败时返回空, 同样计为一次失败, 熔断期间直接返回空
+     */
+    private <T> Mono<T> guarded(Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            if (!embeddingCircuitBreaker.tryAcquirePermission()) return Mono.empty();
+            long start = System.nanoTime();
+            return call.get()
+                    .doOnNext(v -> embeddingCircuitBreaker.onSuccess(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+                    .switchIfEmpty(Mono.fromRunnable(() -> embeddingCircuitBreaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS,
+                            new IllegalStateException("embedding 调用失败"))))
+                    .doOnCancel(embeddingCircuitBreaker::releasePermission);
+        });
+    }
+
+    /**
+     * 以数组形式的 input 一次请求多条文本的嵌入向量
+     * @return 与 texts 顺序一致的向量, 无法解析的位置为 null
+     */
+    private Mono<List<double[]>> requestEmbeddings(List<String> texts) {
+        return postEmbedding(texts)
                 .map(resp -> {
-                    if (resp instanceof List<?> vec) {
-                        double[] arr = new double[vec.size()];
-                        for (int i = 0; i < vec.size(); i++) {
-                            Object x = vec.get(i);
-                            arr[i] = x instanceof Number ? ((Number) x).doubleValue() : 0d;
+                    double[][] vectors = new double[texts.size()][];
+                    if (resp instanceof List<?> list) {
+                        // 直接返回向量数组的接口, 顺序与输入一致
+                        for (int i = 0; i < list.size() && i < vectors.length; i++) {
+                            if (list.get(i) instanceof List<?> vec) vectors[i] = VectorKernels.normalize(toVector(vec));
                         }
-                        return normalize(arr);
-                    } else if (resp instanceof Map<?,?> m) {
-                        Object maybeEmb = m.get("embedding");
-                        if (maybeEmb instanceof List<?> vec) {
-                            double[] arr = new double[vec.size()];
-                            for (int i = 0; i < vec.size(); i++) {
-                                Object x = vec.get(i);
-                                arr[i] = x instanceof Number ? ((Number) x).doubleValue() : 0d;
-                            }
-                            return normalize(arr);
+                    } else if (resp instanceof Map<?, ?> m && m.get("data") instanceof List<?> data) {
+                        // OpenAI 兼容接口, 按 index 字段对应输入位置
+                        for (int i = 0; i < data.size(); i++) {
+                            if (!(data.get(i) instanceof Map<?, ?> item) || !(item.get("embedding") instanceof List<?> vec)) continue;
+                            int at = item.get("index") instanceof Number n ? n.intValue() : i;
+                            if (at >= 0 && at < vectors.length) vectors[at] = VectorKernels.normalize(toVector(vec));
                         }
-                        Object data = m.get("data");
-                        if (data instanceof List<?> list && !list.isEmpty()) {
-                            Object first = list.get(0);
-                            if (first instanceof Map<?,?> mm) {
-                                Object emb = mm.get("embedding");
-                                if (emb instanceof List<?> vec2) {
-                                    double[] arr = new double[vec2.size()];
-                                    for (int i = 0; i < vec2.size(); i++) {
-                                        Object x = vec2.get(i);
-                                        arr[i] = x instanceof Number ? ((Number) x).doubleValue() : 0d;
-                                    }
-                                    return normalize(arr);
-                                }
-                            }
+                    }
+                    return Arrays.asList(vectors);
+                })
+                .onErrorResume(e -> {
+                    log.warn("批量embedding调用失败 ({} 条): {}", texts.size(), e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<double[]> requestEmbedding(String text) {
+        return postEmbedding(text)
+                .mapNotNull(resp -> {
+                    if (resp instanceof List<?> vec) {
+                        return VectorKernels.normalize(toVector(vec));
+                    }
+                    if (resp instanceof Map<?, ?> m) {
+                        if (m.get("embedding") instanceof List<?> vec) {
+                            return VectorKernels.normalize(toVector(vec));
+                        }
+                        if (m.get("data") instanceof List<?> data && !data.isEmpty()
+                                && data.get(0) instanceof Map<?, ?> item && item.get("embedding") instanceof List<?> vec) {
+                            return VectorKernels.normalize(toVector(vec));
                         }
-                        return null;
                     }
                     return null;
                 })
@@ -167,92 +517,73 @@ public class RagService {
                 });
     }
 
-    private Mono<Void> ensureSchema() {
-        if (schemaInitialized) return Mono.empty();
-        return embed("init")
-                .map(v -> v.length)
-                .onErrorResume(e -> Mono.just(embeddingProperties.getDimension()))
-                .defaultIfEmpty(embeddingProperties.getDimension())
-                .flatMap(dim -> ragVectorRepository.initializeSchema(dim))
-                .doOnSuccess(v -> { schemaInitialized = true; dbAvailable = true; })
-                .doOnError(e -> { dbAvailable = false; schemaInitialized = true; log.warn("pgvector不可用，启用回退检索: {}", e.getMessage()); })
-                .onErrorResume(e -> Mono.empty());
+    /**
+     * 发送嵌入请求, 单条与批量共用请求体与路径, input 为字符串或字符串数组
+     * @return 接口原始响应
+     */
+    private Mono<Object> postEmbedding(Object input) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("input", input);
+        body.put("inputs", input);
+        body.put("model", embeddingProperties.getModel());
+        if (embeddingProperties.getDimension() != null && embeddingProperties.getDimension() > 0) {
+            body.put("dimensions", embeddingProperties.getDimension());
+        }
+        body.put("encoding_format", "float");
+        String path = embeddingProperties.getModel() != null && embeddingProperties.getModel().contains("/") ? "/" : "/embeddings";
+        return embeddingWebClient.post()
+                .uri(path)
+                .header("Authorization", "Bearer " + embeddingProperties.getApiKey())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromValue(body))
+                .retrieve()
+                .bodyToMono(Object.class);
     }
 
-    @EventListener(ApplicationReadyEvent.class)
-    public void initOnStartup() {
-        ensureSchema()
-                .then(ensureTemplateIndexed(library))
-                .subscribe();
+    private double[] toVector(List<?> vec) {
+        double[] arr = new double[vec.size()];
+        for (int i = 0; i < vec.size(); i++) {
+            Object x = vec.get(i);
+            arr[i] = x instanceof Number ? ((Number) x).doubleValue() : 0d;
+        }
+        return arr;
     }
 
     /**
-     * 计算两个向量的余弦相似度
-     * @param a 第一个向量
-     * @param b 第二个向量
-     * @return 余弦相似度值，范围在[0, 1]之间
+     * 初始化 pgvector 表结构, 只在后台执行; 已初始化时直接返回
+     * @return pgvector 是否可用
      */
-    private double cosine(double[] a, double[] b) {
-        if (a == null || b == null || a.length != b.length) return 0;
-        double dot = 0, na = 0, nb = 0;
-        for (int i = 0; i < a.length; i++) {
-            dot += a[i] * b[i];
-            na += a[i] * a[i];
-            nb += b[i] * b[i];
-        }
-        double denom = Math.sqrt(na) * Math.sqrt(nb);
-        if (denom == 0) return 0;
-        return dot / denom;
+    public Mono<Boolean> initializeSchema() {
+        return ensureSchema().then(Mono.fromCallable(() -> dbAvailable));
     }
 
     /**
-     * 对向量进行归一化，将其转换为单位向量
-     * @param v 输入向量
-     * @return 归一化后的向量
+     * 下次 initializeSchema 时重新建表, 用于 pgvector 恢复后的重试
      */
-    private double[] normalize(double[] v) {
-        double n = 0;
-        for (double x : v) n += x * x;
-        n = Math.sqrt(n);
-        if (n == 0) return v;
-        double[] r = new double[v.length];
-        for (int i = 0; i < v.length; i++) r[i] = v[i] / n;
-        return r;
+    public void resetSchema() {
+        schemaInitialized = false;
     }
 
-    /**
-     * 基于词频向量计算余弦相似度，作为回退检索方法
-     * @param text 查询文本
-     * @param candidates 候选命令模板列表
-     * @param k 返回的Top-K结果数量
-     * @return 基于余弦相似度排序的Top-K命令模板列表
-     */
-    private List<CommandTemplate> fallbackTfRetrieve(String text, List<CommandTemplate> candidates, int k) {
-        Map<CommandTemplate, Double> scores = new HashMap<>();
-        Map<String, Integer> va = tf(text);
-        for (CommandTemplate t : candidates) {
-            Map<String, Integer> vb = tf(t.getCmd() + " " + t.getDesc());
-            Set<String> keys = new HashSet<>(); keys.addAll(va.keySet()); keys.addAll(vb.keySet());
-            double dot = 0, na = 0, nb = 0; for (String key : keys) { int xa = va.getOrDefault(key, 0); int xb = vb.getOrDefault(key, 0); dot += xa*xb; na += xa*xa; nb += xb*xb; }
-            double denom = Math.sqrt(na) * Math.sqrt(nb); double sim = denom==0?0:dot/denom; scores.put(t, sim);
-        }
-        return scores.entrySet().stream().sorted((a,b)->Double.compare(b.getValue(), a.getValue())).limit(k).map(Map.Entry::getKey).toList();
+    private Mono<Void> ensureSchema() {
+        if (schemaInitialized) return Mono.empty();
+        return embed("init")
+                .map(v -> v.length)
+                .onErrorResume(e -> Mono.just(embeddingProperties.getDimension()))
+                .defaultIfEmpty(embeddingProperties.getDimension())
+                .flatMap(dim -> ragVectorRepository.initializeSchema(dim))
+                .doOnSuccess(v -> { schemaInitialized = true; dbAvailable = true; })
+                .doOnError(e -> { dbAvailable = false; schemaInitialized = true; log.warn("pgvector不可用，启用回退检索: {}", e.getMessage()); })
+                .onErrorResume(e -> Mono.empty());
     }
 
     /**
-     * 计算字符串的词频向量
-     * @param s 输入字符串
-     * @return 词频向量，键为单词，值为出现次数
+     * 文件中的模板与词法索引不依赖外部服务, 构造完成后立即可用; 数据库中的模板与向量由 RagIndexingService 在后台加载
      */
-    private Map<String, Integer> tf(String s) {
-        Map<String, Integer> m = new HashMap<>();
-        if (s == null) return m;
-        String[] parts = s.toLowerCase(Locale.ROOT).split("[^a-z0-9]+");
-        for (String p : parts) {
-            if (p.isEmpty()) continue;
-            m.put(p, m.getOrDefault(p, 0) + 1);
-        }
-        return m;
+    @PostConstruct
+    public void buildLexicalIndex() {
+        List<CommandTemplate> files = commandLibrary.loadFiles();
+        commandLexicalIndex.replaceAll(files);
+        offlineVectorIndex.replaceAll(files);
+        commandLibrary.swap(files);
     }
 }
-
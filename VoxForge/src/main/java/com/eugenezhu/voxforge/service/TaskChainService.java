@@ -1,19 +1,26 @@
 package com.eugenezhu.voxforge.service;
 
+import com.eugenezhu.voxforge.config.AiConfig;
 import com.eugenezhu.voxforge.model.*;
+import com.eugenezhu.voxforge.rag.CommandUsageTracker;
 import com.eugenezhu.voxforge.repository.SessionRepository;
 import com.eugenezhu.voxforge.repository.TaskChainRepository;
 import com.eugenezhu.voxforge.repository.TaskItemRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @projectName: VoxForge
@@ -27,7 +34,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Service
 @RequiredArgsConstructor
 public class TaskChainService {
+    // 流式生成中等待下一步落库: 每 200ms 查询一次, 最多等待 10s
+    private static final Duration NEXT_TASK_POLL_INTERVAL = Duration.ofMillis(200);
+    private static final int NEXT_TASK_MAX_POLLS = 50;
+
     private final LlmService llmService;
+    private final AiConfig.LlmProperties llmProperties;
     private final TtsService ttsService;
     private final SessionRepository sessionRepository;
     private final TaskChainRepository taskChainRepository;
@@ -35,6 +47,20 @@ public class TaskChainService {
 
     private final TaskStateMachine taskStateMachine;
     private final SagaService sagaService;
+    private final CommandUsageTracker commandUsageTracker;
+
+    /**
+     * 为已有的 task_chains 表添加 generating 列
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initializeSchema() {
+        taskChainRepository.addGeneratingColumn()
+                .subscribe(
+                        rows -> {
+                        },
+                        error -> log.error("添加 task_chains.generating 列失败: {}", error.getMessage())
+                );
+    }
 
     /**
      * 调用 llm 解析用户输入, 获得输出, 生成任务链
@@ -47,7 +73,11 @@ public class TaskChainService {
     public Mono<ResponseDto> parseUserInput(String text, Long sessionId, java.util.Map<String, Object> clientEnv, Long userId) {
         log.info("开始解析用户输入创建任务链，用户ID: {}, 会话ID: {}", userId, sessionId);
 
-        return llmService.parseUserInput(text, clientEnv)  // 调用 llm 解析用户输入
+        if (llmProperties.isStream()) {
+            return parseUserInputStream(text, sessionId, clientEnv, userId);
+        }
+
+        return llmService.parseUserInput(text, clientEnv, sessionId, userId)  // 调用 llm 解析用户输入
                 .flatMap(llmResponse -> {
                     // 解析 llm 输出为任务链
                     TaskChain taskChain = createTaskChain(userId, sessionId);
@@ -116,6 +146,99 @@ public class TaskChainService {
                 });
     }
 
+    /**
+     * 流式解析用户输入: llm 每生成一个任务就立即落库, 第一个任务落库后即返回响应, 剩余任务在后台继续生成并保存
+     * @param text
+     * @param sessionId
+     * @param clientEnv 客户端环境和系统信息（JSON对象）
+     * @param userId
+     * @return
+     */
+    private Mono<ResponseDto> parseUserInputStream(String text, Long sessionId, java.util.Map<String, Object> clientEnv, Long userId) {
+        return Mono.defer(() -> {
+            AtomicInteger stepOrder = new AtomicInteger(0);
+            AtomicReference<String> reply = new AtomicReference<>();
+            Sinks.One<TaskItem> firstTask = Sinks.one();
+
+            // 任务链只在第一个任务到达时创建一次, 生成结束前 generating 为 true
+            Mono<TaskChain> chainMono = Mono.fromSupplier(() -> {
+                        TaskChain taskChain = createTaskChain(userId, sessionId);
+                        taskChain.setGenerating(true);
+                        return taskChain;
+                    })
+                    .flatMap(taskChainRepository::save)
+                    .flatMap(
+                            savedTaskChain -> sessionRepository.findById(sessionId)
+                                    .flatMap(session -> {
+                                        session.setChainId(savedTaskChain.getId());
+                                        session.setUpdatedAt(LocalDateTime.now());
+                                        return sessionRepository.save(session);
+                                    })
+                                    .then(Mono.just(savedTaskChain))
+                    )
+                    .cache();
+
+            // 与请求生命周期解绑, 首个任务返回后剩余任务继续落库
+            llmService.streamUserInput(text, clientEnv, sessionId, userId)
+                    .doOnNext(fragment -> {
+                        if (fragment.getReply() != null) reply.compareAndSet(null, fragment.getReply());
+                    })
+                    .filter(fragment -> fragment.getTasks() != null && !fragment.getTasks().isEmpty())
+                    .concatMap(fragment -> chainMono.flatMap(
+                            chain -> taskItemRepository.save(createTaskItem(fragment.getTasks().get(0), stepOrder.getAndIncrement(), chain.getId(), userId, sessionId, clientEnv))
+                    ))
+                    .doOnNext(firstTask::tryEmitValue)
+                    // 生成结束: 清除 generating, 之后 getNextTask 没有待执行任务即视为执行完毕
+                    .then(Mono.defer(() -> stepOrder.get() == 0 ? Mono.<Integer>empty()
+                            : chainMono.flatMap(chain -> taskChainRepository.updateGenerating(chain.getId(), false))))
+                    .doOnSuccess(v -> {
+                        log.info("流式任务链生成完毕，用户ID: {}, 会话ID: {}, 共有 {} 个任务", userId, sessionId, stepOrder.get());
+                        firstTask.tryEmitEmpty();
+                    })
+                    // 生成中途失败: 已落库的任务链不完整, 标记为失败, 下一次反馈时触发回退
+                    .onErrorResume(error -> {
+                        log.error("流式保存任务失败，用户ID: {}, 会话ID: {}, 已保存 {} 个任务, 错误信息: {}", userId, sessionId, stepOrder.get(), error.getMessage());
+                        firstTask.tryEmitError(error);
+                        if (stepOrder.get() == 0) return Mono.empty();
+                        return chainMono.flatMap(chain -> taskChainRepository.findById(chain.getId()))
+                                .flatMap(chain -> taskChainRepository.updateStatus(chain.getId(), taskStateMachine.next(chain.getStatus(), "FAIL"))
+                                        .then(taskChainRepository.updateGenerating(chain.getId(), false)));
+                    })
+                    .subscribe(
+                            updated -> {
+                            },
+                            error -> log.error("更新流式任务链状态失败，用户ID: {}, 会话ID: {}, 错误信息: {}", userId, sessionId, error.getMessage())
+                    );
+
+            return firstTask.asMono()
+                    .flatMap(task -> {
+                        task.setStatus("READY");
+                        return taskItemRepository.save(task);
+                    })
+                    .flatMap(
+                            updatedTask -> chainMono
+                                    // 只更新状态列, 后台生成结束时会并发清除 generating
+                                    .flatMap(savedTaskChain -> taskChainRepository.findById(savedTaskChain.getId())
+                                            .flatMap(chain -> taskChainRepository.updateStatus(chain.getId(), taskStateMachine.next(chain.getStatus(), "START")))
+                                            .then(ttsService.generateTaskResponse(updatedTask.getTitle()))
+                                            .flatMap(audioUrl -> sessionRepository.findById(sessionId)
+                                                    .map(session -> {
+                                                        ResponseDto response = buildInitialResponse(null, savedTaskChain, List.of(updatedTask), audioUrl, session);
+                                                        // 任务链仍在生成中, 总步骤数未知
+                                                        response.getTaskFeedback().setTotalSteps(null);
+                                                        response.getTaskFeedback().setGenerating(true);
+                                                        return response;
+                                                    })
+                                            )
+                                    )
+                    )
+                    // 没有任务返回空响应
+                    .switchIfEmpty(Mono.fromSupplier(() -> buildEmptyResponse(reply.get())));
+        })
+                .doOnSuccess(response -> log.info("流式创建任务链已返回首个任务，用户ID: {}, 会话ID: {}", userId, sessionId))
+                .doOnError(error -> log.error("创建任务链失败，用户ID: {}, 会话ID: {}, 错误信息: {}", userId, sessionId, error.getMessage()));
+    }
+
     // 动态添加任务到任务链
 
     /**
@@ -143,49 +266,31 @@ public class TaskChainService {
                                                     return getNextTask(savedSession)
                                                             .flatMap(
                                                                     task -> {
-                                                                        if (task != null) {
-                                                                            log.info("找到下一个任务: {}, 状态: {}", task.getId(), task.getStatus());
-                                                                            task.setStatus("READY");
-                                                                            task.setUpdatedAt(LocalDateTime.now());
-                                                                            return taskItemRepository.save(task)
-                                                                                    .flatMap(
-                                                                                            savedTask -> {
-                                                                                                savedSession.setCurrentTaskId(savedTask.getId());
-                                                                                                savedSession.setUpdatedAt(LocalDateTime.now());
-                                                                                                return sessionRepository.save(savedSession)
-                                                                                                        .then(ttsService.generateTaskResponse(savedTask.getTitle())
-                                                                                                                .onErrorReturn("")
-                                                                                                        )
-                                                                                                        .map(audioUrl -> buildTaskResponse(savedTask, audioUrl, savedSession))
-                                                                                                        .switchIfEmpty(Mono.just(buildTaskResponse(savedTask, "", savedSession)));
-                                                                                            }
-                                                                                    );
-                                                                        } else {
-                                                                            log.info("所有任务执行完毕，返回完成响应");
-                                                                            return taskChainRepository.findBySessionId(savedSession.getId())
-                                                                                    .flatMap(
-                                                                                            taskChain -> {
-                                                                                                taskChain.setStatus("COMPLETED");
-                                                                                                taskChain.setUpdatedAt(LocalDateTime.now());
-                                                                                                taskChain.setCompletedAt(LocalDateTime.now());
-                                                                                                return taskChainRepository.save(taskChain);
-                                                                                            }
-                                                                                    )
-                                                                                    .then(Mono.fromCallable(() -> {
-                                                                                        savedSession.setStatus("COMPLETED");
-                                                                                        savedSession.setCurrentTaskId(null);
-                                                                                        savedSession.setUpdatedAt(LocalDateTime.now());
-                                                                                        return savedSession;
-                                                                                    }))
-                                                                                    .flatMap(sessionRepository::save)
-                                                                                    .then(ttsService.textToSpeech("所有任务已完成")
-                                                                                            .onErrorReturn("")
-                                                                                    )
-                                                                                    .map(audioUrl -> buildCompletionResponse(audioUrl, savedSession))
-                                                                                    .switchIfEmpty(Mono.just(buildCompletionResponse("", savedSession)));
-                                                                        }
+                                                                        log.info("找到下一个任务: {}, 状态: {}", task.getId(), task.getStatus());
+                                                                        task.setStatus("READY");
+                                                                        task.setUpdatedAt(LocalDateTime.now());
+                                                                        return taskItemRepository.save(task)
+                                                                                .flatMap(
+                                                                                        savedTask -> {
+                                                                                            savedSession.setCurrentTaskId(savedTask.getId());
+                                                                                            savedSession.setUpdatedAt(LocalDateTime.now());
+                                                                                            return sessionRepository.save(savedSession)
+                                                                                                    .then(ttsService.generateTaskResponse(savedTask.getTitle())
+                                                                                                            .onErrorReturn("")
+                                                                                                    )
+                                                                                                    .map(audioUrl -> buildTaskResponse(savedTask, audioUrl, savedSession))
+                                                                                                    .switchIfEmpty(Mono.fromSupplier(() -> buildTaskResponse(savedTask, "", savedSession)))
+                                                                                                    .flatMap(response -> withTotalSteps(response, savedSession));
+                                                                                        }
+                                                                                );
                                                                     }
-                                                            );
+                                                            )
+                                                            // 没有下一个任务: 任务链仍在生成中时返回生成中响应, 否则任务链执行完毕
+                                                            .switchIfEmpty(Mono.defer(() -> taskChainRepository.findById(tc.getId())
+                                                                    .flatMap(latest -> Boolean.TRUE.equals(latest.getGenerating())
+                                                                            ? buildGeneratingResponse(savedSession)
+                                                                            : completeTaskChain(savedSession))
+                                                            ));
                                                 })
                                 )
                 )
@@ -220,6 +325,50 @@ public class TaskChainService {
                 );
     }
 
+    private Mono<ResponseDto> completeTaskChain(Session session) {
+        log.info("所有任务执行完毕，返回完成响应");
+        return taskChainRepository.findBySessionId(session.getId())
+                .flatMap(
+                        taskChain -> {
+                            taskChain.setStatus("COMPLETED");
+                            taskChain.setUpdatedAt(LocalDateTime.now());
+                            taskChain.setCompletedAt(LocalDateTime.now());
+                            return taskChainRepository.save(taskChain);
+                        }
+                )
+                .then(Mono.fromCallable(() -> {
+                    session.setStatus("COMPLETED");
+                    session.setCurrentTaskId(null);
+                    session.setUpdatedAt(LocalDateTime.now());
+                    return session;
+                }))
+                .flatMap(sessionRepository::save)
+                .then(ttsService.textToSpeech("所有任务已完成")
+                        .onErrorReturn("")
+                )
+                .map(audioUrl -> buildCompletionResponse(audioUrl, session))
+                .switchIfEmpty(Mono.just(buildCompletionResponse("", session)));
+    }
+
+    private Mono<ResponseDto> buildGeneratingResponse(Session session) {
+        log.info("下一个任务仍在生成中，会话ID: {}", session.getId());
+        return ttsService.textToSpeech("任务仍在生成中，请稍候")
+                .onErrorReturn("")
+                .map(audioUrl -> {
+                    ResponseDto response = new ResponseDto();
+                    response.setSessionId(session.getId().toString());
+                    response.setText("任务仍在生成中，请稍候");
+                    response.setAudioUrl(audioUrl);
+                    response.setTaskList(List.of());
+                    ResponseDto.TaskFeedback taskFeedback = new ResponseDto.TaskFeedback();
+                    taskFeedback.setStatus("PENDING");
+                    taskFeedback.setGenerating(true);
+                    taskFeedback.setMessage("任务仍在生成中");
+                    response.setTaskFeedback(taskFeedback);
+                    return response;
+                });
+    }
+
     private ResponseDto buildCompletionResponse(String audioUrl, Session session) {
         ResponseDto response = new ResponseDto();
         response.setSessionId(session.getId().toString());
@@ -248,15 +397,32 @@ public class TaskChainService {
         taskFeedback.setTaskId(task.getId());
         taskFeedback.setStatus("READY");
         taskFeedback.setCurrentStep(task.getStepOrder());
-        // 获取总步骤数
-        taskChainRepository.findBySessionId(session.getId())
-                .flatMap(taskChain -> taskItemRepository.countByTaskChainId(taskChain.getId()))
-                .subscribe(totalSteps -> taskFeedback.setTotalSteps(totalSteps.intValue()));
         taskFeedback.setMessage("任务已准备就绪");
         response.setTaskFeedback(taskFeedback);
         return response;
     }
 
+    /**
+     * 查询任务链的总步骤数并填入响应, 在响应下发前完成; 查询失败时总步骤数保持为空
+     */
+    private Mono<ResponseDto> withTotalSteps(ResponseDto response, Session session) {
+        return taskChainRepository.findBySessionId(session.getId())
+                .flatMap(taskChain -> {
+                    // 生成中的任务链总步骤数未知
+                    if (Boolean.TRUE.equals(taskChain.getGenerating())) {
+                        response.getTaskFeedback().setGenerating(true);
+                        return Mono.empty();
+                    }
+                    return taskItemRepository.countByTaskChainId(taskChain.getId());
+                })
+                .doOnNext(totalSteps -> response.getTaskFeedback().setTotalSteps(totalSteps.intValue()))
+                .thenReturn(response)
+                .onErrorResume(error -> {
+                    log.warn("查询总步骤数失败，会话ID: {}, 错误信息: {}", session.getId(), error.getMessage());
+                    return Mono.just(response);
+                });
+    }
+
     /**
      * 获取下一个任务
      * @param session
@@ -265,16 +431,39 @@ public class TaskChainService {
     private Mono<TaskItem> getNextTask(Session session) {
         return taskChainRepository.findBySessionId(session.getId()) // 获取任务链
                 .flatMap(
-                        taskChain -> {
-                            // 查找下一个待执行的任务
-                            return taskItemRepository.findNextPendingTask(taskChain.getId())
-                                    .switchIfEmpty(
-                                            // 如果没有找到待执行任务，查找失败但可重试的任务
-                                            taskItemRepository.findByTaskChainIdAndStatus(taskChain.getId(), "FAILED")
-                                                    .filter(task -> task.getRetries() < task.getMaxRetries())
-                                                    .next()
-                                    );
-                        }
+                        taskChain -> findNextTask(taskChain.getId())
+                                // 流式生成中的任务链, 下一步可能尚未落库
+                                .switchIfEmpty(Mono.defer(() -> Boolean.TRUE.equals(taskChain.getGenerating())
+                                        ? awaitNextTask(taskChain.getId(), 0)
+                                        : Mono.empty()))
+                );
+    }
+
+    private Mono<TaskItem> findNextTask(Long taskChainId) {
+        // 查找下一个待执行的任务
+        return taskItemRepository.findNextPendingTask(taskChainId)
+                .switchIfEmpty(
+                        // 如果没有找到待执行任务，查找失败但可重试的任务
+                        taskItemRepository.findByTaskChainIdAndStatus(taskChainId, "FAILED")
+                                .filter(task -> task.getRetries() < task.getMaxRetries())
+                                .next()
+                );
+    }
+
+    /**
+     * 轮询等待生成中的任务链落库下一步, 生成结束仍没有任务或等待超时返回空;
+     * 先读取 generating 再查任务, 读到 false 时所有任务已经落库
+     */
+    private Mono<TaskItem> awaitNextTask(Long taskChainId, int attempt) {
+        return Mono.delay(NEXT_TASK_POLL_INTERVAL)
+                .then(taskChainRepository.findById(taskChainId))
+                .flatMap(taskChain -> findNextTask(taskChainId)
+                        .switchIfEmpty(Mono.defer(() -> {
+                            if (!Boolean.TRUE.equals(taskChain.getGenerating()) || attempt + 1 >= NEXT_TASK_MAX_POLLS) {
+                                return Mono.empty();
+                            }
+                            return awaitNextTask(taskChainId, attempt + 1);
+                        }))
                 );
     }
 
@@ -302,6 +491,7 @@ public class TaskChainService {
                                     task.setResult(taskFeedback.getFeedback());
                                     task.setUpdatedAt(LocalDateTime.now());
                                     sagaService.recordTaskSuccess(session.getId(), task);
+                                    commandUsageTracker.record(session.getUserId(), task.getCmd());
                                     break;
                                 case "FAILED":
                                     log.info("任务失败，任务ID: {}, 错误信息: {}", task.getId(), taskFeedback.getFeedback());
@@ -311,11 +501,8 @@ public class TaskChainService {
                                     task.setUpdatedAt(LocalDateTime.now());
                                     if (task.getRetries() >= task.getMaxRetries()) {
                                         taskChainRepository.findBySessionId(session.getId())
-                                                .flatMap(tc -> {
-                                                    tc.setStatus(taskStateMachine.next(tc.getStatus(), "FAIL"));
-                                                    tc.setUpdatedAt(LocalDateTime.now());
-                                                    return taskChainRepository.save(tc);
-                                                })
+                                                // 只更新状态列, 不覆盖流式生成标记
+                                                .flatMap(tc -> taskChainRepository.updateStatus(tc.getId(), taskStateMachine.next(tc.getStatus(), "FAIL")))
                                                 .subscribe();
                                     }
                                     break;
@@ -326,11 +513,7 @@ public class TaskChainService {
                                     task.setRetries(task.getRetries() + 1);
                                     task.setUpdatedAt(LocalDateTime.now());
                                     taskChainRepository.findBySessionId(session.getId())
-                                            .flatMap(tc -> {
-                                                tc.setStatus(taskStateMachine.next(tc.getStatus(), "RETRY"));
-                                                tc.setUpdatedAt(LocalDateTime.now());
-                                                return taskChainRepository.save(tc);
-                                            })
+                                            .flatMap(tc -> taskChainRepository.updateStatus(tc.getId(), taskStateMachine.next(tc.getStatus(), "RETRY")))
                                             .subscribe();
                                     break;
                                 default:
@@ -414,26 +597,30 @@ public class TaskChainService {
         }
 
         for (LlmResponse.TaskDefinition taskDef : taskDefinitions) {
-            TaskItem taskItem = new TaskItem();
-            taskItem.setTitle(taskDef.getTitle());
-            taskItem.setCmd(taskDef.getCmd());
-            taskItem.setUndoCmd(taskDef.getUndoCmd());
-            taskItem.setOs(taskDef.getOs() != null ? taskDef.getOs() : inferOs(clientEnv));
-            taskItem.setShell(taskDef.getShell() != null ? taskDef.getShell() : inferShell(clientEnv));
-            taskItem.setStatus("PENDING");
-            taskItem.setStepOrder(stepOrder.getAndIncrement());
-            taskItem.setRetries(0);
-            taskItem.setMaxRetries(taskDef.getMaxRetries() != null ? taskDef.getMaxRetries() : 3);
-            taskItem.setTaskChainId(taskChainId);
-            taskItem.setUserId(userId);
-            taskItem.setSessionId(sessionId);
-            taskItem.setCreatedAt(LocalDateTime.now());
-            taskItem.setUpdatedAt(LocalDateTime.now());
-            tasks.add(taskItem);
+            tasks.add(createTaskItem(taskDef, stepOrder.getAndIncrement(), taskChainId, userId, sessionId, clientEnv));
         }
         return tasks;
     }
 
+    private TaskItem createTaskItem(LlmResponse.TaskDefinition taskDef, int stepOrder, Long taskChainId, Long userId, Long sessionId, java.util.Map<String, Object> clientEnv) {
+        TaskItem taskItem = new TaskItem();
+        taskItem.setTitle(taskDef.getTitle());
+        taskItem.setCmd(taskDef.getCmd());
+        taskItem.setUndoCmd(taskDef.getUndoCmd());
+        taskItem.setOs(taskDef.getOs() != null ? taskDef.getOs() : inferOs(clientEnv));
+        taskItem.setShell(taskDef.getShell() != null ? taskDef.getShell() : inferShell(clientEnv));
+        taskItem.setStatus("PENDING");
+        taskItem.setStepOrder(stepOrder);
+        taskItem.setRetries(0);
+        taskItem.setMaxRetries(taskDef.getMaxRetries() != null ? taskDef.getMaxRetries() : 3);
+        taskItem.setTaskChainId(taskChainId);
+        taskItem.setUserId(userId);
+        taskItem.setSessionId(sessionId);
+        taskItem.setCreatedAt(LocalDateTime.now());
+        taskItem.setUpdatedAt(LocalDateTime.now());
+        return taskItem;
+    }
+
     /**
      * 新建任务链
      * @param userId
@@ -447,6 +634,7 @@ public class TaskChainService {
         taskChain.setCurrentIndex(0); // 初始任务索引为 0
         taskChain.setVersion(0); // 初始版本为 0
         taskChain.setStatus("PENDING"); // 初始状态为 PENDING
+        taskChain.setGenerating(false);
         taskChain.setCreatedAt(LocalDateTime.now());
         taskChain.setUpdatedAt(LocalDateTime.now());
         return taskChain;
@@ -16,7 +16,7 @@ import java.util.Map;
 public class TaskStateMachine {
 
     private final Map<String, Map<String, String>> table = Map.of(
-            "PENDING", Map.of("START", "IN_PROGRESS"),
+            "PENDING", Map.of("START", "IN_PROGRESS", "FAIL", "FAILED"),
             "IN_PROGRESS", Map.of("COMPLETE", "COMPLETED", "FAIL", "FAILED"),
             "FAILED", Map.of("RETRY", "IN_PROGRESS"),
             "COMPLETED", Map.of()
@@ -0,0 +1,38 @@
+package com.eugenezhu.voxforge.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.util
+ * @className: Hashing
+ * @author: zhuyuchen
+ * @description: 内容指纹 (SHA-256), 用于请求合并键, 嵌入缓存键, 命令模板内容哈希与会话记忆指纹
+ * @date: 2026/10/26 上午9:00
+ */
+public final class Hashing {
+
+    private Hashing() {
+    }
+
+    /**
+     * 计算内容指纹
+     * @param parts 参与计算的字段, 按 String.valueOf 编码
+     * @return 十六进制摘要
+     */
+    public static String fingerprint(Object... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Object part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0); // 分隔符, 避免 ("ab","c") 与 ("a","bc") 冲突
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.eugenezhu.voxforge.benchmark;
+
+import com.eugenezhu.voxforge.llm.LlmResponseDecoder;
+import com.eugenezhu.voxforge.model.LlmResponse;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.benchmark
+ * @className: LlmResponseDecodeBenchmark
+ * @author: zhuyuchen
+ * @description: 对比 /chat/completions 响应的两种解码方式:
+ *               旧实现 (整体读为 Map, 取出 content 字符串, trim/substring 后再反序列化) 与 LlmResponseDecoder 单遍流式解码.
+ *               运行: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.eugenezhu.voxforge.benchmark.LlmResponseDecodeBenchmark,
+ *               或直接在 IDE 中运行 main, 使用 -prof gc 查看分配量
+ * @date: 2026/10/18 上午10:40
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LlmResponseDecodeBenchmark {
+
+    @Param({"20"})
+    private int taskCount;
+
+    @Param({"8192"})
+    private int chunkSize;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] body;
+
+    @Setup
+    public void setup() throws Exception {
+        List<Map<String, Object>> tasks = new ArrayList<>();
+        for (int i = 0; i < taskCount; i++) {
+            Map<String, Object> task = new LinkedHashMap<>();
+            task.put("title", "步骤 " + (i + 1) + ": 清理项目构建目录下 7 天前的日志文件, 失败时保留原文件并给出错误信息");
+            task.put("cmd", "find ./build -name '*.log' -mtime +7 -exec rm -f {} \\; && echo \"done " + i + "\"");
+            task.put("undoCmd", "git checkout -- ./build/logs/step-" + i + " && echo \"restored " + i + "\"");
+            task.put("shell", "bash");
+            task.put("os", "linux");
+            task.put("maxRetries", 3);
+            tasks.add(task);
+        }
+        Map<String, Object> content = new LinkedHashMap<>();
+        content.put("reply", "好的, 我将按以下步骤为您完成构建目录的清理工作");
+        content.put("tasks", tasks);
+        String contentJson = "```json\n" + objectMapper.writeValueAsString(content) + "\n```";
+
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("role", "assistant");
+        message.put("content", contentJson);
+        Map<String, Object> choice = new LinkedHashMap<>();
+        choice.put("index", 0);
+        choice.put("message", message);
+        choice.put("finish_reason", "stop");
+        Map<String, Object> completion = new LinkedHashMap<>();
+        completion.put("id", "chatcmpl-benchmark");
+        completion.put("object", "chat.completion");
+        completion.put("model", "benchmark");
+        completion.put("choices", List.of(choice));
+        completion.put("usage", Map.of("prompt_tokens", 1200, "completion_tokens", 2400, "total_tokens", 3600));
+        body = objectMapper.writeValueAsBytes(completion);
+    }
+
+    /**
+     * 旧实现: 整体解析为 Map, 再对 content 字符串做 trim/substring 后二次反序列化
+     */
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public LlmResponse legacy() throws Exception {
+        Map<String, Object> response = objectMapper.readValue(new String(body, StandardCharsets.UTF_8), new TypeReference<>() {
+        });
+        List<Map<String, Object>> choices = (List<Map<String, Object>>) response.get("choices");
+        Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
+        String content = ((String) message.get("content")).trim();
+        if (content.startsWith("```json")) content = content.substring(7);
+        if (content.startsWith("```")) content = content.substring(3);
+        if (content.endsWith("```")) content = content.substring(0, content.length() - 3);
+        content = content.trim();
+        int start = content.indexOf('{');
+        int end = content.lastIndexOf('}');
+        return objectMapper.readValue(content.substring(start, end + 1), LlmResponse.class);
+    }
+
+    /**
+     * 新实现: 按网络缓冲区分块喂入, 单遍解码
+     */
+    @Benchmark
+    public LlmResponse streaming() {
+        try (LlmResponseDecoder decoder = new LlmResponseDecoder(objectMapper)) {
+            for (int off = 0; off < body.length; off += chunkSize) {
+                decoder.feed(ByteBuffer.wrap(body, off, Math.min(chunkSize, body.length - off)));
+            }
+            return decoder.finish();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(LlmResponseDecodeBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,153 @@
+package com.eugenezhu.voxforge.benchmark;
+
+import com.eugenezhu.voxforge.rag.HnswIndex;
+import com.eugenezhu.voxforge.rag.VectorKernels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.benchmark
+ * @className: PartitionedIndexBenchmark
+ * @author: zhuyuchen
+ * @description: 全局 HNSW 图加操作系统过滤与按操作系统分区的 HNSW 图的查询延迟对比, 单位为每次查询的微秒数;
+ *               partitions 为操作系统数量, 各分区条数相同. setup 中输出两种方式相对精确 top-k 的 recall@k.
+ *               运行方式同 LlmResponseDecodeBenchmark
+ * @date: 2026/10/22 上午10:30
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class PartitionedIndexBenchmark {
+
+    private static final int CORPUS = 10000;
+    private static final int DIMENSION = 256;
+    private static final int CLUSTERS = 64;
+    private static final int QUERIES = 200;
+    private static final int K = 5;
+
+    @Param({"4", "16"})
+    private int partitions;
+
+    @Param({"32", "128"})
+    private int efSearch;
+
+    private HnswIndex<Integer> global;
+    private List<HnswIndex<Integer>> partitioned;
+    private float[][] corpus;
+    private float[][] queries;
+    private int[] queryPartitions;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        float[][] centers = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) centers[c] = randomVector(random, 1);
+        corpus = new float[CORPUS][];
+        global = new HnswIndex<>(16, 100);
+        partitioned = new ArrayList<>();
+        for (int p = 0; p < partitions; p++) partitioned.add(new HnswIndex<>(16, 100));
+        for (int i = 0; i < CORPUS; i++) {
+            corpus[i] = VectorKernels.normalize(perturb(random, centers[random.nextInt(CLUSTERS)]));
+            global.add("c" + i, i, corpus[i]);
+            partitioned.get(i % partitions).add("c" + i, i, corpus[i]);
+        }
+        queries = new float[QUERIES][];
+        queryPartitions = new int[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = VectorKernels.normalize(perturb(random, centers[random.nextInt(CLUSTERS)]));
+            queryPartitions[i] = random.nextInt(partitions);
+        }
+
+        double globalRecall = 0;
+        double partitionedRecall = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            Set<Integer> exact = exact(queries[i], queryPartitions[i]);
+            globalRecall += recall(exact, searchGlobal(i));
+            partitionedRecall += recall(exact, searchPartitioned(i));
+        }
+        System.out.printf("%nrecall@%d: global %.3f, partitioned %.3f%n", K, globalRecall / QUERIES, partitionedRecall / QUERIES);
+    }
+
+    @Benchmark
+    public List<HnswIndex.Result<Integer>> globalFiltered() {
+        return searchGlobal(nextQuery());
+    }
+
+    @Benchmark
+    public List<HnswIndex.Result<Integer>> partitioned() {
+        return searchPartitioned(nextQuery());
+    }
+
+    private List<HnswIndex.Result<Integer>> searchGlobal(int q) {
+        int partition = queryPartitions[q];
+        return global.search(queries[q], K, efSearch, i -> i % partitions == partition);
+    }
+
+    private List<HnswIndex.Result<Integer>> searchPartitioned(int q) {
+        return partitioned.get(queryPartitions[q]).search(queries[q], K, efSearch, i -> true);
+    }
+
+    private int nextQuery() {
+        next = (next + 1) % QUERIES;
+        return next;
+    }
+
+    private Set<Integer> exact(float[] query, int partition) {
+        return new HashSet<>(IntStream.range(0, CORPUS)
+                .filter(i -> i % partitions == partition)
+                .boxed()
+                .sorted(Comparator.comparingDouble((Integer i) -> VectorKernels.dot(query, corpus[i])).reversed())
+                .limit(K)
+                .toList());
+    }
+
+    private static double recall(Set<Integer> exact, List<HnswIndex.Result<Integer>> hits) {
+        return (double) hits.stream().filter(r -> exact.contains(r.value())).count() / exact.size();
+    }
+
+    private static float[] randomVector(Random random, double sigma) {
+        float[] v = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) v[i] = (float) (random.nextGaussian() * sigma);
+        return v;
+    }
+
+    private static float[] perturb(Random random, float[] center) {
+        float[] v = randomVector(random, 0.6);
+        for (int i = 0; i < DIMENSION; i++) v[i] += center[i];
+        return v;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PartitionedIndexBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,138 @@
+package com.eugenezhu.voxforge.benchmark;
+
+import com.eugenezhu.voxforge.config.RagConfig;
+import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import com.eugenezhu.voxforge.rag.CommandVectorIndex;
+import com.eugenezhu.voxforge.rag.VectorKernels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.benchmark
+ * @className: TwoStageIndexBenchmark
+ * @author: zhuyuchen
+ * @description: CommandVectorIndex 两阶段检索 (前 coarseDimension 维建图取 shortlist 个候选, 再全维重排) 与全维 HNSW 的查询延迟对比,
+ *               单位为每次查询的微秒数; coarseDimension = 1024 即不截断的基线. 合成向量的各维方差随维度下标递减,
+ *               模拟 Matryoshka 式嵌入把主要信息放在前缀维度. setup 中输出相对全维精确 top-k 的 recall@k 与图中向量字节数.
+ *               运行方式同 LlmResponseDecodeBenchmark
+ * @date: 2026/10/24 上午10:00
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class TwoStageIndexBenchmark {
+
+    private static final String OS = "Ubuntu 22.04";
+    private static final int CORPUS = 10000;
+    private static final int DIMENSION = 1024;
+    private static final int CLUSTERS = 64;
+    private static final int QUERIES = 200;
+    private static final int K = 5;
+
+    @Param({"128", "256", "1024"})
+    private int coarseDimension;
+
+    @Param({"20", "50"})
+    private int shortlist;
+
+    private CommandVectorIndex index;
+    private double[][] queries;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        float[][] centers = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) centers[c] = randomVector(random, 1);
+        String floatPath = System.getProperty("java.io.tmpdir") + "/voxforge/bench-two-stage-" + System.nanoTime() + ".bin";
+        index = new CommandVectorIndex(
+                new RagConfig.HnswProperties(true, 16, 100, 64, 512, 0),
+                new RagConfig.QuantizationProperties(false, 4, floatPath, 0),
+                new RagConfig.TwoStageProperties(coarseDimension < DIMENSION, coarseDimension, 0, shortlist),
+                null);
+        float[][] corpus = new float[CORPUS][];
+        for (int i = 0; i < CORPUS; i++) {
+            corpus[i] = VectorKernels.normalize(perturb(random, centers[random.nextInt(CLUSTERS)]));
+            index.upsert(new CommandTemplate("cmd-" + i, "desc-" + i, OS, "bash"), toDouble(corpus[i]));
+        }
+        queries = new double[QUERIES][];
+        double recall = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            float[] q = VectorKernels.normalize(perturb(random, centers[random.nextInt(CLUSTERS)]));
+            queries[i] = toDouble(q);
+            Set<String> exact = new HashSet<>(IntStream.range(0, CORPUS).boxed()
+                    .sorted(Comparator.comparingDouble((Integer c) -> VectorKernels.dot(q, corpus[c])).reversed())
+                    .limit(K)
+                    .map(c -> "cmd-" + c)
+                    .toList());
+            recall += (double) index.search(OS, queries[i], K).stream().filter(hit -> exact.contains(hit.getTemplate().getCmd())).count() / K;
+        }
+        System.out.printf("%nrecall@%d: %.3f, 图中向量 %d 字节%n", K, recall / QUERIES, index.stats().get("vectorBytes"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        index.close();
+    }
+
+    @Benchmark
+    public List<ScoredCommand> search() {
+        next = (next + 1) % QUERIES;
+        return index.search(OS, queries[next], K);
+    }
+
+    /**
+     * 第 i 维的标准差为 sigma / sqrt(1 + i / 32), 前缀维度方差大, 截断后仍保留大部分区分度
+     */
+    private static float[] randomVector(Random random, double sigma) {
+        float[] v = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) v[i] = (float) (random.nextGaussian() * sigma / Math.sqrt(1 + i / 32.0));
+        return v;
+    }
+
+    private static float[] perturb(Random random, float[] center) {
+        float[] v = randomVector(random, 0.6);
+        for (int i = 0; i < DIMENSION; i++) v[i] += center[i];
+        return v;
+    }
+
+    private static double[] toDouble(float[] v) {
+        double[] out = new double[v.length];
+        for (int i = 0; i < v.length; i++) out[i] = v[i];
+        return out;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TwoStageIndexBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
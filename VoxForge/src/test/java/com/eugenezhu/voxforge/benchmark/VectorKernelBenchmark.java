@@ -0,0 +1,167 @@
+package com.eugenezhu.voxforge.benchmark;
+
+import com.eugenezhu.voxforge.rag.ScalarKernels;
+import com.eugenezhu.voxforge.rag.SimdKernels;
+import com.eugenezhu.voxforge.rag.VectorKernels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.benchmark
+ * @className: VectorKernelBenchmark
+ * @author: zhuyuchen
+ * @description: 相似度计算吞吐量, 结果单位为每秒计算的向量数: 一个查询向量与 CORPUS 个向量逐一计算.
+ *               double* 为旧实现 (double[] 单累加器循环), scalar* 为 ScalarKernels, simd* 为 SimdKernels;
+ *               *Int8 为量化索引使用的 float 与 int8 码的内积. 运行方式同 LlmResponseDecodeBenchmark
+ * @date: 2026/10/20 下午3:10
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class VectorKernelBenchmark {
+
+    private static final int CORPUS = 1000;
+
+    @Param({"256", "768", "1024"})
+    private int dimension;
+
+    private float[] query;
+    private float[][] corpus;
+    private byte[][] codes;
+    private double[] queryDouble;
+    private double[][] corpusDouble;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        query = VectorKernels.normalize(randomVector(random));
+        corpus = new float[CORPUS][];
+        corpusDouble = new double[CORPUS][];
+        for (int i = 0; i < CORPUS; i++) {
+            corpus[i] = VectorKernels.normalize(randomVector(random));
+            corpusDouble[i] = toDouble(corpus[i]);
+        }
+        queryDouble = toDouble(query);
+        codes = new byte[CORPUS][];
+        for (int i = 0; i < CORPUS; i++) codes[i] = VectorKernels.quantize(corpus[i], VectorKernels.int8Scale(corpus[i]));
+        if (!VectorKernels.isSimd()) {
+            System.out.println("\nVector API 不可用, simd* 结果无参考价值");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS)
+    public double doubleDot() {
+        double best = -1;
+        for (double[] v : corpusDouble) {
+            double s = 0;
+            for (int i = 0; i < v.length; i++) s += v[i] * queryDouble[i];
+            best = Math.max(best, s);
+        }
+        return best;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS)
+    public float scalarDot() {
+        float best = -1;
+        for (float[] v : corpus) best = Math.max(best, ScalarKernels.dot(query, v));
+        return best;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS)
+    public float simdDot() {
+        float best = -1;
+        for (float[] v : corpus) best = Math.max(best, SimdKernels.dot(query, v));
+        return best;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS)
+    public float scalarDotInt8() {
+        float best = -1;
+        for (byte[] c : codes) best = Math.max(best, ScalarKernels.dot(query, c));
+        return best;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS)
+    public float simdDotInt8() {
+        float best = -1;
+        for (byte[] c : codes) best = Math.max(best, SimdKernels.dot(query, c));
+        return best;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS)
+    public float scalarCosine() {
+        float best = -1;
+        for (float[] v : corpus) best = Math.max(best, ScalarKernels.cosine(query, v));
+        return best;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS)
+    public float simdCosine() {
+        float best = -1;
+        for (float[] v : corpus) best = Math.max(best, SimdKernels.cosine(query, v));
+        return best;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS)
+    public float scalarL2() {
+        float best = Float.MAX_VALUE;
+        for (float[] v : corpus) best = Math.min(best, ScalarKernels.l2Squared(query, v));
+        return best;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CORPUS)
+    public float simdL2() {
+        float best = Float.MAX_VALUE;
+        for (float[] v : corpus) best = Math.min(best, SimdKernels.l2Squared(query, v));
+        return best;
+    }
+
+    private float[] randomVector(Random random) {
+        float[] v = new float[dimension];
+        for (int i = 0; i < dimension; i++) v[i] = (float) random.nextGaussian();
+        return v;
+    }
+
+    private static double[] toDouble(float[] v) {
+        double[] d = new double[v.length];
+        for (int i = 0; i < v.length; i++) d[i] = v[i];
+        return d;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(VectorKernelBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
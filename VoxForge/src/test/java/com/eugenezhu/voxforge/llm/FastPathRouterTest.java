@@ -0,0 +1,90 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.config.AiConfig;
+import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.eugenezhu.voxforge.model.LlmResponse;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: FastPathRouterTest
+ * @author: zhuyuchen
+ * @description: 检索置信度路由: 分数与领先幅度足够, 单步意图且系统/shell 一致时走快速路径, 其余情况按原因回退到 llm
+ * @date: 2026/10/26 下午3:00
+ */
+class FastPathRouterTest {
+
+    private static final Map<String, Object> LINUX = Map.of("os", "Ubuntu 22.04", "shell", "/bin/bash");
+    private static final CommandTemplate DF = new CommandTemplate("df -h", "查看磁盘空间", "Ubuntu 22.04", "bash");
+    private static final CommandTemplate DU = new CommandTemplate("du -sh .", "查看目录大小", "Ubuntu 22.04", "bash");
+
+    private final FastPathRouter router = new FastPathRouter(new AiConfig.LlmFastPathProperties(true, 0.85, 0.05));
+
+    @Test
+    void buildsResponseFromConfidentTopHit() {
+        LlmResponse response = router.route("查看磁盘空间", LINUX, List.of(vector(DF, 0.93), vector(DU, 0.80)));
+
+        assertThat(response).isNotNull();
+        assertThat(response.getTasks()).singleElement().satisfies(task -> {
+            assertThat(task.getCmd()).isEqualTo("df -h");
+            assertThat(task.getTitle()).isEqualTo("查看磁盘空间");
+            assertThat(task.getShell()).isEqualTo("bash");
+        });
+    }
+
+    @Test
+    void rejectsLowScoreAndLowMargin() {
+        assertThat(router.route("查看磁盘空间", LINUX, List.of(vector(DF, 0.80)))).isNull();
+        assertThat(router.route("查看磁盘空间", LINUX, List.of(vector(DF, 0.93), vector(DU, 0.90)))).isNull();
+        assertThat(router.stats()).containsEntry("reject[low_score]", 1L).containsEntry("reject[low_margin]", 1L);
+    }
+
+    @Test
+    void marginUsesBestRunnerUpNotSecondPlace() {
+        // 融合结果不按相似度排序, 第三名的相似度更接近第一名
+        List<ScoredCommand> hits = List.of(
+                new ScoredCommand(DF, 0.03, ScoredCommand.SOURCE_HYBRID, 0.93),
+                new ScoredCommand(DU, 0.02, ScoredCommand.SOURCE_HYBRID, 0.70),
+                new ScoredCommand(DU, 0.01, ScoredCommand.SOURCE_HYBRID, 0.91));
+
+        assertThat(router.route("查看磁盘空间", LINUX, hits)).isNull();
+        assertThat(router.stats()).containsEntry("reject[low_margin]", 1L);
+    }
+
+    @Test
+    void rejectsMultiStepIntent() {
+        assertThat(router.route("查看磁盘空间然后清理缓存", LINUX, List.of(vector(DF, 0.95)))).isNull();
+        assertThat(router.stats()).containsEntry("reject[multi_step]", 1L);
+    }
+
+    @Test
+    void rejectsEnvironmentMismatch() {
+        assertThat(router.route("查看磁盘空间", Map.of("os", "Windows 11"), List.of(vector(DF, 0.95)))).isNull();
+        assertThat(router.route("查看磁盘空间", Map.of("os", "Ubuntu 22.04", "shell", "zsh"), List.of(vector(DF, 0.95)))).isNull();
+        assertThat(router.stats()).containsEntry("reject[os_mismatch]", 1L).containsEntry("reject[shell_mismatch]", 1L);
+    }
+
+    @Test
+    void rejectsHitsWithoutVectorSimilarity() {
+        assertThat(router.route("查看磁盘空间", LINUX, List.of(new ScoredCommand(DF, 7.5, ScoredCommand.SOURCE_LEXICAL)))).isNull();
+        assertThat(router.route("查看磁盘空间", LINUX, List.of())).isNull();
+        assertThat(router.stats()).containsEntry("reject[not_vector]", 1L).containsEntry("reject[no_hit]", 1L);
+    }
+
+    @Test
+    void disabledRouterNeverRoutes() {
+        FastPathRouter disabled = new FastPathRouter(new AiConfig.LlmFastPathProperties(false, 0.85, 0.05));
+        assertThat(disabled.route("查看磁盘空间", LINUX, List.of(vector(DF, 0.99)))).isNull();
+    }
+
+    private static ScoredCommand vector(CommandTemplate template, double similarity) {
+        return new ScoredCommand(template, similarity, ScoredCommand.SOURCE_VECTOR);
+    }
+}
@@ -0,0 +1,93 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.config.AiConfig;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: HedgingPolicyTest
+ * @author: zhuyuchen
+ * @description: 对冲延迟: 样本不足时使用初始延迟, 样本足够后取滚动分位延迟, 不低于下限; 窗口只保留最近的样本, 删失样本参与计算
+ * @date: 2026/10/26 下午2:00
+ */
+class HedgingPolicyTest {
+
+    private static final String KEY = "completion:primary";
+
+    @Test
+    void usesInitialDelayUntilEnoughSamples() {
+        HedgingPolicy policy = policy(0.9, 10, 3);
+        policy.recordLatency(KEY, ms(100));
+        policy.recordLatency(KEY, ms(200));
+
+        assertThat(policy.hedgeDelay(KEY)).isEqualTo(Duration.ofMillis(800));
+        assertThat(policy.hedgeDelay("stream:primary")).isEqualTo(Duration.ofMillis(800));
+    }
+
+    @Test
+    void usesPercentileOfWindow() {
+        HedgingPolicy policy = policy(0.9, 10, 3);
+        for (int i = 1; i <= 10; i++) policy.recordLatency(KEY, ms(i * 100));
+
+        // 10 个样本的 p90 为第 9 个
+        assertThat(policy.hedgeDelay(KEY)).isEqualTo(Duration.ofMillis(900));
+    }
+
+    @Test
+    void windowKeepsOnlyRecentSamples() {
+        HedgingPolicy policy = policy(1.0, 3, 1);
+        policy.recordLatency(KEY, ms(5000));
+        for (int i = 0; i < 3; i++) policy.recordLatency(KEY, ms(300));
+
+        assertThat(policy.hedgeDelay(KEY)).isEqualTo(Duration.ofMillis(300));
+    }
+
+    @Test
+    void neverBelowMinDelay() {
+        HedgingPolicy policy = policy(0.5, 10, 1);
+        policy.recordLatency(KEY, ms(10));
+
+        assertThat(policy.hedgeDelay(KEY)).isEqualTo(Duration.ofMillis(50));
+    }
+
+    @Test
+    void censoredSamplesRaiseDelay() {
+        HedgingPolicy policy = policy(0.5, 4, 1);
+        policy.recordLatency(KEY, ms(100));
+        policy.recordLatency(KEY, ms(100));
+        // 主模型输掉对冲被取消, 真实延迟至少为已耗时
+        policy.recordCensored(KEY, ms(1000));
+        policy.recordCensored(KEY, ms(1000));
+        policy.recordCensored(KEY, ms(1000));
+
+        assertThat(policy.hedgeDelay(KEY)).isEqualTo(Duration.ofMillis(1000));
+        assertThat(policy.stats()).containsEntry("censored", 3L);
+    }
+
+    @Test
+    void countsHedgeOutcomes() {
+        HedgingPolicy policy = policy(0.9, 10, 3);
+        policy.recordHedge();
+        policy.recordHedge();
+        policy.recordHedgeWin();
+        policy.recordHedgeRejected();
+
+        assertThat(policy.stats())
+                .containsEntry("hedges", 2L)
+                .containsEntry("hedgeWins", 1L)
+                .containsEntry("hedgeRejected", 1L);
+    }
+
+    private static HedgingPolicy policy(double percentile, int windowSize, int minSamples) {
+        return new HedgingPolicy(new AiConfig.LlmHedgeProperties(true, percentile, windowSize, minSamples, Duration.ofMillis(800), Duration.ofMillis(50)));
+    }
+
+    private static long ms(long millis) {
+        return Duration.ofMillis(millis).toNanos();
+    }
+}
@@ -0,0 +1,141 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.config.AiConfig;
+import com.eugenezhu.voxforge.model.LlmResponse;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: LlmResponseCacheTest
+ * @author: zhuyuchen
+ * @description: llm 解析结果缓存的精确匹配, 语义匹配, 环境与上下文指纹隔离, TTL 过期与 LRU 淘汰
+ * @date: 2026/10/25 下午2:00
+ */
+class LlmResponseCacheTest {
+
+    private static final Map<String, Object> LINUX = Map.of("os", "Ubuntu 22.04", "shell", "bash", "cwd", "/home/a");
+    private static final double[] QUERY = {1, 0, 0};
+
+    @Test
+    void exactHitOnNormalizedText() {
+        LlmResponseCache cache = cache(Duration.ofMinutes(10), 8);
+        cache.put("查看磁盘空间", LINUX, "", null, response("df -h"));
+
+        assertThat(cache.getExact("  查看磁盘空间。", LINUX, "")).isEqualTo(response("df -h"));
+        // cwd 不在 envKeys 中, 不影响指纹
+        assertThat(cache.getExact("查看磁盘空间", Map.of("os", "ubuntu 22.04", "shell", "BASH", "cwd", "/tmp"), "")).isNotNull();
+    }
+
+    @Test
+    void environmentAndContextSeparateEntries() {
+        LlmResponseCache cache = cache(Duration.ofMinutes(10), 8);
+        cache.put("查看磁盘空间", LINUX, "session-a", QUERY, response("df -h"));
+
+        assertThat(cache.getExact("查看磁盘空间", Map.of("os", "Windows 11", "shell", "powershell"), "session-a")).isNull();
+        assertThat(cache.getExact("查看磁盘空间", LINUX, "session-b")).isNull();
+        assertThat(cache.getSimilar(QUERY, LINUX, "session-b")).isNull();
+        assertThat(cache.getSimilar(QUERY, LINUX, "session-a")).isEqualTo(response("df -h"));
+    }
+
+    @Test
+    void semanticHitRespectsThreshold() {
+        LlmResponseCache cache = cache(Duration.ofMinutes(10), 8);
+        cache.put("查看磁盘空间", LINUX, "", QUERY, response("df -h"));
+
+        assertThat(cache.getSimilar(new double[]{0.99, 0.141, 0}, LINUX, "")).isEqualTo(response("df -h"));
+        assertThat(cache.getSimilar(new double[]{0.8, 0.6, 0}, LINUX, "")).isNull();
+        assertThat(cache.stats()).containsEntry("semanticHits", 1L).containsEntry("semanticMisses", 1L);
+    }
+
+    @Test
+    void countsExactMissesWithoutSemanticLookup() {
+        LlmResponseCache cache = cache(Duration.ofMinutes(10), 8);
+        cache.put("查看磁盘空间", LINUX, "", QUERY, response("df -h"));
+
+        // 检索结果缓存命中时不计算查询向量, 只经过精确匹配层
+        assertThat(cache.getExact("查看内存", LINUX, "")).isNull();
+        assertThat(cache.getSimilar(null, LINUX, "")).isNull();
+        assertThat(cache.getExact("查看磁盘空间", LINUX, "")).isNotNull();
+        assertThat(cache.stats())
+                .containsEntry("exactHits", 1L)
+                .containsEntry("exactMisses", 1L)
+                .containsEntry("semanticMisses", 0L);
+    }
+
+    @Test
+    void replacingEntryKeepsOneSemanticCandidate() {
+        LlmResponseCache cache = cache(Duration.ofMinutes(10), 8);
+        cache.put("查看磁盘空间", LINUX, "", QUERY, response("df -h"));
+        cache.put("查看磁盘空间", LINUX, "", QUERY, response("df -hT"));
+
+        assertThat(cache.getSimilar(QUERY, LINUX, "")).isEqualTo(response("df -hT"));
+        assertThat(cache.stats()).containsEntry("semanticSize", 1L);
+    }
+
+    @Test
+    void expiredEntriesAreDropped() {
+        LlmResponseCache cache = cache(Duration.ZERO, 8);
+        cache.put("查看磁盘空间", LINUX, "", QUERY, response("df -h"));
+
+        assertThat(cache.getExact("查看磁盘空间", LINUX, "")).isNull();
+        assertThat(cache.getSimilar(QUERY, LINUX, "")).isNull();
+        assertThat(cache.stats()).containsEntry("exactSize", 0L).containsEntry("semanticSize", 0L);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        LlmResponseCache cache = cache(Duration.ofMinutes(10), 2);
+        cache.put("a", LINUX, "", null, response("a"));
+        cache.put("b", LINUX, "", null, response("b"));
+        cache.getExact("a", LINUX, ""); // a 成为最近使用
+        cache.put("c", LINUX, "", null, response("c"));
+
+        assertThat(cache.getExact("a", LINUX, "")).isNotNull();
+        assertThat(cache.getExact("b", LINUX, "")).isNull();
+        assertThat(cache.getExact("c", LINUX, "")).isNotNull();
+        assertThat(cache.stats()).containsEntry("evictions", 1L);
+    }
+
+    @Test
+    void evictedSemanticEntryLeavesItsScope() {
+        LlmResponseCache cache = cache(Duration.ofMinutes(10), 1);
+        cache.put("a", LINUX, "session-a", QUERY, response("a"));
+        cache.put("b", LINUX, "session-b", QUERY, response("b"));
+
+        assertThat(cache.getSimilar(QUERY, LINUX, "session-a")).isNull();
+        assertThat(cache.getSimilar(QUERY, LINUX, "session-b")).isEqualTo(response("b"));
+    }
+
+    @Test
+    void skipsResponsesWithoutTasks() {
+        LlmResponseCache cache = cache(Duration.ofMinutes(10), 8);
+        LlmResponse empty = new LlmResponse();
+        empty.setReply("你好");
+        empty.setTasks(List.of());
+        cache.put("你好", LINUX, "", QUERY, empty);
+
+        assertThat(cache.getExact("你好", LINUX, "")).isNull();
+        assertThat(cache.stats()).containsEntry("exactSize", 0L);
+    }
+
+    private static LlmResponseCache cache(Duration ttl, int maxEntries) {
+        return new LlmResponseCache(new AiConfig.LlmCacheProperties(true, maxEntries, maxEntries, ttl, 0.95, List.of("os", "shell")));
+    }
+
+    private static LlmResponse response(String cmd) {
+        LlmResponse.TaskDefinition task = new LlmResponse.TaskDefinition();
+        task.setTitle(cmd);
+        task.setCmd(cmd);
+        LlmResponse response = new LlmResponse();
+        response.setReply("好的");
+        response.setTasks(List.of(task));
+        return response;
+    }
+}
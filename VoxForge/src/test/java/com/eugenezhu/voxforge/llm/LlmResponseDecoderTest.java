@@ -0,0 +1,95 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.model.LlmResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: LlmResponseDecoderTest
+ * @author: zhuyuchen
+ * @description: /chat/completions 响应的流式解码: 任意位置切分缓冲区 (包括多字节字符中间) 结果一致,
+ *               去除 ```json 包裹, 只取 choices[0].message.content, 格式不符时返回错误响应
+ * @date: 2026/10/26 下午4:00
+ */
+class LlmResponseDecoderTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String CONTENT = "```json\n{\"reply\": \"好的，正在查看磁盘空间\", \"tasks\": ["
+            + "{\"title\": \"查看磁盘空间\", \"cmd\": \"df -h\", \"shell\": \"bash\", \"os\": \"Ubuntu 22.04\"}]}\n```";
+
+    @Test
+    void decodesContentOfFirstChoice() {
+        LlmResponse response = decode(completion(CONTENT), Integer.MAX_VALUE);
+
+        assertThat(response.getReply()).isEqualTo("好的，正在查看磁盘空间");
+        assertThat(response.getTasks()).singleElement().satisfies(task -> {
+            assertThat(task.getCmd()).isEqualTo("df -h");
+            assertThat(task.getOs()).isEqualTo("Ubuntu 22.04");
+        });
+    }
+
+    @Test
+    void sameResultForEveryChunkSize() {
+        byte[] body = completion(CONTENT);
+        LlmResponse whole = decode(body, Integer.MAX_VALUE);
+        // 1 字节切分会把每个中文字符的 UTF-8 编码拆到多个缓冲区
+        for (int chunk : new int[]{1, 2, 3, 7, 64}) {
+            assertThat(decode(body, chunk)).as("chunk=%d", chunk).isEqualTo(whole);
+        }
+    }
+
+    @Test
+    void ignoresOtherChoicesAndNestedContentFields() {
+        String body = "{\"meta\": {\"content\": \"{\\\"reply\\\": \\\"wrong\\\"}\"}, \"choices\": ["
+                + "{\"message\": {\"role\": \"assistant\", \"content\": " + MAPPER.valueToTree(CONTENT) + "}},"
+                + "{\"message\": {\"content\": \"{\\\"reply\\\": \\\"second\\\"}\"}}]}";
+
+        assertThat(decode(body.getBytes(StandardCharsets.UTF_8), 5).getReply()).isEqualTo("好的，正在查看磁盘空间");
+    }
+
+    @Test
+    void missingContentIsFormatError() {
+        LlmResponse response = decode("{\"choices\": []}".getBytes(StandardCharsets.UTF_8), 4);
+
+        assertThat(response.getReply()).isEqualTo("LLM响应格式错误");
+        assertThat(response.getTasks()).isEmpty();
+    }
+
+    @Test
+    void contentWithoutJsonIsParseFailure() {
+        assertThat(decode(completion("抱歉，我无法理解"), 8).getReply()).isEqualTo("解析失败");
+        assertThat(decode(completion("{\"reply\": }"), 8).getReply()).isEqualTo("解析LLM响应失败");
+    }
+
+    @Test
+    void truncatedBodyIsParseFailure() {
+        byte[] body = completion(CONTENT);
+        byte[] truncated = Arrays.copyOf(body, 20);
+
+        assertThat(decode(truncated, 4).getReply()).isEqualTo("解析LLM响应失败");
+    }
+
+    private static LlmResponse decode(byte[] body, int chunk) {
+        try (LlmResponseDecoder decoder = new LlmResponseDecoder(MAPPER)) {
+            for (int i = 0; i < body.length; i += chunk) {
+                decoder.feed(ByteBuffer.wrap(body, i, Math.min(chunk, body.length - i)));
+            }
+            return decoder.finish();
+        }
+    }
+
+    private static byte[] completion(String content) {
+        String body = "{\"id\": \"chatcmpl-1\", \"choices\": [{\"index\": 0, \"message\": {\"role\": \"assistant\", \"content\": "
+                + MAPPER.valueToTree(content) + "}, \"finish_reason\": \"stop\"}], \"usage\": {\"total_tokens\": 42}}";
+        return body.getBytes(StandardCharsets.UTF_8);
+    }
+}
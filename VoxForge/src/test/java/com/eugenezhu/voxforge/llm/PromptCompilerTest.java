@@ -0,0 +1,84 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: PromptCompilerTest
+ * @author: zhuyuchen
+ * @description: 提示词前缀稳定性: 不同环境与候选命令编译出的提示词共享字节级相同的静态前缀, 请求相关内容只出现在前缀之后;
+ *               相同内容的环境信息只序列化一次
+ * @date: 2026/10/26 下午3:30
+ */
+class PromptCompilerTest {
+
+    private final PromptCompiler compiler = new PromptCompiler(new ObjectMapper());
+
+    @Test
+    void startPromptsShareStaticPrefix() {
+        String linux = compiler.compileStart(Map.of("os", "Ubuntu 22.04", "shell", "bash"),
+                List.of(new CommandTemplate("df -h", "查看磁盘空间", "Ubuntu 22.04", "bash")));
+        String windows = compiler.compileStart(Map.of("os", "Windows 11", "shell", "powershell"),
+                List.of(new CommandTemplate("Get-PSDrive", "查看磁盘空间", "Windows 11", "powershell")));
+        String bare = compiler.compileStart(null, List.of());
+
+        assertThat(List.of(linux, windows, bare)).allSatisfy(prompt -> assertThat(prompt).startsWith(PromptCompiler.START_PREFIX));
+        assertThat(PromptCompiler.START_PREFIX).doesNotContain("df -h", "Get-PSDrive", "用户的客户端环境信息");
+        assertThat(commonPrefixLength(linux, windows)).isGreaterThanOrEqualTo(PromptCompiler.START_PREFIX.length());
+    }
+
+    @Test
+    void nextPromptsShareStaticPrefix() {
+        String first = compiler.compileNext("查看磁盘空间", "成功", Map.of("os", "Ubuntu 22.04"), "");
+        String second = compiler.compileNext("重启服务", "权限不足", null, "用户：重启 nginx");
+
+        assertThat(first).startsWith(PromptCompiler.NEXT_PREFIX);
+        assertThat(second).startsWith(PromptCompiler.NEXT_PREFIX).endsWith("用户反馈：权限不足\n");
+    }
+
+    @Test
+    void keepsAtMostFiveCandidatesInOrder() {
+        List<CommandTemplate> candidates = List.of(
+                new CommandTemplate("c1", "d1", "", ""), new CommandTemplate("c2", "d2", "", ""),
+                new CommandTemplate("c3", "d3", "", ""), new CommandTemplate("c4", "d4", "", ""),
+                new CommandTemplate("c5", "d5", "", ""), new CommandTemplate("c6", "d6", "", ""));
+        String prompt = compiler.compileStart(Map.of("os", "Ubuntu 22.04"), candidates);
+
+        assertThat(prompt).contains("1. c1 - d1\n", "5. c5 - d5\n").doesNotContain("c6");
+        assertThat(prompt.indexOf("1. c1")).isLessThan(prompt.indexOf("2. c2"));
+    }
+
+    @Test
+    void serializesSameEnvironmentOnce() {
+        Map<String, Object> env = new HashMap<>(Map.of("os", "Ubuntu 22.04", "shell", "bash"));
+        String first = compiler.compileStart(env, List.of());
+        String second = compiler.compileStart(Map.of("shell", "bash", "os", "Ubuntu 22.04"), List.of());
+        env.put("cwd", "/tmp"); // 调用方修改原 map 不影响已缓存的条目
+
+        assertThat(second).isEqualTo(first);
+        assertThat(compiler.compileStart(Map.of("os", "Ubuntu 22.04", "shell", "bash"), List.of())).isEqualTo(first);
+        assertThat(compiler.stats()).containsEntry("envMisses", 1L).containsEntry("envHits", 2L).containsEntry("envSize", 1L);
+    }
+
+    @Test
+    void userMessagePutsContextBeforeInput() {
+        assertThat(compiler.compileUserMessage("", "查看磁盘空间")).isEqualTo("查看磁盘空间");
+        assertThat(compiler.compileUserMessage("用户：打开终端", "再打开一个")).isEqualTo("用户：打开终端\n当前输入：再打开一个");
+    }
+
+    private static int commonPrefixLength(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) i++;
+        return i;
+    }
+}
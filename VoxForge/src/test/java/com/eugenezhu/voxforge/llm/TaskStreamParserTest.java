@@ -0,0 +1,97 @@
+package com.eugenezhu.voxforge.llm;
+
+import com.eugenezhu.voxforge.model.LlmResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.llm
+ * @className: TaskStreamParserTest
+ * @author: zhuyuchen
+ * @description: TaskStreamParser 在任意片段边界, 字符串内的括号与转义, 以及格式错误的任务对象下的行为
+ * @date: 2026/10/24 下午5:00
+ */
+class TaskStreamParserTest {
+
+    private static final String DOCUMENT = "```json\n{\"reply\": \"好的, 打开 \\\"记事本\\\"\", \"tasks\": ["
+            + "{\"title\": \"打开记事本\", \"cmd\": \"notepad\", \"shell\": \"cmd\"},"
+            + "{\"title\": \"写入 {}[]\", \"cmd\": \"echo \\\"a}b]\\\" > a.txt\", \"maxRetries\": 2}"
+            + "]}\n```";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void parsesWholeDocument() {
+        TaskStreamParser parser = new TaskStreamParser(objectMapper);
+        List<LlmResponse.TaskDefinition> tasks = parser.feed(DOCUMENT);
+
+        assertThat(tasks).extracting(LlmResponse.TaskDefinition::getCmd).containsExactly("notepad", "echo \"a}b]\" > a.txt");
+        assertThat(tasks.get(1).getTitle()).isEqualTo("写入 {}[]");
+        assertThat(tasks.get(1).getMaxRetries()).isEqualTo(2);
+        assertThat(parser.getReply()).isEqualTo("好的, 打开 \"记事本\"");
+        assertThat(parser.isFinished()).isTrue();
+    }
+
+    @Test
+    void sameResultForEverySplitPoint() {
+        List<LlmResponse.TaskDefinition> expected = new TaskStreamParser(objectMapper).feed(DOCUMENT);
+        for (int split = 0; split <= DOCUMENT.length(); split++) {
+            TaskStreamParser parser = new TaskStreamParser(objectMapper);
+            List<LlmResponse.TaskDefinition> tasks = new ArrayList<>(parser.feed(DOCUMENT.substring(0, split)));
+            tasks.addAll(parser.feed(DOCUMENT.substring(split)));
+
+            assertThat(tasks).as("split at %d", split).isEqualTo(expected);
+            assertThat(parser.getReply()).as("split at %d", split).isEqualTo("好的, 打开 \"记事本\"");
+        }
+    }
+
+    @Test
+    void emitsEachTaskWhenItsObjectCloses() {
+        TaskStreamParser parser = new TaskStreamParser(objectMapper);
+        int firstClose = DOCUMENT.indexOf("},") + 1;
+        List<Integer> emittedAt = new ArrayList<>();
+        for (int i = 0; i < DOCUMENT.length(); i++) {
+            if (!parser.feed(String.valueOf(DOCUMENT.charAt(i))).isEmpty()) emittedAt.add(i + 1);
+        }
+
+        assertThat(emittedAt).hasSize(2);
+        assertThat(emittedAt.get(0)).isEqualTo(firstClose);
+    }
+
+    @Test
+    void skipsMalformedTaskAndKeepsParsing() {
+        TaskStreamParser parser = new TaskStreamParser(objectMapper);
+        List<LlmResponse.TaskDefinition> tasks = new ArrayList<>();
+        tasks.addAll(parser.feed("{\"tasks\": [{\"title\": \"坏的\", \"cmd\": oops}, "));
+        tasks.addAll(parser.feed("{\"title\": \"好的\", \"cmd\": \"dir\"}]}"));
+
+        assertThat(tasks).extracting(LlmResponse.TaskDefinition::getCmd).containsExactly("dir");
+        assertThat(parser.isFinished()).isTrue();
+    }
+
+    @Test
+    void truncatedStreamKeepsCompletedTasks() {
+        TaskStreamParser parser = new TaskStreamParser(objectMapper);
+        List<LlmResponse.TaskDefinition> tasks = parser.feed("{\"tasks\": [{\"cmd\": \"ls\"}, {\"cmd\": \"pw");
+
+        assertThat(tasks).extracting(LlmResponse.TaskDefinition::getCmd).containsExactly("ls");
+        assertThat(parser.isFinished()).isFalse();
+        assertThat(parser.getReply()).isNull();
+    }
+
+    @Test
+    void ignoresNestedTasksAndInputAfterRoot() {
+        TaskStreamParser parser = new TaskStreamParser(objectMapper);
+        List<LlmResponse.TaskDefinition> tasks = new ArrayList<>();
+        tasks.addAll(parser.feed("{\"meta\": {\"tasks\": [{\"cmd\": \"nested\"}]}, \"tasks\": [{\"cmd\": \"root\"}]}"));
+        tasks.addAll(parser.feed("{\"tasks\": [{\"cmd\": \"after\"}]}"));
+
+        assertThat(tasks).extracting(LlmResponse.TaskDefinition::getCmd).containsExactly("root");
+    }
+}
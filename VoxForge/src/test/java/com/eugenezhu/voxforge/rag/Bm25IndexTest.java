@@ -0,0 +1,71 @@
+package com.eugenezhu.voxforge.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: Bm25IndexTest
+ * @author: zhuyuchen
+ * @description: 中文按二元组切分后的 BM25 打分, 与按公式手算的分数比较; 以及覆盖, 删除与过滤
+ * @date: 2026/10/25 上午10:30
+ */
+class Bm25IndexTest {
+
+    @Test
+    void tokenizesCjkAsBigramsAndLatinAsWords() {
+        assertThat(LexicalTokenizer.tokenize("查看磁盘空间 df -h")).containsExactly("查看", "看磁", "磁盘", "盘空", "空间", "df", "h");
+        assertThat(LexicalTokenizer.tokenize("删 Git分支")).containsExactly("删", "git", "分支");
+    }
+
+    @Test
+    void scoresCjkBigramsWithBm25() {
+        Bm25Index<String> index = new Bm25Index<>(1.2, 0.75);
+        index.add("disk", "disk", "查看磁盘空间"); // 查看 看磁 磁盘 盘空 空间, 长度 5
+        index.add("mem", "mem", "查看内存"); // 查看 看内 内存, 长度 3
+        index.add("proc", "proc", "结束进程"); // 结束 束进 进程, 长度 3
+
+        List<Bm25Index.Result<String>> hits = index.search("磁盘空间", 10, v -> true); // 磁盘 盘空 空间
+
+        double avgdl = 11 / 3.0;
+        double idf = Math.log(1 + (3 - 1 + 0.5) / (1 + 0.5)); // 三个词各只出现在一个文档中
+        double norm = 1.2 * (1 - 0.75 + 0.75 * 5 / avgdl);
+        double expected = 3 * idf * (1.2 + 1) / (1 + norm);
+        assertThat(hits).extracting(Bm25Index.Result::key).containsExactly("disk");
+        assertThat(hits.get(0).score()).isCloseTo(expected, within(1e-4));
+    }
+
+    @Test
+    void commonBigramRanksShorterDocumentFirst() {
+        Bm25Index<String> index = new Bm25Index<>();
+        index.add("disk", "disk", "查看磁盘空间");
+        index.add("mem", "mem", "查看内存");
+        index.add("proc", "proc", "结束进程");
+
+        List<Bm25Index.Result<String>> hits = index.search("查看", 10, v -> true);
+
+        assertThat(hits).extracting(Bm25Index.Result::key).containsExactly("mem", "disk");
+        assertThat(hits.get(0).score()).isGreaterThan(hits.get(1).score());
+    }
+
+    @Test
+    void overwriteRemoveAndFilter() {
+        Bm25Index<String> index = new Bm25Index<>();
+        index.add("a", "linux", "查看内存");
+        index.add("b", "windows", "查看内存");
+        index.add("a", "linux", "结束进程");
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.search("内存", 10, v -> true)).extracting(Bm25Index.Result::key).containsExactly("b");
+        assertThat(index.search("进程", 10, "windows"::equals)).isEmpty();
+
+        assertThat(index.remove("b")).isTrue();
+        assertThat(index.search("内存", 10, v -> true)).isEmpty();
+        assertThat(index.search("进程", 10, v -> true)).extracting(Bm25Index.Result::key).containsExactly("a");
+    }
+}
@@ -0,0 +1,101 @@
+package com.eugenezhu.voxforge.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: CommandUsageTrackerTest
+ * @author: zhuyuchen
+ * @description: 单个用户的 count-min sketch 与 top-N 表: 估计次数不低于真实次数, top-N 已满时的替换规则, hashCode 相同的命令不共享计数;
+ *               指纹只随参与加权的命令与先验档位变化
+ * @date: 2026/10/25 上午11:00
+ */
+class CommandUsageTrackerTest {
+
+    @Test
+    void keepsTopNUntilFull() {
+        CommandUsageTracker.UserUsage usage = new CommandUsageTracker.UserUsage(4, 256, 2);
+        usage.add("ls", 3);
+        usage.add("pwd", 2);
+
+        assertThat(usage.top()).isEqualTo(Map.of("ls", 3L, "pwd", 2L));
+        assertThat(usage.maxCount()).isEqualTo(3);
+    }
+
+    @Test
+    void replacesMinimumOnlyWhenEstimateExceedsIt() {
+        CommandUsageTracker.UserUsage usage = new CommandUsageTracker.UserUsage(4, 256, 2);
+        usage.add("ls", 3);
+        usage.add("pwd", 2);
+
+        usage.add("df", 2); // 估计 2, 不超过表中最小值 2
+        assertThat(usage.top()).containsOnlyKeys("ls", "pwd");
+
+        usage.add("df", 1); // 估计 3, 替换 pwd
+        assertThat(usage.top()).isEqualTo(Map.of("ls", 3L, "df", 3L));
+
+        usage.add("ls", 2); // 已在表中的命令直接更新
+        assertThat(usage.top()).isEqualTo(Map.of("ls", 5L, "df", 3L));
+        assertThat(usage.maxCount()).isEqualTo(5);
+    }
+
+    @Test
+    void estimateNeverBelowTrueCount() {
+        CommandUsageTracker.UserUsage usage = new CommandUsageTracker.UserUsage(4, 16, 1000);
+        for (int i = 0; i < 200; i++) usage.add("cmd-" + (i % 50), 1);
+
+        // 宽度远小于命令数, 计数器会冲突, 估计值只会偏高
+        assertThat(usage.top()).hasSize(50).allSatisfy((cmd, estimate) -> assertThat(estimate).isGreaterThanOrEqualTo(4));
+    }
+
+    @Test
+    void hashCodeCollisionsUseIndependentRows() {
+        assertThat("Aa".hashCode()).isEqualTo("BB".hashCode());
+        CommandUsageTracker.UserUsage usage = new CommandUsageTracker.UserUsage(4, 1024, 10);
+        usage.add("Aa", 5);
+        usage.add("BB", 1);
+
+        assertThat(usage.top()).containsEntry("BB", 1L);
+    }
+
+    @Test
+    void versionAdvancesOnEveryAdd() {
+        CommandUsageTracker.UserUsage usage = new CommandUsageTracker.UserUsage(4, 256, 2);
+        long before = usage.version();
+        usage.add("ls", 1);
+        usage.add("ls", 1);
+
+        assertThat(usage.version()).isEqualTo(before + 2);
+    }
+
+    @Test
+    void fingerprintIgnoresChangesWithinPriorBucket() {
+        CommandUsageTracker.UserUsage usage = new CommandUsageTracker.UserUsage(4, 256, 10);
+        usage.add("ls", 100);
+        usage.add("pwd", 40);
+        String before = usage.fingerprint(3);
+
+        usage.add("ls", 1); // 先验仍在同一档
+        usage.add("df", 2); // 未达到 minCount, 不参与加权
+        assertThat(usage.fingerprint(3)).isEqualTo(before);
+
+        usage.add("df", 1);
+        assertThat(usage.fingerprint(3)).isNotEqualTo(before);
+    }
+
+    @Test
+    void fingerprintFollowsPriorBucket() {
+        CommandUsageTracker.UserUsage usage = new CommandUsageTracker.UserUsage(4, 256, 10);
+        usage.add("ls", 100);
+        usage.add("pwd", 3);
+        String before = usage.fingerprint(3);
+
+        usage.add("pwd", 60); // pwd 的先验从第 3 档升到第 9 档
+        assertThat(usage.fingerprint(3)).isNotEqualTo(before);
+    }
+}
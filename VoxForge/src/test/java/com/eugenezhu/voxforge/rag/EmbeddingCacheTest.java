@@ -0,0 +1,117 @@
+package com.eugenezhu.voxforge.rag;
+
+import com.eugenezhu.voxforge.config.RagConfig;
+import com.eugenezhu.voxforge.util.Hashing;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: EmbeddingCacheTest
+ * @author: zhuyuchen
+ * @description: 嵌入缓存的堆内 LRU, 文件层在重新打开后的命中, 写满后的行为与格式不匹配的文件
+ * @date: 2026/10/26 上午10:00
+ */
+class EmbeddingCacheTest {
+
+    private static final double[] VECTOR = {0.25, -0.5, 0.125};
+
+    @TempDir
+    Path dir;
+
+    private final List<EmbeddingCache> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeAll() {
+        opened.forEach(EmbeddingCache::close);
+    }
+
+    @Test
+    void survivesRestart() {
+        EmbeddingCache first = open(16, 1 << 16);
+        first.put(key("查看磁盘空间"), VECTOR);
+        first.close();
+
+        EmbeddingCache second = open(16, 1 << 16);
+        assertThat(second.get(key("查看磁盘空间"))).containsExactly(VECTOR);
+        assertThat(second.get(key("查看内存"))).isNull();
+        assertThat(second.stats()).containsEntry("fileHits", 1L).containsEntry("fileEntries", 1).containsEntry("misses", 1L);
+
+        // 文件层命中后提升到堆内
+        second.get(key("查看磁盘空间"));
+        assertThat(second.stats()).containsEntry("heapHits", 1L);
+    }
+
+    @Test
+    void appendsAfterReopenWithoutOverwriting() {
+        EmbeddingCache first = open(16, 1 << 16);
+        first.put(key("a"), VECTOR);
+        first.close();
+
+        EmbeddingCache second = open(16, 1 << 16);
+        second.put(key("b"), new double[]{1, 2});
+        second.put(key("a"), new double[]{9, 9, 9}); // 文件中已存在, 不再追加
+        second.close();
+
+        EmbeddingCache third = open(16, 1 << 16);
+        assertThat(third.get(key("a"))).containsExactly(VECTOR);
+        assertThat(third.get(key("b"))).containsExactly(1, 2);
+        assertThat(third.stats()).containsEntry("fileEntries", 2);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedFromHeap() {
+        EmbeddingCache cache = open(2, 1 << 16);
+        cache.put(key("a"), VECTOR);
+        cache.put(key("b"), VECTOR);
+        cache.get(key("a"));
+        cache.put(key("c"), VECTOR);
+
+        assertThat(cache.stats()).containsEntry("heapSize", 2);
+        // b 已从堆内淘汰, 仍可从文件层读取
+        assertThat(cache.get(key("b"))).containsExactly(VECTOR);
+        assertThat(cache.stats()).containsEntry("fileHits", 1L);
+    }
+
+    @Test
+    void stopsAppendingWhenFileIsFull() {
+        // 文件头 8 字节 + 一条 3 维记录 32 字节
+        EmbeddingCache cache = open(1, 40);
+        cache.put(key("a"), VECTOR);
+        cache.put(key("b"), VECTOR);
+
+        assertThat(cache.stats()).containsEntry("fileEntries", 1).containsEntry("fileFull", true);
+        assertThat(cache.get(key("b"))).containsExactly(VECTOR); // 仍写入堆内
+    }
+
+    @Test
+    void ignoresFileWithUnknownFormat() throws Exception {
+        Files.write(dir.resolve("embeddings.bin"), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        EmbeddingCache cache = open(16, 1 << 16);
+        cache.put(key("a"), VECTOR);
+
+        assertThat(cache.get(key("a"))).containsExactly(VECTOR);
+        assertThat(cache.stats()).containsEntry("fileEntries", 0).containsEntry("appends", 0L);
+    }
+
+    private EmbeddingCache open(int heapEntries, long maxFileBytes) {
+        String path = dir.resolve("embeddings.bin").toString();
+        EmbeddingCache cache = new EmbeddingCache(new RagConfig.EmbeddingCacheProperties(true, heapEntries, path, maxFileBytes));
+        cache.open();
+        opened.add(cache);
+        return cache;
+    }
+
+    private static String key(String text) {
+        return Hashing.fingerprint("text-embedding", 3, text);
+    }
+}
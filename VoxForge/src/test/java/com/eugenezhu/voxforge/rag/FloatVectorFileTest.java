@@ -0,0 +1,54 @@
+package com.eugenezhu.voxforge.rag;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: FloatVectorFileTest
+ * @author: zhuyuchen
+ * @description: 向量文件的读写, 精确检索, 以及持有租约时关闭被推迟到租约释放
+ * @date: 2026/10/27 上午10:00
+ */
+class FloatVectorFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackAndSearchesExactly() {
+        try (FloatVectorFile<String> file = new FloatVectorFile<>(dir.resolve("floats"))) {
+            file.put("a", "a", new float[]{1, 0});
+            file.put("b", "b", new float[]{0, 1});
+
+            assertThat(file.get("a")).containsExactly(1, 0);
+            assertThat(file.get("b", new float[1])).containsExactly(0);
+            assertThat(file.exactSearch(new float[]{0.8f, 0.6f}, 2, v -> true)).containsExactly("a", "b");
+            assertThat(file.exactSearch(new float[]{0.8f, 0.6f}, 2, "b"::equals)).containsExactly("b");
+        }
+    }
+
+    @Test
+    void closeWaitsForLeases() {
+        Path path = dir.resolve("floats");
+        FloatVectorFile<String> file = new FloatVectorFile<>(path);
+        file.put("a", "a", new float[]{1, 0});
+
+        assertThat(file.retain()).isTrue();
+        file.close();
+        // 租约持有期间仍可读取, 文件未被删除
+        assertThat(file.exactSearch(new float[]{1, 0}, 1, v -> true)).containsExactly("a");
+        assertThat(Files.exists(path)).isTrue();
+        assertThat(file.retain()).isFalse();
+
+        file.release();
+        assertThat(file.get("a")).isNull();
+        assertThat(Files.exists(path)).isFalse();
+    }
+}
@@ -0,0 +1,130 @@
+package com.eugenezhu.voxforge.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: HnswIndexTest
+ * @author: zhuyuchen
+ * @description: HnswIndex 相对暴力检索的 recall@k, 覆盖逻辑删除后与删除比例过高触发重建后的情况; 向量与图均由固定种子生成, 结果确定
+ * @date: 2026/10/25 上午10:00
+ */
+class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+    private static final int CORPUS = 1500;
+    private static final int QUERIES = 50;
+    private static final int K = 10;
+    private static final int EF = 64;
+
+    private final Random random = new Random(7);
+
+    @Test
+    void recallMatchesBruteForce() {
+        Map<String, float[]> live = corpus();
+        HnswIndex<String> index = index(live);
+
+        assertThat(recall(index, live)).isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    void deletedNodesAreNeverReturned() {
+        Map<String, float[]> live = corpus();
+        HnswIndex<String> index = index(live);
+        Set<String> removed = removeTwoThirds(index, live);
+
+        assertThat(index.size()).isEqualTo(live.size());
+        for (int q = 0; q < QUERIES; q++) {
+            List<HnswIndex.Result<String>> hits = index.search(randomUnit(), K, EF, v -> true);
+            assertThat(hits).extracting(HnswIndex.Result::key).doesNotContainAnyElementsOf(removed);
+        }
+        assertThat(recall(index, live)).isGreaterThanOrEqualTo(0.9);
+    }
+
+    @Test
+    void recallHoldsAfterRebuild() {
+        Map<String, float[]> live = corpus();
+        HnswIndex<String> index = index(live);
+        Set<String> removed = removeTwoThirds(index, live);
+
+        // 删除比例超过一半后的下一次插入触发重建, 重建后只保留有效节点
+        float[] extra = randomUnit();
+        index.add("extra", "extra", extra);
+        live.put("extra", extra);
+
+        assertThat(index.vectorBytes()).isEqualTo((long) live.size() * DIMENSION * Float.BYTES);
+        assertThat(index.size()).isEqualTo(live.size());
+        assertThat(removed).noneMatch(index::contains);
+        assertThat(recall(index, live)).isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    void overwriteReplacesVector() {
+        Map<String, float[]> live = corpus();
+        HnswIndex<String> index = index(live);
+        float[] moved = randomUnit();
+        index.add("v-0", "v-0", moved);
+
+        List<HnswIndex.Result<String>> hits = index.search(moved, 1, EF, v -> true);
+        assertThat(hits).extracting(HnswIndex.Result::key).containsExactly("v-0");
+        assertThat(hits.get(0).score()).isCloseTo(1.0, within(1e-5));
+        assertThat(index.size()).isEqualTo(CORPUS);
+    }
+
+    private Map<String, float[]> corpus() {
+        Map<String, float[]> vectors = new LinkedHashMap<>();
+        for (int i = 0; i < CORPUS; i++) vectors.put("v-" + i, randomUnit());
+        return vectors;
+    }
+
+    private static HnswIndex<String> index(Map<String, float[]> vectors) {
+        HnswIndex<String> index = new HnswIndex<>(16, 100);
+        vectors.forEach((key, v) -> index.add(key, key, v));
+        return index;
+    }
+
+    private static Set<String> removeTwoThirds(HnswIndex<String> index, Map<String, float[]> live) {
+        Set<String> removed = new HashSet<>();
+        for (int i = 0; i < CORPUS; i++) {
+            if (i % 3 == 0) continue;
+            String key = "v-" + i;
+            assertThat(index.remove(key)).isTrue();
+            live.remove(key);
+            removed.add(key);
+        }
+        return removed;
+    }
+
+    private double recall(HnswIndex<String> index, Map<String, float[]> live) {
+        double total = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = randomUnit();
+            Set<String> exact = live.entrySet().stream()
+                    .sorted(Comparator.comparingDouble((Map.Entry<String, float[]> e) -> VectorKernels.dot(query, e.getValue())).reversed())
+                    .limit(K)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet());
+            total += (double) index.search(query, K, EF, v -> true).stream().filter(hit -> exact.contains(hit.key())).count() / K;
+        }
+        return total / QUERIES;
+    }
+
+    private float[] randomUnit() {
+        float[] v = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) v[i] = (float) random.nextGaussian();
+        return VectorKernels.normalize(v);
+    }
+}
@@ -0,0 +1,88 @@
+package com.eugenezhu.voxforge.rag;
+
+import com.eugenezhu.voxforge.config.RagConfig;
+import com.eugenezhu.voxforge.model.CommandTemplate;
+import com.eugenezhu.voxforge.model.ScoredCommand;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: RetrievalCacheTest
+ * @author: zhuyuchen
+ * @description: 检索结果缓存的键归一化, LRU 淘汰与命令库版本变化后的失效
+ * @date: 2026/10/25 上午11:30
+ */
+class RetrievalCacheTest {
+
+    private static final String OS = "Ubuntu 22.04";
+
+    private final CommandLibrary library = new CommandLibrary(null, null, null);
+
+    @Test
+    void hitsOnNormalizedTextAndSeparatesScope() {
+        RetrievalCache cache = cache(8);
+        cache.put("查看磁盘空间", OS, "bash", 5, cache.version(), hits("df -h"));
+
+        assertThat(cache.get("  查看磁盘空间。", OS, "bash", 5)).isEqualTo(hits("df -h"));
+        assertThat(cache.get("查看磁盘空间", OS, "zsh", 5)).isNull();
+        assertThat(cache.get("查看磁盘空间", OS, "bash", 3)).isNull();
+        assertThat(cache.get("查看磁盘空间", "Windows 11", "bash", 5)).isNull();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        RetrievalCache cache = cache(2);
+        long version = cache.version();
+        cache.put("a", OS, "bash", 5, version, hits("a"));
+        cache.put("b", OS, "bash", 5, version, hits("b"));
+        cache.get("a", OS, "bash", 5); // a 成为最近使用
+        cache.put("c", OS, "bash", 5, version, hits("c"));
+
+        assertThat(cache.get("a", OS, "bash", 5)).isNotNull();
+        assertThat(cache.get("b", OS, "bash", 5)).isNull();
+        assertThat(cache.get("c", OS, "bash", 5)).isNotNull();
+        assertThat(cache.stats()).containsEntry("evictions", 1L).containsEntry("size", 2);
+    }
+
+    @Test
+    void libraryChangeInvalidatesEntries() {
+        RetrievalCache cache = cache(8);
+        cache.put("a", OS, "bash", 5, cache.version(), hits("a"));
+        library.swap(List.of());
+
+        assertThat(cache.get("a", OS, "bash", 5)).isNull();
+        assertThat(cache.stats()).containsEntry("stale", 1L).containsEntry("size", 0);
+    }
+
+    @Test
+    void dropsResultComputedAgainstOldVersion() {
+        RetrievalCache cache = cache(8);
+        long version = cache.version(); // 检索开始前读取
+        library.swap(List.of()); // 检索期间命令库发生变化
+        cache.put("a", OS, "bash", 5, version, hits("a"));
+
+        assertThat(cache.get("a", OS, "bash", 5)).isNull();
+        assertThat(cache.stats()).containsEntry("size", 0);
+    }
+
+    @Test
+    void disabledCacheNeverHits() {
+        RetrievalCache cache = new RetrievalCache(new RagConfig.RetrievalCacheProperties(false, 8), library);
+        cache.put("a", OS, "bash", 5, cache.version(), hits("a"));
+
+        assertThat(cache.get("a", OS, "bash", 5)).isNull();
+    }
+
+    private RetrievalCache cache(int maxEntries) {
+        return new RetrievalCache(new RagConfig.RetrievalCacheProperties(true, maxEntries), library);
+    }
+
+    private static List<ScoredCommand> hits(String cmd) {
+        return List.of(new ScoredCommand(new CommandTemplate(cmd, cmd, OS, "bash"), 0.9, ScoredCommand.SOURCE_VECTOR));
+    }
+}
@@ -0,0 +1,75 @@
+package com.eugenezhu.voxforge.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.assertj.core.api.Assumptions.assumeThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.rag
+ * @className: VectorKernelsTest
+ * @author: zhuyuchen
+ * @description: SimdKernels 与 ScalarKernels 的结果一致, 维度覆盖不足一个向量宽度与带尾部余数的情况; double 向量归一化
+ * @date: 2026/10/27 上午11:00
+ */
+class VectorKernelsTest {
+
+    // 不足一个向量宽度, 恰好整数倍, 以及带尾部余数的维度
+    private static final int[] DIMENSIONS = {1, 3, 4, 7, 8, 15, 16, 17, 31, 33, 63, 64, 65, 255, 1023, 1024, 1025};
+    private static final float TOLERANCE = 1e-4f;
+
+    private final Random random = new Random(11);
+
+    @Test
+    void simdMatchesScalar() {
+        // 测试 JVM 参数包含 --add-modules jdk.incubator.vector, 硬件不支持时跳过
+        assumeThat(VectorKernels.isSimd()).isTrue();
+        for (int dimension : DIMENSIONS) {
+            float[] a = VectorKernels.normalize(random(dimension));
+            float[] b = VectorKernels.normalize(random(dimension));
+            float[] raw = random(dimension);
+
+            assertThat(SimdKernels.dot(a, b)).as("dot, %d 维", dimension).isCloseTo(ScalarKernels.dot(a, b), within(TOLERANCE));
+            assertThat(SimdKernels.cosine(raw, b)).as("cosine, %d 维", dimension).isCloseTo(ScalarKernels.cosine(raw, b), within(TOLERANCE));
+            assertThat(SimdKernels.l2Squared(a, b)).as("l2Squared, %d 维", dimension)
+                    .isCloseTo(ScalarKernels.l2Squared(a, b), within(TOLERANCE * 4));
+        }
+    }
+
+    @Test
+    void simdInt8MatchesScalar() {
+        assumeThat(VectorKernels.isSimd() && SimdKernels.supportsInt8()).isTrue();
+        for (int dimension : DIMENSIONS) {
+            float[] a = VectorKernels.normalize(random(dimension));
+            float[] b = VectorKernels.normalize(random(dimension));
+            byte[] codeA = VectorKernels.quantize(a, VectorKernels.int8Scale(a));
+            byte[] codeB = VectorKernels.quantize(b, VectorKernels.int8Scale(b));
+
+            assertThat(SimdKernels.dot(a, codeB)).as("float x int8, %d 维", dimension)
+                    .isCloseTo(ScalarKernels.dot(a, codeB), within(TOLERANCE * 127));
+            assertThat(SimdKernels.dot(codeA, codeB)).as("int8 x int8, %d 维", dimension).isEqualTo(ScalarKernels.dot(codeA, codeB));
+        }
+    }
+
+    @Test
+    void normalizesDoubleVectorsInDouble() {
+        double[] v = {3, 4, 1e-9};
+        double[] unit = VectorKernels.normalize(v);
+
+        double sum = 0;
+        for (double x : unit) sum += x * x;
+        assertThat(sum).isCloseTo(1.0, within(1e-15));
+        assertThat(unit[2]).isEqualTo(1e-9 / Math.sqrt(25 + 1e-18));
+        assertThat(VectorKernels.normalize(new double[]{0, 0})).containsExactly(0, 0);
+    }
+
+    private float[] random(int dimension) {
+        float[] v = new float[dimension];
+        for (int i = 0; i < dimension; i++) v[i] = (float) random.nextGaussian();
+        return v;
+    }
+}
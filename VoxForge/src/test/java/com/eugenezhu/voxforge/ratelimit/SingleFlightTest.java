@@ -0,0 +1,101 @@
+package com.eugenezhu.voxforge.ratelimit;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.ratelimit
+ * @className: SingleFlightTest
+ * @author: zhuyuchen
+ * @description: 相同 key 的并发调用合并, 部分调用方取消不影响其余调用方, 全部取消时取消上游, 完成或失败后移除进行中的调用;
+ *               上游由 Sinks 手动控制完成时机, 不依赖线程调度
+ * @date: 2026/10/25 下午3:00
+ */
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> flight = new SingleFlight<>("test");
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final Sinks.One<String> upstream = Sinks.one();
+
+    @Test
+    void concurrentCallersShareOneCall() {
+        AtomicReference<String> first = new AtomicReference<>();
+        AtomicReference<String> second = new AtomicReference<>();
+        call("k").subscribe(first::set);
+        call("k").subscribe(second::set);
+
+        assertThat(calls).hasValue(1);
+        assertThat(flight.getInflight()).isEqualTo(1);
+        upstream.tryEmitValue("v");
+
+        assertThat(first).hasValue("v");
+        assertThat(second).hasValue("v");
+        assertThat(flight.getLeaders()).isEqualTo(1);
+        assertThat(flight.getJoins()).isEqualTo(1);
+        assertThat(flight.getInflight()).isZero();
+    }
+
+    @Test
+    void differentKeysDoNotShare() {
+        call("a").subscribe();
+        call("b").subscribe();
+
+        assertThat(calls).hasValue(2);
+        assertThat(flight.getInflight()).isEqualTo(2);
+    }
+
+    @Test
+    void oneCallerCancellingKeepsCallForOthers() {
+        AtomicReference<String> kept = new AtomicReference<>();
+        Disposable leaving = call("k").subscribe();
+        call("k").subscribe(kept::set);
+        leaving.dispose();
+
+        assertThat(cancelled).isFalse();
+        upstream.tryEmitValue("v");
+        assertThat(kept).hasValue("v");
+    }
+
+    @Test
+    void allCallersCancellingCancelsUpstream() {
+        Disposable a = call("k").subscribe();
+        Disposable b = call("k").subscribe();
+        a.dispose();
+        b.dispose();
+
+        assertThat(cancelled).isTrue();
+        assertThat(flight.getInflight()).isZero();
+
+        // 之后的调用重新发起上游调用
+        call("k").subscribe();
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void failureIsSharedAndRemoved() {
+        StepVerifier.create(call("k"))
+                .then(() -> upstream.tryEmitError(new IllegalStateException("boom")))
+                .expectErrorMessage("boom")
+                .verify();
+
+        assertThat(flight.getInflight()).isZero();
+    }
+
+    private Mono<String> call(String key) {
+        return flight.execute(key, () -> {
+            calls.incrementAndGet();
+            return upstream.asMono().doOnCancel(() -> cancelled.set(true));
+        });
+    }
+}
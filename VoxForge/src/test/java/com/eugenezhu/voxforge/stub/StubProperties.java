@@ -0,0 +1,47 @@
+package com.eugenezhu.voxforge.stub;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.stub
+ * @className: StubProperties
+ * @author: zhuyuchen
+ * @description: 本地替身上游服务配置, 每个接口独立配置延迟分布与错误率
+ * @date: 2026/10/19 上午9:30
+ */
+@Data
+public class StubProperties {
+
+    private boolean enabled = false;
+    private String host = "127.0.0.1";
+    private int port = 18080;
+
+    private Endpoint asr = new Endpoint(Duration.ofMillis(300), Duration.ofMillis(900), 0);
+    private Endpoint tts = new Endpoint(Duration.ofMillis(200), Duration.ofMillis(700), 0);
+    private Endpoint llm = new Endpoint(Duration.ofMillis(800), Duration.ofMillis(3000), 0);
+    private Endpoint embedding = new Endpoint(Duration.ofMillis(40), Duration.ofMillis(150), 0);
+
+    private int streamChunkChars = 16; // 流式响应每个 SSE 数据块包含的字符数
+    private Duration streamChunkInterval = Duration.ofMillis(30); // 流式数据块之间的间隔
+    private int embeddingDimension = 1024; // 请求未指定 dimensions 时使用
+
+    @Data
+    public static class Endpoint {
+        private Duration latencyMedian; // 延迟中位数, 延迟服从对数正态分布
+        private Duration latencyP99; // 延迟 p99, 与中位数共同决定分布的离散程度
+        private double errorRate; // 注入错误的概率 [0, 1]
+        private int errorStatus = 503; // 注入错误时返回的状态码
+
+        public Endpoint() {
+        }
+
+        public Endpoint(Duration latencyMedian, Duration latencyP99, double errorRate) {
+            this.latencyMedian = latencyMedian;
+            this.latencyP99 = latencyP99;
+            this.errorRate = errorRate;
+        }
+    }
+}
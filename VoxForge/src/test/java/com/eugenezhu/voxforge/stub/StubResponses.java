@@ -0,0 +1,191 @@
+package com.eugenezhu.voxforge.stub;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.stub
+ * @className: StubResponses
+ * @author: zhuyuchen
+ * @description: 替身上游的确定性输出, 相同输入总是得到相同结果, 便于压测结果复现与缓存/合并逻辑验证
+ * @date: 2026/10/19 上午9:40
+ */
+public final class StubResponses {
+
+    private static final List<String> ASR_PHRASES = List.of(
+            "打开记事本",
+            "打开计算器",
+            "打开浏览器",
+            "列出当前目录",
+            "打开资源管理器",
+            "打开记事本然后打开计算器",
+            "打开浏览器和VS Code",
+            "帮我看看当前目录下有哪些文件"
+    );
+
+    /**
+     * 关键词 -> 命令, 按在输入中出现的位置生成任务
+     */
+    private static final List<Intent> INTENTS = List.of(
+            new Intent(List.of("记事本", "notepad"), "打开记事本", "start notepad.exe", "gedit"),
+            new Intent(List.of("计算器", "calc"), "打开计算器", "start calc.exe", "gnome-calculator"),
+            new Intent(List.of("浏览器", "chrome"), "打开浏览器", "start chrome", "google-chrome"),
+            new Intent(List.of("资源管理器", "文件管理器"), "打开文件管理器", "explorer", "xdg-open ."),
+            new Intent(List.of("目录", "有哪些文件"), "列出目录", "dir", "ls -la"),
+            new Intent(List.of("vs code", "vscode", "代码编辑器"), "打开VS Code", "code", "code")
+    );
+
+    private static final Pattern OS_PATTERN = Pattern.compile("\"os\"\\s*:\\s*\"([^\"]+)\"");
+
+    // MPEG-1 Layer III, 128kbps, 44.1kHz 帧头, 每帧 417 字节, 约 26ms
+    private static final byte[] MP3_FRAME_HEADER = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0x64};
+    private static final int MP3_FRAME_BYTES = 417;
+    private static final int MP3_FRAME_MILLIS = 26;
+
+    private StubResponses() {
+    }
+
+    public static String asrText(String audioUrl) {
+        return ASR_PHRASES.get(Math.floorMod(hash(audioUrl), ASR_PHRASES.size()));
+    }
+
+    /**
+     * 合成语音时长, 每个字符 200ms
+     */
+    public static int ttsDurationMillis(String text) {
+        return Math.max(1, text == null ? 0 : text.length()) * 200;
+    }
+
+    /**
+     * 静音 mp3 数据, 帧数与合成时长对应
+     */
+    public static byte[] ttsAudio(String text) {
+        int frames = Math.max(1, ttsDurationMillis(text) / MP3_FRAME_MILLIS);
+        byte[] audio = new byte[frames * MP3_FRAME_BYTES];
+        for (int i = 0; i < frames; i++) {
+            System.arraycopy(MP3_FRAME_HEADER, 0, audio, i * MP3_FRAME_BYTES, MP3_FRAME_HEADER.length);
+        }
+        return audio;
+    }
+
+    /**
+     * 任务链内容, 结构与系统提示词要求的 JSON 一致
+     * @param system 系统提示词, 从中读取客户端操作系统
+     * @param user 用户消息
+     */
+    public static Map<String, Object> taskChain(String system, String user) {
+        String text = currentInput(user);
+        String os = clientOs(system);
+        boolean linux = os.toLowerCase().contains("ubuntu") || os.toLowerCase().contains("linux");
+        String lower = text.toLowerCase();
+
+        List<int[]> matched = new ArrayList<>(); // [出现位置, 意图下标]
+        for (int i = 0; i < INTENTS.size(); i++) {
+            int at = INTENTS.get(i).indexIn(lower);
+            if (at >= 0) matched.add(new int[]{at, i});
+        }
+        matched.sort(Comparator.comparingInt(m -> m[0]));
+
+        List<Map<String, Object>> tasks = new ArrayList<>();
+        for (int[] m : matched) {
+            Intent intent = INTENTS.get(m[1]);
+            tasks.add(task(intent.title, linux ? intent.linuxCmd : intent.windowsCmd, linux ? "bash" : "cmd", os));
+        }
+        if (tasks.isEmpty()) {
+            tasks.add(task("回显输入", "echo " + text, linux ? "bash" : "cmd", os));
+        }
+
+        Map<String, Object> content = new LinkedHashMap<>();
+        content.put("reply", "好的，正在为您执行 " + tasks.size() + " 个任务");
+        content.put("tasks", tasks);
+        return content;
+    }
+
+    public static String guidance(String user) {
+        return "请继续执行下一个任务 (" + Math.floorMod(hash(user), 1000) + ")";
+    }
+
+    /**
+     * 确定性嵌入向量: 字符二元组特征哈希到若干维度, 字面相近的文本得到相近的向量
+     */
+    public static double[] embedding(String text, int dimension) {
+        double[] v = new double[Math.max(1, dimension)];
+        String s = text == null ? "" : text.toLowerCase();
+        for (int i = 0; i < s.length(); i++) {
+            String gram = i + 1 < s.length() ? s.substring(i, i + 2) : s.substring(i);
+            int h = hash(gram);
+            for (int k = 0; k < 4; k++) {
+                h = h * 0x9E3779B1 + k;
+                v[Math.floorMod(h, v.length)] += h < 0 ? -1 : 1; // 符号取最高位, 与下标的低位无关
+            }
+        }
+        double norm = 0;
+        for (double x : v) norm += x * x;
+        norm = Math.sqrt(norm);
+        if (norm == 0) {
+            v[0] = 1;
+            return v;
+        }
+        for (int i = 0; i < v.length; i++) v[i] /= norm;
+        return v;
+    }
+
+    public static int hash(String s) {
+        // FNV-1a, 与 JVM 的 String.hashCode 实现无关, 跨进程稳定
+        int h = 0x811C9DC5;
+        for (byte b : (s == null ? "" : s).getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+    /**
+     * 带会话上下文的用户消息只取 "当前输入" 之后的部分
+     */
+    private static String currentInput(String user) {
+        if (user == null) return "";
+        int at = user.lastIndexOf("当前输入：");
+        return (at >= 0 ? user.substring(at + "当前输入：".length()) : user).trim();
+    }
+
+    /**
+     * 系统提示词中最后一个 os 字段来自客户端环境, 前面的是输出格式示例
+     */
+    private static String clientOs(String system) {
+        String os = "Windows 11";
+        if (system == null) return os;
+        Matcher m = OS_PATTERN.matcher(system);
+        while (m.find()) {
+            if (!m.group(1).contains("|")) os = m.group(1);
+        }
+        return os;
+    }
+
+    private static Map<String, Object> task(String title, String cmd, String shell, String os) {
+        Map<String, Object> task = new LinkedHashMap<>();
+        task.put("title", title);
+        task.put("cmd", cmd);
+        task.put("shell", shell);
+        task.put("os", os);
+        return task;
+    }
+
+    private record Intent(List<String> keywords, String title, String windowsCmd, String linuxCmd) {
+        int indexIn(String text) {
+            int best = -1;
+            for (String k : keywords) {
+                int at = text.indexOf(k);
+                if (at >= 0 && (best < 0 || at < best)) best = at;
+            }
+            return best;
+        }
+    }
+}
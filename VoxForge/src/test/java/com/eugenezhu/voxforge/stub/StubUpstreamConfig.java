@@ -0,0 +1,30 @@
+package com.eugenezhu.voxforge.stub;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.stub
+ * @className: StubUpstreamConfig
+ * @author: zhuyuchen
+ * @description: stub.enabled=true 时在应用内启动替身上游服务, 配合 stub profile 将各 WebClient 的 api-url 指向本机
+ * @date: 2026/10/19 上午9:32
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "stub", name = "enabled", havingValue = "true")
+public class StubUpstreamConfig {
+
+    @Bean
+    @ConfigurationProperties(prefix = "stub")
+    public StubProperties stubProperties() {
+        return new StubProperties();
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public StubUpstreamServer stubUpstreamServer(StubProperties stubProperties) {
+        return new StubUpstreamServer(stubProperties);
+    }
+}
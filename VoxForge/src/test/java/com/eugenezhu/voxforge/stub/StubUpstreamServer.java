@@ -0,0 +1,296 @@
+package com.eugenezhu.voxforge.stub;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+import reactor.netty.http.server.HttpServerRoutes;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.stub
+ * @className: StubUpstreamServer
+ * @author: zhuyuchen
+ * @description: 本地替身上游服务, 基于 reactor-netty 实现 /voice/asr, /voice/tts, /chat/completions (含 SSE) 与 /embeddings 的线上报文格式,
+ *               每个接口按对数正态分布注入延迟并按概率注入错误, 输出由输入确定, 用于离线压测吞吐与尾延迟.
+ *               只在测试类路径上, 不会打包进生产制品; 可随应用启动 (mvn spring-boot:test-run -Dspring-boot.run.profiles=stub),
+ *               也可通过 main 方法独立运行
+ * @date: 2026/10/19 上午10:05
+ */
+@Slf4j
+public class StubUpstreamServer {
+
+    private static final double Z_99 = 2.3263; // 标准正态分布 p99 分位点
+    private static final String JSON = "application/json";
+
+    private final StubProperties properties;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ConcurrentHashMap<String, AtomicLong> requests = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    private DisposableServer server;
+
+    public StubUpstreamServer(StubProperties properties) {
+        this.properties = properties;
+    }
+
+    public synchronized void start() {
+        if (server != null) return;
+        server = HttpServer.create()
+                .host(properties.getHost())
+                .port(properties.getPort())
+                .route(routes -> {
+                    post(routes, "/voice/asr", (req, res) -> handle("asr", properties.getAsr(), req, res, this::asr));
+                    post(routes, "/voice/tts", (req, res) -> handle("tts", properties.getTts(), req, res, this::tts));
+                    post(routes, "/chat/completions", (req, res) -> handle("llm", properties.getLlm(), req, res, this::chat));
+                    post(routes, "/embeddings", (req, res) -> handle("embedding", properties.getEmbedding(), req, res, this::embeddings));
+                })
+                .bindNow();
+        log.info("替身上游服务已启动: http://{}:{}/v1", properties.getHost(), server.port());
+    }
+
+    public synchronized void stop() {
+        if (server == null) return;
+        server.disposeNow();
+        server = null;
+        log.info("替身上游服务已停止, 请求数: {}, 注入错误数: {}", stats(requests), stats(errors));
+    }
+
+    public int port() {
+        return server != null ? server.port() : properties.getPort();
+    }
+
+    /**
+     * 独立运行: java ... StubUpstreamServer [port]
+     */
+    public static void main(String[] args) {
+        StubProperties properties = new StubProperties();
+        if (args.length > 0) properties.setPort(Integer.parseInt(args[0]));
+        StubUpstreamServer stub = new StubUpstreamServer(properties);
+        stub.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(stub::stop));
+        stub.server.onDispose().block();
+    }
+
+    /**
+     * 同时注册带 /v1 前缀和不带前缀的路径, 与各 WebClient 的 baseUrl 写法无关
+     */
+    private void post(HttpServerRoutes routes, String path,
+                      BiFunction<HttpServerRequest, HttpServerResponse, Publisher<Void>> handler) {
+        routes.post(path, handler).post("/v1" + path, handler);
+    }
+
+    private Publisher<Void> handle(String name, StubProperties.Endpoint endpoint, HttpServerRequest req, HttpServerResponse res,
+                                   BiFunction<JsonNode, HttpServerResponse, Publisher<Void>> responder) {
+        return req.receive().aggregate().asString(StandardCharsets.UTF_8)
+                .defaultIfEmpty("{}")
+                .flatMap(body -> {
+                    requests.computeIfAbsent(name, k -> new AtomicLong()).incrementAndGet();
+                    JsonNode json = parse(body);
+                    Mono<Long> delay = Mono.delay(sampleLatency(endpoint));
+                    if (ThreadLocalRandom.current().nextDouble() < endpoint.getErrorRate()) {
+                        errors.computeIfAbsent(name, k -> new AtomicLong()).incrementAndGet();
+                        return delay.then(res.status(endpoint.getErrorStatus())
+                                .header("Content-Type", JSON)
+                                .sendString(Mono.just("{\"error\":{\"message\":\"stub injected error\",\"type\":\"server_error\"}}"))
+                                .then());
+                    }
+                    return delay.then(Mono.from(responder.apply(json, res)));
+                });
+    }
+
+    private Publisher<Void> asr(JsonNode body, HttpServerResponse res) {
+        String url = body.path("audio").path("url").asText("");
+        int duration = 1000 + Math.floorMod(StubResponses.hash(url), 4000);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("text", StubResponses.asrText(url));
+        result.put("additions", Map.of("duration", String.valueOf(duration)));
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("audio_info", Map.of("duration", duration));
+        data.put("result", result);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("reqid", reqId(url));
+        response.put("operation", "query");
+        response.put("data", data);
+        return sendJson(res, response);
+    }
+
+    private Publisher<Void> tts(JsonNode body, HttpServerResponse res) {
+        String text = body.path("request").path("text").asText("");
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("reqid", reqId(text));
+        response.put("operation", "query");
+        response.put("sequence", -1);
+        response.put("data", Base64.getEncoder().encodeToString(StubResponses.ttsAudio(text)));
+        response.put("addition", Map.of("duration", String.valueOf(StubResponses.ttsDurationMillis(text))));
+        return sendJson(res, response);
+    }
+
+    private Publisher<Void> chat(JsonNode body, HttpServerResponse res) {
+        String model = body.path("model").asText("stub");
+        String system = "";
+        String user = "";
+        for (JsonNode message : body.path("messages")) {
+            if ("system".equals(message.path("role").asText())) system = message.path("content").asText("");
+            if ("user".equals(message.path("role").asText())) user = message.path("content").asText("");
+        }
+        // 任务链请求要求返回 JSON, 其余 (如下一步指导) 返回纯文本
+        String content = system.contains("JSON")
+                ? write(StubResponses.taskChain(system, user))
+                : StubResponses.guidance(user);
+        String id = "chatcmpl-" + reqId(system + user);
+
+        if (body.path("stream").asBoolean(false)) {
+            return streamChat(res, id, model, content);
+        }
+
+        Map<String, Object> choice = new LinkedHashMap<>();
+        choice.put("index", 0);
+        choice.put("message", Map.of("role", "assistant", "content", content));
+        choice.put("finish_reason", "stop");
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", id);
+        response.put("object", "chat.completion");
+        response.put("model", model);
+        response.put("choices", List.of(choice));
+        response.put("usage", usage(system.length() + user.length(), content.length()));
+        return sendJson(res, response);
+    }
+
+    /**
+     * 按固定字符数切分内容, 以配置的间隔逐块下发 SSE, 最后发送 [DONE]
+     */
+    private Publisher<Void> streamChat(HttpServerResponse res, String id, String model, String content) {
+        int size = Math.max(1, properties.getStreamChunkChars());
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < content.length(); i += size) {
+            String piece = content.substring(i, Math.min(content.length(), i + size));
+            events.add(chunk(id, model, Map.of("content", piece), null));
+        }
+        events.add(chunk(id, model, Map.of(), "stop"));
+        events.add("[DONE]");
+
+        Flux<String> body = Flux.fromIterable(events)
+                .index()
+                .concatMap(e -> e.getT1() == 0
+                        ? Mono.just(e.getT2())
+                        : Mono.delay(properties.getStreamChunkInterval()).thenReturn(e.getT2()))
+                .map(data -> "data: " + data + "\n\n");
+        return res.header("Content-Type", "text/event-stream")
+                .header("Cache-Control", "no-cache")
+                .sendString(body);
+    }
+
+    private Publisher<Void> embeddings(JsonNode body, HttpServerResponse res) {
+        int dimension = body.path("dimensions").asInt(properties.getEmbeddingDimension());
+        JsonNode input = body.has("input") ? body.path("input") : body.path("inputs");
+        List<String> texts = new ArrayList<>();
+        if (input.isArray()) {
+            input.forEach(node -> texts.add(node.asText("")));
+        } else {
+            texts.add(input.asText(""));
+        }
+
+        List<Map<String, Object>> data = new ArrayList<>();
+        int tokens = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("object", "embedding");
+            item.put("index", i);
+            item.put("embedding", StubResponses.embedding(texts.get(i), dimension));
+            data.add(item);
+            tokens += texts.get(i).length();
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("object", "list");
+        response.put("data", data);
+        response.put("model", body.path("model").asText("stub"));
+        response.put("usage", usage(tokens, 0));
+        return sendJson(res, response);
+    }
+
+    private String chunk(String id, String model, Map<String, Object> delta, String finishReason) {
+        Map<String, Object> choice = new LinkedHashMap<>();
+        choice.put("index", 0);
+        choice.put("delta", delta);
+        choice.put("finish_reason", finishReason);
+        Map<String, Object> chunk = new LinkedHashMap<>();
+        chunk.put("id", id);
+        chunk.put("object", "chat.completion.chunk");
+        chunk.put("model", model);
+        chunk.put("choices", List.of(choice));
+        return write(chunk);
+    }
+
+    /**
+     * 对数正态分布延迟: 中位数为 latencyMedian, p99 为 latencyP99, 上限为 p99 的 3 倍
+     */
+    private Duration sampleLatency(StubProperties.Endpoint endpoint) {
+        long median = endpoint.getLatencyMedian() != null ? endpoint.getLatencyMedian().toMillis() : 0;
+        if (median <= 0) return Duration.ZERO;
+        long p99 = endpoint.getLatencyP99() != null ? Math.max(median, endpoint.getLatencyP99().toMillis()) : median;
+        double sigma = Math.log((double) p99 / median) / Z_99;
+        double sample = Math.exp(Math.log(median) + sigma * ThreadLocalRandom.current().nextGaussian());
+        return Duration.ofMillis((long) Math.min(sample, p99 * 3.0));
+    }
+
+    private Map<String, Object> usage(int promptChars, int completionChars) {
+        Map<String, Object> usage = new LinkedHashMap<>();
+        usage.put("prompt_tokens", promptChars);
+        usage.put("completion_tokens", completionChars);
+        usage.put("total_tokens", promptChars + completionChars);
+        return usage;
+    }
+
+    private Publisher<Void> sendJson(HttpServerResponse res, Object body) {
+        return res.header("Content-Type", JSON).sendString(Mono.just(write(body)));
+    }
+
+    private String reqId(String seed) {
+        return String.format("%08x", StubResponses.hash(seed));
+    }
+
+    private JsonNode parse(String body) {
+        try {
+            return objectMapper.readTree(body);
+        } catch (JsonProcessingException e) {
+            log.warn("替身上游服务收到无法解析的请求体: {}", body);
+            return MissingNode.getInstance();
+        }
+    }
+
+    private String write(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化替身响应失败", e);
+        }
+    }
+
+    private Map<String, Long> stats(Map<String, AtomicLong> counters) {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        counters.forEach((k, v) -> stats.put(k, v.get()));
+        return stats;
+    }
+}
@@ -0,0 +1,23 @@
+package com.eugenezhu.voxforge.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @projectName: VoxForge
+ * @package: com.eugenezhu.voxforge.util
+ * @className: HashingTest
+ * @author: zhuyuchen
+ * @description: 内容指纹的字段分隔与编码
+ * @date: 2026/10/26 上午9:00
+ */
+class HashingTest {
+
+    @Test
+    void separatesParts() {
+        assertThat(Hashing.fingerprint("ab", "c")).isNotEqualTo(Hashing.fingerprint("a", "bc"));
+        assertThat(Hashing.fingerprint("a", 1)).isEqualTo(Hashing.fingerprint("a", "1"));
+        assertThat(Hashing.fingerprint("a")).hasSize(64).matches("[0-9a-f]+");
+    }
+}